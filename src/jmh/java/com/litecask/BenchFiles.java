@@ -0,0 +1,27 @@
+package com.litecask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/** Temp directories and key names shared by the JMH benchmarks */
+final class BenchFiles {
+
+    private BenchFiles() {
+    }
+
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            for (File c : f.listFiles()) deleteRecursively(c);
+        }
+        f.delete();
+    }
+
+    static String key(int i) {
+        return String.format("key%09d", i);
+    }
+}
@@ -0,0 +1,30 @@
+package com.litecask;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of the instrumentation LiteCask adds to every put and get when latency metrics are on:
+ * two clock reads and one histogram record. Run with {@code -t} above 1 to see contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class LatencyHistogramBenchmark {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Benchmark
+    public void timedOperation() {
+        histogram.recordSince(System.nanoTime());
+    }
+
+    @Benchmark
+    public long nanoTimeOnly() {
+        return System.nanoTime();
+    }
+}
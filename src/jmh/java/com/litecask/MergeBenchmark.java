@@ -0,0 +1,53 @@
+package com.litecask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Time of one {@link LiteCask#merge()} by garbage ratio: the same live data set, preceded by
+ * enough overwritten records that {@code garbagePercent} of the data files is dead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergeBenchmark {
+
+    @Param({"10", "50", "90"})
+    int garbagePercent;
+
+    @Param({"50000"})
+    int liveKeys;
+
+    @Param({"256"})
+    int valueSize;
+
+    private File dir;
+    private LiteCask db;
+
+    @Setup(Level.Invocation)
+    public void fill() throws IOException {
+        dir = BenchFiles.tempDir("litecask-jmh-merge");
+        LiteCaskOptions options = LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none()).maxFileSize(8L << 20);
+        db = LiteCask.open(dir.getAbsolutePath(), true, options);
+        byte[] value = new byte[valueSize];
+        long records = Math.round(liveKeys * 100.0 / (100 - garbagePercent));
+        for (long i = 0; i < records; i++) db.put(BenchFiles.key((int) (i % liveKeys)), value);
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() throws IOException {
+        db.close();
+        BenchFiles.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void merge() throws IOException {
+        db.merge();
+    }
+}
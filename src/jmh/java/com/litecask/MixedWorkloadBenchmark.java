@@ -0,0 +1,68 @@
+package com.litecask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Mixed reads and writes on Zipfian-distributed keys, YCSB style: {@code readPercent} of the
+ * operations are gets, the rest puts, and a few hot keys take most of the traffic.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(4)
+@Fork(1)
+public class MixedWorkloadBenchmark {
+
+    @Param({"50", "95", "100"})
+    int readPercent;
+
+    @Param({"0.99"})
+    double theta;
+
+    @Param({"100000"})
+    int keys;
+
+    @Param({"1024"})
+    int valueSize;
+
+    @Param({"0"})
+    long valueCacheBytes;
+
+    private File dir;
+    private LiteCask db;
+    private Zipf zipf;
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        dir = BenchFiles.tempDir("litecask-jmh-mixed");
+        LiteCaskOptions options = LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none());
+        if (valueCacheBytes > 0) options.valueCacheBytes(valueCacheBytes);
+        db = LiteCask.open(dir.getAbsolutePath(), true, options);
+        value = new byte[valueSize];
+        for (int i = 0; i < keys; i++) db.put(BenchFiles.key(i), value);
+        zipf = new Zipf(keys, theta);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        db.close();
+        BenchFiles.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Object mixed() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key = BenchFiles.key(zipf.next(random.nextDouble()));
+        if (random.nextInt(100) < readPercent) return db.get(key);
+        db.put(key, value);
+        return key;
+    }
+}
@@ -0,0 +1,84 @@
+package com.litecask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Fetching a batch of keys with {@link LiteCask#multiGet} against one {@link LiteCask#get} per
+ * key (us per batch; divide by {@code batch} for per-key cost). {@code layout=adjacent} asks for
+ * keys that were written together, {@code random} for keys scattered over the whole data set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class MultiGetBenchmark {
+
+    @Param({"100", "500"})
+    int batch;
+
+    @Param({"512"})
+    int valueSize;
+
+    @Param({"adjacent", "random"})
+    String layout;
+
+    @Param({"200000"})
+    int keys;
+
+    private File dir;
+    private LiteCask db;
+    private String[] names; // formatting keys would cost as much as reading them
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        dir = BenchFiles.tempDir("litecask-jmh-mget");
+        db = LiteCask.open(dir.getAbsolutePath(), true, LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none()));
+        byte[] value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+        names = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            names[i] = BenchFiles.key(i);
+            db.put(names[i], value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        db.close();
+        BenchFiles.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Map<String, byte[]> multiGet() throws IOException {
+        return db.multiGet(nextBatch());
+    }
+
+    @Benchmark
+    public int getEach() throws IOException {
+        int found = 0;
+        for (String key : nextBatch()) {
+            if (db.get(key) != null) found++;
+        }
+        return found;
+    }
+
+    private List<String> nextBatch() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<String> batchKeys = new ArrayList<>(batch);
+        int first = random.nextInt(keys - batch);
+        for (int i = 0; i < batch; i++) {
+            batchKeys.add(names[layout.equals("adjacent") ? first + i : random.nextInt(keys)]);
+        }
+        return batchKeys;
+    }
+}
@@ -0,0 +1,68 @@
+package com.litecask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Put and get throughput (ops/us) and latency distribution (us/op) by value size, on uniformly
+ * random keys. Thread count is a run option: {@code -Djmh.args="PutGet -t 8"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PutGetBenchmark {
+
+    /** Upper bound on the data preloaded for gets, so large values don't fill the disk */
+    private static final long PRELOAD_BYTES = 256L << 20;
+
+    @Param({"128", "4096", "65536"})
+    int valueSize;
+
+    @Param({"100000"})
+    int keys;
+
+    @Param({"none"})
+    String sync; // none or always
+
+    @Param({"true"})
+    boolean latencyMetrics; // -p latencyMetrics=true,false measures the cost of the histograms
+
+    private File dir;
+    private LiteCask db;
+    private byte[] value;
+    private int keyCount;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        dir = BenchFiles.tempDir("litecask-jmh-putget");
+        SyncPolicy policy = sync.equals("always") ? SyncPolicy.always() : SyncPolicy.none();
+        db = LiteCask.open(dir.getAbsolutePath(), true, LiteCaskOptions.defaults().syncPolicy(policy).latencyMetrics(latencyMetrics));
+        value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+        keyCount = (int) Math.max(1, Math.min(keys, PRELOAD_BYTES / valueSize));
+        for (int i = 0; i < keyCount; i++) db.put(BenchFiles.key(i), value);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        db.close();
+        BenchFiles.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void put() throws IOException {
+        db.put(BenchFiles.key(ThreadLocalRandom.current().nextInt(keyCount)), value);
+    }
+
+    @Benchmark
+    public byte[] get() throws IOException {
+        return db.get(BenchFiles.key(ThreadLocalRandom.current().nextInt(keyCount)));
+    }
+}
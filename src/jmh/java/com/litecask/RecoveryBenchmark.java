@@ -0,0 +1,56 @@
+package com.litecask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cold-start {@code open()} time by recovery source: the checkpoint, hint files only, or a scan
+ * of the raw data files. Opens are read-only, so they leave the directory as it was.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecoveryBenchmark {
+
+    @Param({"checkpoint", "hints", "scan"})
+    String source;
+
+    @Param({"100000", "1000000"})
+    int keys;
+
+    private File dir;
+
+    @Setup(Level.Trial)
+    public void fill() throws IOException {
+        dir = BenchFiles.tempDir("litecask-jmh-recovery");
+        LiteCask db = LiteCask.open(dir.getAbsolutePath(), true, LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none()));
+        byte[] value = new byte[64];
+        for (int i = 0; i < keys; i++) db.put(BenchFiles.key(i), value);
+        db.close(); // leaves hints and a full checkpoint
+
+        if (!source.equals("checkpoint")) new File(dir, Checkpointer.FULL).delete();
+        if (source.equals("scan")) {
+            for (File f : dir.listFiles((d, name) -> name.endsWith(".hint"))) f.delete();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        BenchFiles.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public int open() throws IOException {
+        LiteCask db = LiteCask.open(dir.getAbsolutePath(), false);
+        int n = db.keys().size();
+        db.close();
+        if (n != keys) throw new IllegalStateException("expected " + keys + " keys, got " + n);
+        return n;
+    }
+}
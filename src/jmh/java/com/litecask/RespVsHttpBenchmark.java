@@ -0,0 +1,195 @@
+package com.litecask;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * The same store behind the REST API and behind {@link RespServer}, both in one running app:
+ * one request at a time over HTTP/1.1 keep-alive, one at a time over RESP, and RESP with
+ * {@value #PIPELINE} commands per write (ops/s per client thread; add clients with {@code -t}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class RespVsHttpBenchmark {
+
+    static final int PIPELINE = 100;
+
+    @Param({"128", "4096"})
+    int valueSize;
+
+    @Param({"100000"})
+    int keys;
+
+    private File dir;
+    private ConfigurableApplicationContext app;
+    private int httpPort;
+    private int respPort;
+    private byte[] value;
+    private String[] names;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        dir = BenchFiles.tempDir("litecask-jmh-resp");
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        app = SpringApplication.run(LiteCaskApplication.class,
+                "--server.port=0", "--litecask.dir=" + dir.getAbsolutePath(), "--litecask.resp.port=0",
+                "--logging.level.root=WARN");
+        httpPort = Integer.parseInt(app.getEnvironment().getProperty("local.server.port"));
+        respPort = app.getBean(RespServer.class).port();
+
+        LiteCask db = app.getBean(LiteCask.class);
+        value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+        names = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            names[i] = BenchFiles.key(i);
+            db.put(names[i], value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        app.close();
+        BenchFiles.deleteRecursively(dir);
+    }
+
+    /** One HTTP client and one RESP connection per benchmark thread */
+    @State(Scope.Thread)
+    public static class Clients {
+        HttpClient http;
+        Socket socket;
+        OutputStream out;
+        DataInputStream in;
+
+        @Setup(Level.Trial)
+        public void connect(RespVsHttpBenchmark bench) throws IOException {
+            http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            socket = new Socket("127.0.0.1", bench.respPort);
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            socket.close();
+        }
+    }
+
+    private String nextKey() {
+        return names[ThreadLocalRandom.current().nextInt(keys)];
+    }
+
+    @Benchmark
+    public byte[] httpGet(Clients c) throws Exception {
+        return c.http.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + httpPort + "/kv/" + nextKey())).build(),
+                HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+
+    @Benchmark
+    public int httpPut(Clients c) throws Exception {
+        return c.http.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + httpPort + "/kv/" + nextKey()))
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(value)).build(),
+                HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    public int respGet(Clients c) throws IOException {
+        command(c.out, "GET", nextKey(), null);
+        c.out.flush();
+        return skipReply(c.in);
+    }
+
+    @Benchmark
+    public int respSet(Clients c) throws IOException {
+        command(c.out, "SET", nextKey(), value);
+        c.out.flush();
+        return skipReply(c.in);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public int respGetPipelined(Clients c) throws IOException {
+        for (int i = 0; i < PIPELINE; i++) command(c.out, "GET", nextKey(), null);
+        c.out.flush();
+        int bytes = 0;
+        for (int i = 0; i < PIPELINE; i++) bytes += skipReply(c.in);
+        return bytes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public int respSetPipelined(Clients c) throws IOException {
+        for (int i = 0; i < PIPELINE; i++) command(c.out, "SET", nextKey(), value);
+        c.out.flush();
+        int bytes = 0;
+        for (int i = 0; i < PIPELINE; i++) bytes += skipReply(c.in);
+        return bytes;
+    }
+
+    private static void command(OutputStream out, String name, String key, byte[] value) throws IOException {
+        out.write((value == null ? "*2\r\n$" : "*3\r\n$").getBytes(StandardCharsets.US_ASCII));
+        out.write((name.length() + "\r\n" + name + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        bulk(out, key.getBytes(StandardCharsets.UTF_8));
+        if (value != null) bulk(out, value);
+    }
+
+    private static void bulk(OutputStream out, byte[] b) throws IOException {
+        out.write(("$" + b.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(b);
+        out.write('\r');
+        out.write('\n');
+    }
+
+    /** Reads one simple-string or bulk reply; returns the bulk length (0 for "+OK") */
+    private static int skipReply(DataInputStream in) throws IOException {
+        int type = in.read();
+        int length = 0;
+        boolean negative = false;
+        for (int b = in.read(); b != '\r'; b = in.read()) {
+            if (b < 0) throw new EOFException();
+            if (type == '$') {
+                if (b == '-') negative = true;
+                else length = length * 10 + (b - '0');
+            }
+        }
+        in.read();
+        if (type == '-') throw new IOException("error reply");
+        if (type != '$' || negative) return 0;
+        skipFully(in, length + 2);
+        return length;
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.litecask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Put throughput with small data files, which rotate every few hundred puts, against files large
+ * enough never to rotate during an iteration. The difference is the cost of rotation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class RotationBenchmark {
+
+    @Param({"1048576", "1073741824"})
+    long maxFileSize;
+
+    @Param({"4096"})
+    int valueSize;
+
+    private File dir;
+    private LiteCask db;
+    private byte[] value;
+    private int next;
+
+    /** A fresh store per iteration, so the file count doesn't keep growing across iterations */
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        dir = BenchFiles.tempDir("litecask-jmh-rotation");
+        LiteCaskOptions options = LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none()).maxFileSize(maxFileSize);
+        db = LiteCask.open(dir.getAbsolutePath(), true, options);
+        value = new byte[valueSize];
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        db.close();
+        BenchFiles.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void put() throws IOException {
+        db.put(BenchFiles.key(next++), value);
+    }
+}
@@ -0,0 +1,56 @@
+package com.litecask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Put throughput (ops/us) of a {@link ShardedLiteCask} by shard count, with several writer
+ * threads: {@code -Djmh.args="ShardedPutBenchmark -t 8"}. With {@code sync=always} every put
+ * waits for an fsync, so this shows how many fsyncs the device keeps in flight at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(8)
+public class ShardedPutBenchmark {
+
+    @Param({"1", "4"})
+    int shards;
+
+    @Param({"1024"})
+    int valueSize;
+
+    @Param({"none", "always"})
+    String sync;
+
+    private File dir;
+    private ShardedLiteCask db;
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        dir = BenchFiles.tempDir("litecask-jmh-sharded");
+        SyncPolicy policy = sync.equals("always") ? SyncPolicy.always() : SyncPolicy.none();
+        db = ShardedLiteCask.open(dir.getAbsolutePath(), shards, true, LiteCaskOptions.defaults().syncPolicy(policy));
+        value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        db.close();
+        BenchFiles.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void put() throws IOException {
+        db.put(BenchFiles.key(ThreadLocalRandom.current().nextInt(1_000_000)), value);
+    }
+}
@@ -0,0 +1,36 @@
+package com.litecask;
+
+/**
+ * Zipfian ranks in [0, n), rank 0 the most popular, using the closed-form approximation of
+ * Gray et al. ("Quickly generating billion-record synthetic databases") that YCSB also uses.
+ */
+final class Zipf {
+
+    private final int n;
+    private final double zetan;
+    private final double alpha;
+    private final double eta;
+    private final double half;
+
+    Zipf(int n, double theta) {
+        this.n = n;
+        this.zetan = zeta(n, theta);
+        this.alpha = 1.0 / (1.0 - theta);
+        this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+        this.half = Math.pow(0.5, theta);
+    }
+
+    /** The rank for a uniform {@code u} in [0, 1) */
+    int next(double u) {
+        double uz = u * zetan;
+        if (uz < 1) return 0;
+        if (uz < 1 + half) return 1;
+        return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    private static double zeta(int n, double theta) {
+        double sum = 0;
+        for (int i = 1; i <= n; i++) sum += 1 / Math.pow(i, theta);
+        return sum;
+    }
+}
@@ -0,0 +1,294 @@
+package com.litecask;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BinaryOperator;
+
+/**
+ * Checkpointer persists KeyDir snapshots so a restart only replays the log written after them.
+ *
+ * <ul>
+ *   <li>A full checkpoint ({@code keydir.chk}) holds every key. A delta ({@code keydir.chk.N})
+ *       holds only keys changed since the previous checkpoint and is applied on top.</li>
+ *   <li>Each one records a log position (fileId, offset): every record before it is reflected
+ *       in the snapshot, recovery replays the data files from there.</li>
+ *   <li>Files are written through a large buffer to a temp file, fsynced and atomically renamed,
+ *       so a crash mid-checkpoint leaves the previous one intact.</li>
+ *   <li>Deltas carry the generation of their base; leftovers of an older base are ignored.</li>
+ *   <li>Entries are grouped in chunks listed in a footer. On load every chunk is parsed from a
+ *       memory mapping by its own task and merged into KeyDir with the caller's latest-wins
+ *       resolver, so base, deltas and log replay can all be loaded at once.</li>
+ * </ul>
+ *
+ * Layout: magic(4) generation(8) seq(4) fileId(4) offset(8) nextSeq(8), chunks of entries
+ * keyLen(4) key fileId(4) valueOffset(8) valueSize(4) flag(1) recordSeq(8) [expiresAt(8), for flags
+ * with {@link Entry#FLAG_EXPIRES}],
+ * then per chunk start(8) length(8), and finally chunkCount(4) footerStart(8).
+ * Checkpoints from older versions (an activeFileId header, no chunk footer, record start offsets
+ * instead of record sequence numbers, or no expiry times) are still readable.
+ */
+class Checkpointer {
+
+    static final int MAGIC = 0x4C434B35;    // "LCK5": chunked, record sequence numbers, expiry times
+    static final int MAGIC_V4 = 0x4C434B34; // "LCK4": no expiry times (no flag has the bit either)
+    static final int MAGIC_V3 = 0x4C434B33; // "LCK3": chunked, record start offsets
+    static final int MAGIC_V2 = 0x4C434B32; // "LCK2": one run of entries, no footer
+    static final String FULL = "keydir.chk";
+
+    private static final int HEADER_SIZE = 4 + 8 + 4 + 4 + 8 + 8;
+    private static final int OLD_HEADER_SIZE = 4 + 8 + 4 + 4 + 8;
+    private static final int BUFFER_SIZE = 1 << 20;
+    /** Entries per chunk: small enough to spread over cores, large enough to amortize a task */
+    static final int CHUNK_ENTRIES = 64 * 1024;
+    /** Deltas applied on top of one base before the next checkpoint is a full one */
+    private static final int MAX_DELTAS = 16;
+
+    /**
+     * Position in the log: every record before (fileId, offset) is covered, and all of them have a
+     * sequence number below {@code nextSeq}
+     */
+    static final class Position {
+        final int fileId;
+        final long offset;
+        final long nextSeq;
+
+        Position(int fileId, long offset, long nextSeq) {
+            this.fileId = fileId;
+            this.offset = offset;
+            this.nextSeq = nextSeq;
+        }
+
+        @Override
+        public String toString() {
+            return "data" + fileId + ".dat@" + offset;
+        }
+    }
+
+    private final File dataDir;
+    private long generation;
+    private int deltas; // deltas written on top of the current base
+
+    Checkpointer(File dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    /** Whether the next checkpoint should be a full one rather than a delta of {@code changed} keys */
+    boolean needsFull(int changed, int totalKeys) {
+        return generation == 0 || deltas >= MAX_DELTAS || changed > totalKeys / 2;
+    }
+
+    /** Write every entry as a new base and drop the deltas of the previous one */
+    void writeFull(Position pos, Iterable<Map.Entry<String, KeyDir.EntryMeta>> entries) throws IOException {
+        long gen = generation + 1;
+        writeAtomically(new File(dataDir, FULL), gen, 0, pos, out -> {
+            for (var e : entries) out.write(e.getKey(), e.getValue());
+        });
+        generation = gen;
+        deltas = 0;
+        for (File f : deltaFiles().values()) f.delete();
+    }
+
+    /** Write the current metadata of the {@code changed} keys on top of the current base */
+    void writeDelta(Position pos, Iterable<String> changed, KeyDir keyDir) throws IOException {
+        int seq = deltas + 1;
+        writeAtomically(new File(dataDir, FULL + "." + seq), generation, seq, pos, out -> {
+            for (String key : changed) {
+                KeyDir.EntryMeta meta = keyDir.get(key);
+                if (meta != null) out.write(key, meta);
+            }
+        });
+        deltas = seq;
+    }
+
+    /**
+     * Start loading the base and its deltas into {@code keyDir}: one task per chunk is submitted to
+     * {@code pool} and added to {@code tasks}, every entry is merged with {@code latest}. Returns the
+     * position to replay the log from right away, or null if there is no checkpoint.
+     */
+    Position load(KeyDir keyDir, BinaryOperator<KeyDir.EntryMeta> latest,
+                  ExecutorService pool, Collection<Future<?>> tasks) throws IOException {
+        File full = new File(dataDir, FULL);
+        if (full.length() < 4) return null;
+
+        Position pos;
+        ByteBuffer base = map(full);
+        int magic = base.getInt(0);
+        if (magic == MAGIC || magic == MAGIC_V4 || magic == MAGIC_V3) {
+            generation = base.getLong(4);
+            pos = readPosition(base);
+            submitChunks(base, keyDir, latest, pool, tasks, layoutOf(magic));
+        } else if (magic == MAGIC_V2) {
+            generation = base.getLong(4);
+            pos = readPosition(base);
+            parseEntries(base.duplicate().position(OLD_HEADER_SIZE), keyDir, latest, ENTRY_START);
+        } else {
+            // Oldest format: header is the active file at close, all of it was covered
+            parseEntries(base.duplicate().position(4), keyDir, latest, NO_ORDER);
+            return new Position(magic + 1, 0, Entry.legacySeq(magic + 1, 0));
+        }
+
+        // Deltas of this base, in order, stopping at the first gap or foreign generation
+        for (var e : deltaFiles().entrySet()) {
+            if (e.getKey() != deltas + 1) break;
+            ByteBuffer delta = map(e.getValue());
+            if (delta.limit() < OLD_HEADER_SIZE || delta.getLong(4) != generation || delta.getInt(12) != e.getKey()) break;
+            int deltaMagic = delta.getInt(0);
+            if (deltaMagic == MAGIC || deltaMagic == MAGIC_V4 || deltaMagic == MAGIC_V3) {
+                submitChunks(delta, keyDir, latest, pool, tasks, layoutOf(deltaMagic));
+            } else if (deltaMagic == MAGIC_V2) {
+                parseEntries(delta.duplicate().position(OLD_HEADER_SIZE), keyDir, latest, ENTRY_START);
+            } else {
+                break;
+            }
+            pos = readPosition(delta);
+            deltas = e.getKey();
+        }
+        return pos;
+    }
+
+    // What the last field of an entry holds
+    private static final int SEQ = 0;         // the record's sequence number
+    private static final int ENTRY_START = 1; // the record's start offset (LCK2, LCK3)
+    private static final int NO_ORDER = 2;    // nothing (oldest format)
+
+    private static int layoutOf(int magic) {
+        return magic == MAGIC || magic == MAGIC_V4 ? SEQ : ENTRY_START;
+    }
+
+    private static Position readPosition(ByteBuffer header) {
+        int fileId = header.getInt(16);
+        long offset = header.getLong(20);
+        // Before sequence numbers, records were ordered by (fileId, offset)
+        long nextSeq = layoutOf(header.getInt(0)) == SEQ ? header.getLong(28) : Entry.legacySeq(fileId, offset);
+        return new Position(fileId, offset, nextSeq);
+    }
+
+    private static void submitChunks(ByteBuffer file, KeyDir keyDir, BinaryOperator<KeyDir.EntryMeta> latest,
+                                     ExecutorService pool, Collection<Future<?>> tasks, int layout) {
+        int end = file.limit();
+        int chunks = file.getInt(end - 12);
+        int footer = (int) file.getLong(end - 8);
+        for (int i = 0; i < chunks; i++) {
+            int start = (int) file.getLong(footer + i * 16);
+            int length = (int) file.getLong(footer + i * 16 + 8);
+            ByteBuffer chunk = file.slice(start, length);
+            tasks.add(pool.submit(() -> {
+                parseEntries(chunk, keyDir, latest, layout);
+                return null;
+            }));
+        }
+    }
+
+    /** Parse entries from the buffer's position to its limit, straight from the mapping */
+    private static void parseEntries(ByteBuffer buf, KeyDir keyDir, BinaryOperator<KeyDir.EntryMeta> latest,
+                                     int layout) {
+        byte[] key = new byte[256];
+        while (buf.hasRemaining()) {
+            int keyLen = buf.getInt();
+            if (key.length < keyLen) key = new byte[Math.max(keyLen, key.length * 2)];
+            buf.get(key, 0, keyLen);
+            int fileId = buf.getInt();
+            long valueOffset = buf.getLong();
+            int valueSize = buf.getInt();
+            byte flag = buf.get();
+            long seq;
+            long expiresAt = 0;
+            if (layout == SEQ) {
+                seq = buf.getLong();
+                if (Entry.expires(flag)) expiresAt = buf.getLong();
+            } else {
+                long entryStart = layout == ENTRY_START ? buf.getLong() : -1L;
+                seq = Entry.legacySeq(fileId, entryStart >= 0 ? entryStart : valueOffset);
+            }
+            keyDir.merge(new String(key, 0, keyLen, StandardCharsets.UTF_8),
+                    new KeyDir.EntryMeta(fileId, valueOffset, valueSize, flag, seq, expiresAt), latest);
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException(file + " is too large to map");
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return buf; // stays valid after the channel is closed
+        }
+    }
+
+    /** Receives the entries of a checkpoint being written */
+    private interface EntrySink {
+        void write(String key, KeyDir.EntryMeta meta) throws IOException;
+    }
+
+    private interface Body {
+        void write(EntrySink out) throws IOException;
+    }
+
+    private void writeAtomically(File target, long gen, int seq, Position pos, Body body) throws IOException {
+        File tmp = new File(dataDir, target.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeLong(gen);
+            out.writeInt(seq);
+            out.writeInt(pos.fileId);
+            out.writeLong(pos.offset);
+            out.writeLong(pos.nextSeq);
+
+            List<long[]> chunks = new ArrayList<>(); // {start, length}
+            long[] written = {HEADER_SIZE};
+            int[] inChunk = {0};
+            body.write((key, meta) -> {
+                if (inChunk[0] == 0) chunks.add(new long[] {written[0], 0});
+                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+                out.writeInt(meta.fileId);
+                out.writeLong(meta.valueOffset);
+                out.writeInt(meta.valueSize);
+                out.writeByte(meta.flag);
+                out.writeLong(meta.seq);
+                long size = 4 + keyBytes.length + 4 + 8 + 4 + 1 + 8;
+                if (Entry.expires(meta.flag)) {
+                    out.writeLong(meta.expiresAt);
+                    size += 8;
+                }
+                written[0] += size;
+                chunks.get(chunks.size() - 1)[1] += size;
+                if (++inChunk[0] == CHUNK_ENTRIES) inChunk[0] = 0;
+            });
+
+            long footer = written[0];
+            for (long[] c : chunks) {
+                out.writeLong(c[0]);
+                out.writeLong(c[1]);
+            }
+            out.writeInt(chunks.size());
+            out.writeLong(footer);
+            out.flush();
+            fos.getChannel().force(false);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** keydir.chk.N files by N */
+    private TreeMap<Integer, File> deltaFiles() {
+        TreeMap<Integer, File> deltas = new TreeMap<>();
+        File[] files = dataDir.listFiles((d, name) -> name.matches("keydir\\.chk\\.\\d+"));
+        if (files != null) {
+            for (File f : files) deltas.put(Integer.parseInt(f.getName().substring(FULL.length() + 1)), f);
+        }
+        return deltas;
+    }
+}
@@ -0,0 +1,93 @@
+package com.litecask;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compactor keeps space amplification bounded without stop-the-world merges.
+ *
+ * Every interval it looks at the garbage ratio of each immutable data file and compacts
+ * the worst ones above the threshold, a bounded amount of data per round, while reads and
+ * writes continue. The actual copying is done by {@link Merger#compact}.
+ */
+class Compactor implements Closeable {
+
+    /** Input bytes rewritten per round, in units of maxFileSize */
+    private static final int FILES_PER_ROUND = 4;
+
+    private final LiteCask db;
+    private final FileStats stats;
+    private final double threshold;
+    private final long maxBytesPerRound;
+    private ScheduledExecutorService scheduler;
+
+    Compactor(LiteCask db, FileStats stats, LiteCaskOptions options) {
+        this.db = db;
+        this.stats = stats;
+        this.threshold = options.compactionGarbageRatio();
+        this.maxBytesPerRound = options.maxFileSize() * FILES_PER_ROUND;
+    }
+
+    void start(long intervalMillis) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "litecask-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (IOException e) {
+                // leave the files in place, the next round tries again
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Compact the files above the garbage threshold; returns how many were rewritten */
+    int runOnce() throws IOException {
+        List<Integer> picked = pickCandidates();
+        if (!picked.isEmpty()) {
+            db.compactFiles(picked);
+        }
+        return picked.size();
+    }
+
+    /** Immutable files above the threshold, worst first, up to the per-round byte budget */
+    List<Integer> pickCandidates() {
+        int active = db.activeFileId();
+        List<Integer> candidates = new ArrayList<>();
+        for (int fileId : stats.fileIds()) {
+            if (fileId < active && stats.totalBytes(fileId) > 0 && stats.garbageRatio(fileId) >= threshold) {
+                candidates.add(fileId);
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(stats::garbageRatio).reversed());
+
+        List<Integer> picked = new ArrayList<>();
+        long budget = 0;
+        for (int fileId : candidates) {
+            if (!picked.isEmpty() && budget + stats.totalBytes(fileId) > maxBytesPerRound) break;
+            budget += stats.totalBytes(fileId);
+            picked.add(fileId);
+        }
+        picked.sort(null); // Merger copies in file order
+        return picked;
+    }
+
+    @Override
+    public void close() {
+        if (scheduler == null) return;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES); // let a running round finish
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.litecask;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** Raw deflate, prefixed with the uncompressed length(4) so decompression allocates once */
+class DeflateCodec implements ValueCodec {
+
+    private final int level;
+
+    DeflateCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public int id() {
+        return 2;
+    }
+
+    @Override
+    public String name() {
+        return "deflate";
+    }
+
+    @Override
+    public byte[] compress(byte[] value) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(value);
+            deflater.finish();
+            byte[] out = new byte[4 + value.length + value.length / 1000 + 64];
+            ByteBuffer.wrap(out).putInt(value.length);
+            int n = 4;
+            while (!deflater.finished()) {
+                if (n == out.length) out = Arrays.copyOf(out, out.length * 2);
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            return Arrays.copyOf(out, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] stored) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            int length = ByteBuffer.wrap(stored).getInt();
+            if (length < 0) throw new IOException("corrupt deflate value");
+            byte[] value = new byte[length];
+            inflater.setInput(stored, 4, stored.length - 4);
+            int n = 0;
+            while (n < value.length) {
+                int r = inflater.inflate(value, n, value.length - n);
+                if (r == 0 && (inflater.finished() || inflater.needsInput())) throw new IOException("truncated deflate value");
+                n += r;
+            }
+            return value;
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt deflate value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
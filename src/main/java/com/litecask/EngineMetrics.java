@@ -0,0 +1,44 @@
+package com.litecask;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one LiteCask instance, written on the hot paths.
+ *
+ * fsync and merge timings are always recorded, they are rare next to the work they time.
+ * Put and get latencies cost two clock reads per call and can be switched off with
+ * {@link LiteCaskOptions#latencyMetrics(boolean)}.
+ */
+class EngineMetrics {
+
+    final boolean timeOps;
+
+    final LatencyHistogram puts = new LatencyHistogram();
+    final LatencyHistogram gets = new LatencyHistogram();
+    final LatencyHistogram fsyncs = new LatencyHistogram();
+    final LatencyHistogram merges = new LatencyHistogram();
+
+    final LongAdder rotations = new LongAdder();
+    /** Bytes of data files read by merges, and written back as live records */
+    final LongAdder mergeBytesIn = new LongAdder();
+    final LongAdder mergeBytesOut = new LongAdder();
+    /** Expired keys removed from KeyDir by the sweeper or a merge */
+    final LongAdder expired = new LongAdder();
+
+    EngineMetrics(boolean timeOps) {
+        this.timeOps = timeOps;
+    }
+
+    /** Start of a put or get, for {@link #putDone}/{@link #getDone} */
+    long start() {
+        return timeOps ? System.nanoTime() : 0;
+    }
+
+    void putDone(long start) {
+        if (timeOps) puts.recordSince(start);
+    }
+
+    void getDone(long start) {
+        if (timeOps) gets.recordSince(start);
+    }
+}
@@ -1,51 +1,180 @@
 package com.litecask;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
 
+/**
+ * A record of the data files.
+ *
+ * <p>Format v2 (every file written now) starts with a file header: magic(4) and a random
+ * sync token(16). Each record is crc(4) seq(8) keyLength(4) valueLength(4) flag(1) key value,
+ * where the CRC32C covers everything after the crc and seq is the store-wide write sequence
+ * (the latest record of a key is the one with the highest seq).
+ *
+ * <p>A sync marker (flag {@link #FLAG_SYNC}, empty key, the file's sync token as value) follows
+ * every record that reaches a {@link #SYNC_INTERVAL} boundary, so a reader dropped anywhere in
+ * the file can find the next record boundary and files can be scanned in parallel chunks.
+ *
+ * <p>Format v1 files (no header) hold keyLength(4) valueLength(4) flag(1) key value and are
+ * still read; their records have no seq and are ordered by (fileId, offset) instead.
+ *
+ * <p>The flag's low three bits are the record type, the high nibble of a put is the codec its value
+ * is compressed with (0 for none). A put with {@link #FLAG_EXPIRES} set has a TTL: its value starts
+ * with the expiry time (8 bytes, epoch millis), followed by the stored value.
+ */
 public class Entry {
     public static final byte FLAG_PUT = 0;
     public static final byte FLAG_TOMBSTONE = 1;
+    /** Header of a WriteBatch block: the value is the batch's entries */
+    public static final byte FLAG_BATCH = 2;
+    /** Sync marker: the value is the file's sync token */
+    public static final byte FLAG_SYNC = 3;
+
+    /** Modifier of a put: the value is prefixed with its expiry time */
+    static final byte FLAG_EXPIRES = 0x08;
+    /** Size of the expiry prefix of an expiring put's value */
+    static final int EXPIRY_SIZE = 8;
+
+    /** The high nibble of a put's flag is the id of the {@link ValueCodec} its value is stored with (0 = raw) */
+    private static final int CODEC_SHIFT = 4;
+
+    static final int FORMAT_V1 = 1;
+    static final int FORMAT_V2 = 2;
+
+    /** crc (4) + seq (8) + keyLength (4) + valueLength (4) + flag (1) */
+    public static final int HEADER_SIZE = 4 + 8 + 4 + 4 + 1;
+    /** keyLength (4) + valueLength (4) + flag (1) */
+    static final int V1_HEADER_SIZE = 4 + 4 + 1;
+
+    static final int FILE_MAGIC = 0x4C434432; // "LCD2"
+    static final int SYNC_TOKEN_SIZE = 16;
+    static final int FILE_HEADER_SIZE = 4 + SYNC_TOKEN_SIZE;
+    static final int SYNC_RECORD_SIZE = HEADER_SIZE + SYNC_TOKEN_SIZE;
+    /** A sync marker follows the first record reaching each multiple of this offset */
+    static final long SYNC_INTERVAL = 1 << 20;
 
 
     public final String key;
     public final byte[] value;
     public final byte flag;
+    /** Expiry time in epoch millis, 0 if the entry never expires */
+    public final long expiresAt;
 
     public Entry(String key, byte[] value, byte flag) {
+        this(key, value, flag, 0);
+    }
+
+    public Entry(String key, byte[] value, byte flag, long expiresAt) {
         this.key = key;
         this.value = value;
-        this.flag = flag;
+        this.flag = expiresAt != 0 ? (byte) (flag | FLAG_EXPIRES) : flag;
+        this.expiresAt = expiresAt;
+    }
+
+    /** Record type of a flag: put, tombstone, batch or sync, without the codec and expiry bits */
+    static byte type(byte flag) {
+        return (byte) (flag & 0x07);
     }
 
-    public void writeTo(DataOutputStream out) throws IOException {
-        byte[] keyBytes = key.getBytes("UTF-8");
-        int keyLen = keyBytes.length;
-        int valueLen = (value == null) ? 0 : value.length;
+    /** True if a record with this flag is a put with an expiry time */
+    static boolean expires(byte flag) {
+        return (flag & FLAG_EXPIRES) != 0;
+    }
 
-        out.writeInt(keyLen);
-        out.writeInt(valueLen);
-        out.writeByte(flag);
-        out.write(keyBytes);
-        if (valueLen > 0) {
-            out.write(value);
-        }
+    /** Bytes between the key and the stored value of a record with this flag */
+    static int valuePrefix(byte flag) {
+        return expires(flag) ? EXPIRY_SIZE : 0;
     }
 
-    public static Entry readFrom(DataInputStream in) throws IOException {
-        int keyLen = in.readInt();
-        int valueLen = in.readInt();
-        byte flag = in.readByte();
+    /** Codec id of a put's flag, 0 if the value is stored raw */
+    static int codec(byte flag) {
+        return (flag >>> CODEC_SHIFT) & 0x0F;
+    }
 
-        byte[] keyBytes = new byte[keyLen];
-        in.readFully(keyBytes);
-        String key = new String(keyBytes, "UTF-8");
+    static byte withCodec(byte flag, int codecId) {
+        return (byte) (flag | codecId << CODEC_SHIFT);
+    }
 
-        byte[] value = null;
-        if (valueLen > 0) {
-            value = new byte[valueLen];
-            in.readFully(value);
+    /** Serialize this entry as a v2 record with sequence number {@code seq} */
+    public byte[] toBytes(long seq) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] v = value == null ? new byte[0] : value;
+        if (expires(flag)) {
+            v = ByteBuffer.allocate(EXPIRY_SIZE + v.length).putLong(expiresAt).put(v).array();
         }
+        return encode(seq, keyBytes, v, flag);
+    }
+
+    /** Encode one v2 record: header, key and value, with the CRC filled in */
+    static byte[] encode(long seq, byte[] keyBytes, byte[] value, byte flag) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + value.length);
+        buf.putInt(0);
+        buf.putLong(seq);
+        buf.putInt(keyBytes.length);
+        buf.putInt(value.length);
+        buf.put(flag);
+        buf.put(keyBytes);
+        buf.put(value);
+        byte[] record = buf.array();
+        sealCrc(record, record.length);
+        return record;
+    }
 
-        return new Entry(key, value, flag);
+    /**
+     * Everything of a v2 put record before its stored value (header, key and expiry prefix), for
+     * values written separately; the CRC is left at 0 for the caller to fill in.
+     */
+    static byte[] head(long seq, byte[] keyBytes, int valueLength, byte flag, long expiresAt) {
+        int prefix = valuePrefix(flag);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + prefix);
+        buf.putInt(0);
+        buf.putLong(seq);
+        buf.putInt(keyBytes.length);
+        buf.putInt(prefix + valueLength);
+        buf.put(flag);
+        buf.put(keyBytes);
+        if (prefix > 0) buf.putLong(expiresAt);
+        return buf.array();
+    }
+
+    /** Compute the CRC of the v2 record in {@code record[0, length)} and store it in its first 4 bytes */
+    static void sealCrc(byte[] record, int length) {
+        ByteBuffer.wrap(record).putInt(0, crc(record, length));
+    }
+
+    static int crc(byte[] record, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(record, 4, length - 4);
+        return (int) crc.getValue();
+    }
+
+    /** The sync marker record of a file with this token */
+    static byte[] syncRecord(byte[] token) {
+        return encode(0, new byte[0], token, FLAG_SYNC);
+    }
+
+    /** True if a record starting at {@code pos} with this length reaches a sync boundary and gets a marker */
+    static boolean needsSync(long pos, long length) {
+        return pos + length >= (pos / SYNC_INTERVAL + 1) * SYNC_INTERVAL;
+    }
+
+    /** Version of a v1 record, which has no seq: later files and later offsets win */
+    static long legacySeq(int fileId, long start) {
+        return ((long) fileId << 32) | (start & 0xffffffffL);
+    }
+
+    static int headerSize(int format) {
+        return format == FORMAT_V1 ? V1_HEADER_SIZE : HEADER_SIZE;
+    }
+
+    /** Record format of a data file: v2 if it starts with the file magic; empty files count as v2 */
+    static int formatOf(File dataFile) throws IOException {
+        if (dataFile.length() == 0) return FORMAT_V2;
+        if (dataFile.length() < 4) return FORMAT_V1;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(dataFile))) {
+            return in.readInt() == FILE_MAGIC ? FORMAT_V2 : FORMAT_V1;
+        }
     }
 }
@@ -0,0 +1,98 @@
+package com.litecask;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * ExpirySweeper removes expired keys from KeyDir in bulk, so their entries don't hold memory until
+ * a read or a merge happens to notice them.
+ *
+ * <ul>
+ *   <li>Keys are filed in buckets by expiry time, {@link #BUCKET_MILLIS} wide, kept in a sorted map
+ *       (a timing wheel without laps). Filing a key is one map lookup and one set add.</li>
+ *   <li>Every tick, the buckets that have run out entirely are taken off the front and each of
+ *       their keys is removed if KeyDir still holds an expired entry for it, with compare-and-remove.
+ *       A key written again since keeps its new entry, filed under its new expiry if it has one.</li>
+ *   <li>Only KeyDir is touched: nothing is written to the log. Reads already treat expired entries
+ *       as misses, and merges drop the records.</li>
+ * </ul>
+ *
+ * The ticker thread starts with the first filed key.
+ */
+class ExpirySweeper implements Closeable {
+
+    static final long BUCKET_MILLIS = 1000;
+
+    private final KeyDir keyDir;
+    private final BiConsumer<String, KeyDir.EntryMeta> expired; // told about every key removed
+    private final ConcurrentSkipListMap<Long, Set<String>> buckets = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService scheduler;
+    private boolean closed;
+
+    ExpirySweeper(KeyDir keyDir, BiConsumer<String, KeyDir.EntryMeta> expired) {
+        this.keyDir = keyDir;
+        this.expired = expired;
+    }
+
+    /** File {@code key} to be checked once {@code expiresAt} has passed */
+    void schedule(String key, long expiresAt) {
+        long bucket = expiresAt / BUCKET_MILLIS;
+        buckets.computeIfAbsent(bucket, b -> ConcurrentHashMap.newKeySet()).add(key);
+        long now = System.currentTimeMillis();
+        if ((bucket + 1) * BUCKET_MILLIS <= now) {
+            expire(key, now); // the bucket may already have been swept
+        }
+        startIfNeeded();
+    }
+
+    /** Remove the keys of every bucket that has run out by {@code now}; returns how many were removed */
+    int sweep(long now) {
+        int removed = 0;
+        for (Map.Entry<Long, Set<String>> e = buckets.firstEntry();
+             e != null && (e.getKey() + 1) * BUCKET_MILLIS <= now; e = buckets.firstEntry()) {
+            buckets.remove(e.getKey());
+            for (String key : e.getValue()) {
+                if (expire(key, now)) removed++;
+            }
+        }
+        return removed;
+    }
+
+    /** Keys filed and not swept yet, counting a key once per filing */
+    int pending() {
+        int n = 0;
+        for (Set<String> keys : buckets.values()) n += keys.size();
+        return n;
+    }
+
+    private boolean expire(String key, long now) {
+        KeyDir.EntryMeta meta = keyDir.get(key);
+        if (meta == null || !meta.expired(now) || !keyDir.remove(key, meta)) return false;
+        expired.accept(key, meta);
+        return true;
+    }
+
+    private synchronized void startIfNeeded() {
+        if (scheduler != null || closed) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "litecask-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> sweep(System.currentTimeMillis()),
+                BUCKET_MILLIS, BUCKET_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+}
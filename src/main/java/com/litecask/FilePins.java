@@ -0,0 +1,74 @@
+package com.litecask;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * FilePins keeps data files that open {@link Snapshot}s still need from being deleted.
+ *
+ * Whatever would delete a data file (a merge dropping its inputs, a rotation dropping an empty
+ * file) asks here first. An unpinned file goes at once; a pinned one is only marked, and deleted
+ * together with its hint file when the last snapshot pinning it is closed. Until then it holds
+ * nothing KeyDir points at, so merges leave it alone.
+ */
+class FilePins {
+
+    private final File dataDir;
+    private final ReadChannelPool readers;
+    /** fileId -> open snapshots that pin it */
+    private final Map<Integer, Integer> pins = new HashMap<>();
+    /** Pinned files already merged away: deleted once unpinned */
+    private final Set<Integer> doomed = new HashSet<>();
+
+    FilePins(File dataDir, ReadChannelPool readers) {
+        this.dataDir = dataDir;
+        this.readers = readers;
+    }
+
+    synchronized void pin(Collection<Integer> fileIds) {
+        for (int fileId : fileIds) pins.merge(fileId, 1, Integer::sum);
+    }
+
+    synchronized boolean isPinned(int fileId) {
+        return pins.containsKey(fileId);
+    }
+
+    /** Merged away but kept for a snapshot: not part of the store anymore */
+    synchronized boolean isDoomed(int fileId) {
+        return doomed.contains(fileId);
+    }
+
+    /** Delete a data file and its hint file now, or once no snapshot pins it */
+    synchronized void delete(int fileId) {
+        if (pins.containsKey(fileId)) {
+            doomed.add(fileId);
+        } else {
+            deleteNow(fileId);
+        }
+    }
+
+    synchronized void unpin(Collection<Integer> fileIds) {
+        for (int fileId : fileIds) {
+            if (pins.merge(fileId, -1, Integer::sum) > 0) continue;
+            pins.remove(fileId);
+            if (doomed.remove(fileId)) deleteNow(fileId);
+        }
+    }
+
+    /** The store is closing: snapshots can't read anymore, so nothing needs keeping */
+    synchronized void unpinAll() {
+        pins.clear();
+        for (int fileId : doomed) deleteNow(fileId);
+        doomed.clear();
+    }
+
+    private void deleteNow(int fileId) {
+        new File(dataDir, "data" + fileId + ".dat").delete();
+        new File(dataDir, "data" + fileId + ".hint").delete();
+        readers.invalidate(fileId);
+    }
+}
@@ -0,0 +1,101 @@
+package com.litecask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FileStats tracks total and dead bytes per data file.
+ *
+ * Every appended record adds to its file's total; whenever a KeyDir update supersedes a
+ * record (overwrite, delete, compaction relocation) that record's bytes become dead.
+ * The compactor uses the resulting garbage ratio to pick files worth rewriting.
+ */
+class FileStats {
+
+    private static final class Counts {
+        final LongAdder total = new LongAdder();
+        final LongAdder dead = new LongAdder();
+    }
+
+    private final ConcurrentHashMap<Integer, Counts> files = new ConcurrentHashMap<>();
+    private final Set<Integer> legacyFiles = ConcurrentHashMap.newKeySet(); // v1 record format
+
+    /** Size of a record in its data file, given its key length and KeyDir metadata */
+    long recordSize(int keyLength, KeyDir.EntryMeta meta) {
+        long valueSize = meta.flag == Entry.FLAG_TOMBSTONE ? 0 : meta.valueSize + Entry.valuePrefix(meta.flag);
+        int header = legacyFiles.contains(meta.fileId) ? Entry.V1_HEADER_SIZE : Entry.HEADER_SIZE;
+        return header + keyLength + valueSize;
+    }
+
+    /** The file was written in the v1 record format (shorter headers) */
+    void legacy(int fileId) {
+        legacyFiles.add(fileId);
+    }
+
+    void written(int fileId, long bytes) {
+        counts(fileId).total.add(bytes);
+    }
+
+    void dead(int fileId, long bytes) {
+        Counts c = files.get(fileId);
+        if (c != null) c.dead.add(bytes); // a file already compacted away has nothing left to count
+    }
+
+    /** Replace a file's counters (used after recovery) */
+    void reset(int fileId, long total, long dead) {
+        Counts c = new Counts();
+        c.total.add(total);
+        c.dead.add(dead);
+        files.put(fileId, c);
+    }
+
+    void remove(int fileId) {
+        files.remove(fileId);
+        legacyFiles.remove(fileId);
+    }
+
+    long totalBytes(int fileId) {
+        Counts c = files.get(fileId);
+        return c == null ? 0 : c.total.sum();
+    }
+
+    long deadBytes(int fileId) {
+        Counts c = files.get(fileId);
+        return c == null ? 0 : c.dead.sum();
+    }
+
+    /** Bytes of every tracked data file */
+    long totalBytes() {
+        long sum = 0;
+        for (Counts c : files.values()) sum += c.total.sum();
+        return sum;
+    }
+
+    /** Dead bytes of every tracked data file */
+    long deadBytes() {
+        long sum = 0;
+        for (Counts c : files.values()) sum += Math.min(c.dead.sum(), c.total.sum());
+        return sum;
+    }
+
+    int fileCount() {
+        return files.size();
+    }
+
+    /** Fraction of the file that is garbage (0 for empty or unknown files) */
+    double garbageRatio(int fileId) {
+        long total = totalBytes(fileId);
+        return total == 0 ? 0 : Math.min(1.0, (double) deadBytes(fileId) / total);
+    }
+
+    List<Integer> fileIds() {
+        return new ArrayList<>(files.keySet());
+    }
+
+    private Counts counts(int fileId) {
+        return files.computeIfAbsent(fileId, id -> new Counts());
+    }
+}
@@ -0,0 +1,53 @@
+package com.litecask;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BinaryOperator;
+
+/**
+ * Default KeyDir backend: a ConcurrentHashMap of String to EntryMeta.
+ * Simple and fast, but every key costs a String, an EntryMeta and a map node on the heap.
+ */
+public class HeapKeyDir implements KeyDir {
+
+    private final ConcurrentHashMap<String, EntryMeta> map = new ConcurrentHashMap<>();
+
+    @Override
+    public EntryMeta get(String key) {
+        return map.get(key);
+    }
+
+    @Override
+    public void put(String key, EntryMeta meta) {
+        map.put(key, meta);
+    }
+
+    @Override
+    public void merge(String key, EntryMeta meta, BinaryOperator<EntryMeta> resolver) {
+        map.merge(key, meta, resolver);
+    }
+
+    @Override
+    public boolean replace(String key, EntryMeta expected, EntryMeta update) {
+        return map.replace(key, expected, update);
+    }
+
+    @Override
+    public void remove(String key) {
+        map.remove(key);
+    }
+
+    @Override
+    public boolean remove(String key, EntryMeta expected) {
+        return map.remove(key, expected);
+    }
+
+    @Override
+    public Iterable<java.util.Map.Entry<String, EntryMeta>> entrySet() {
+        return map.entrySet();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+}
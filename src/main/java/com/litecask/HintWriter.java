@@ -0,0 +1,63 @@
+package com.litecask;
+
+import java.io.*;
+
+/**
+ * HintWriter keeps dataN.hint open for the lifetime of its data file and buffers appends.
+ *
+ * Hint record: keyLen(4) valueSize(4) fileId(4) valueOffset(8) flag(1) seq(8) [expiresAt(8)] key,
+ * where expiresAt is only present for puts with {@link Entry#FLAG_EXPIRES}.
+ * For tombstones, batch headers and sync markers valueOffset holds the start of the record.
+ * Hints of v1 data files have no seq.
+ *
+ * The buffer is flushed at the data file's sync points and forced on close (rotation).
+ * Hints are only an index: recovery replays whatever part of the data file the hint
+ * doesn't cover, so a lagging or torn hint never loses records.
+ */
+class HintWriter implements Closeable {
+
+    /** keyLen + valueSize + fileId + valueOffset + flag + seq */
+    static final int RECORD_HEADER_SIZE = 4 + 4 + 4 + 8 + 1 + 8;
+    /** Hint records of v1 data files: no seq */
+    static final int V1_RECORD_HEADER_SIZE = 4 + 4 + 4 + 8 + 1;
+
+    private final FileOutputStream file;
+    private final DataOutputStream out;
+    private boolean closed;
+
+    HintWriter(File hintFile) throws IOException {
+        this.file = new FileOutputStream(hintFile, true);
+        this.out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+    }
+
+    void append(byte[] keyBytes, int fileId, long valueOffset, int valueSize, byte flag, long seq) throws IOException {
+        append(keyBytes, fileId, valueOffset, valueSize, flag, seq, 0);
+    }
+
+    synchronized void append(byte[] keyBytes, int fileId, long valueOffset, int valueSize, byte flag, long seq,
+                             long expiresAt) throws IOException {
+        if (closed) throw new IOException("hint file is closed");
+        out.writeInt(keyBytes.length);
+        out.writeInt(valueSize);
+        out.writeInt(fileId);
+        out.writeLong(valueOffset);
+        out.writeByte(flag);
+        out.writeLong(seq);
+        if (Entry.expires(flag)) out.writeLong(expiresAt);
+        out.write(keyBytes);
+    }
+
+    /** Hand buffered hints to the OS */
+    synchronized void flush() throws IOException {
+        if (!closed) out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        out.flush();
+        file.getChannel().force(false);
+        out.close();
+    }
+}
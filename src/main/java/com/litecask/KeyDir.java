@@ -1,55 +1,109 @@
 package com.litecask;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BinaryOperator;
 
 /**
  * KeyDir is an in-memory index mapping keys to their latest location on disk.
- * Each key points to EntryMeta: fileId, value offset, size, and flag.
+ * Each key points to EntryMeta: fileId, value offset, size, flag, write sequence and expiry.
+ *
+ * Three backends exist: {@link HeapKeyDir} (a ConcurrentHashMap, the default),
+ * {@link OffHeapKeyDir} (an open-addressing table outside the Java heap for very
+ * large key counts) and {@link OrderedKeyDir} (a skip list for range and prefix
+ * scans). All three are safe for concurrent readers and writers.
  */
-public class KeyDir {
-
-    private final ConcurrentHashMap<String, EntryMeta> map = new ConcurrentHashMap<>();
+public interface KeyDir {
 
     /** Lookup metadata for a key */
-    public EntryMeta get(String key) {
-        return map.get(key);
-    }
+    EntryMeta get(String key);
 
     /** Insert or update metadata for a key */
-    public void put(String key, EntryMeta meta) {
-        map.put(key, meta);
-    }
+    void put(String key, EntryMeta meta);
+
+    /** Insert metadata, or atomically resolve against the existing metadata with {@code resolver} */
+    void merge(String key, EntryMeta meta, BinaryOperator<EntryMeta> resolver);
+
+    /**
+     * Compare-and-set: point {@code key} at {@code update} only if it still maps to metadata equal
+     * to {@code expected}. Used by compaction so a relocation never overwrites a newer write.
+     */
+    boolean replace(String key, EntryMeta expected, EntryMeta update);
 
     /** Remove key completely from KeyDir (not from disk) */
-    public void remove(String key) {
-        map.remove(key);
-    }
+    void remove(String key);
+
+    /** Compare-and-remove: drop {@code key} only if it still maps to metadata equal to {@code expected} */
+    boolean remove(String key, EntryMeta expected);
+
+    /** Iterate over all entries (useful for checkpointing); weakly consistent under concurrent updates */
+    Iterable<java.util.Map.Entry<String, EntryMeta>> entrySet();
 
-    /** Iterate over all entries (useful for checkpointing) */
-    public Iterable<java.util.Map.Entry<String, EntryMeta>> entrySet() {
-        return map.entrySet();
+    /**
+     * Entries with {@code from <= key < to} in key order ({@code null} bounds are open).
+     * {@link OrderedKeyDir} walks just that range lazily; hash backends sort a filtered snapshot.
+     */
+    default java.util.Iterator<java.util.Map.Entry<String, EntryMeta>> range(String from, String to) {
+        java.util.List<java.util.Map.Entry<String, EntryMeta>> matches = new java.util.ArrayList<>();
+        for (var e : entrySet()) {
+            String key = e.getKey();
+            if ((from == null || key.compareTo(from) >= 0) && (to == null || key.compareTo(to) < 0)) {
+                matches.add(new java.util.AbstractMap.SimpleImmutableEntry<>(key, e.getValue()));
+            }
+        }
+        matches.sort(java.util.Map.Entry.comparingByKey());
+        return matches.iterator();
     }
 
+    /** Number of keys (including tombstoned ones) */
+    int size();
+
     /** Metadata stored for each key */
-    // in KeyDir.java
-    public static class EntryMeta {
+    class EntryMeta {
         public final int fileId;
         public final long valueOffset;
         public final int valueSize;
         public final byte flag;
 
-        // NEW: entryStart to break ties across overwrites in same file
-        public final long entryStart;
+        /** Write sequence of the record: the latest record of a key has the highest seq */
+        public final long seq;
 
-        public EntryMeta(int fileId, long valueOffset, int valueSize, byte flag) {
-            this(fileId, valueOffset, valueSize, flag, -1L);
+        /** Expiry time in epoch millis, 0 if the value never expires */
+        public final long expiresAt;
+
+        public EntryMeta(int fileId, long valueOffset, int valueSize, byte flag, long seq) {
+            this(fileId, valueOffset, valueSize, flag, seq, 0);
         }
-        public EntryMeta(int fileId, long valueOffset, int valueSize, byte flag, long entryStart) {
+
+        public EntryMeta(int fileId, long valueOffset, int valueSize, byte flag, long seq, long expiresAt) {
             this.fileId = fileId;
             this.valueOffset = valueOffset;
             this.valueSize = valueSize;
             this.flag = flag;
-            this.entryStart = entryStart;
+            this.seq = seq;
+            this.expiresAt = expiresAt;
+        }
+
+        /** True if the value has a TTL that ran out at or before {@code nowMillis} */
+        public boolean expired(long nowMillis) {
+            return expiresAt != 0 && expiresAt <= nowMillis;
+        }
+
+        /** True if the value has a TTL that has run out; reads the clock only for entries with a TTL */
+        public boolean expiredNow() {
+            return expiresAt != 0 && expiresAt <= System.currentTimeMillis();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EntryMeta)) return false;
+            EntryMeta m = (EntryMeta) o;
+            return fileId == m.fileId && valueOffset == m.valueOffset && valueSize == m.valueSize
+                    && flag == m.flag && seq == m.seq && expiresAt == m.expiresAt;
+        }
+
+        @Override
+        public int hashCode() {
+            return java.util.Objects.hash(fileId, valueOffset, valueSize, flag, seq, expiresAt);
         }
     }
 
@@ -0,0 +1,122 @@
+package com.litecask;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram records durations in nanoseconds into log-linear buckets, like HdrHistogram.
+ *
+ * <ul>
+ *   <li>Every power of two is split into {@value #SUB_COUNT} linear buckets, so a reported
+ *       percentile is within about 3% of the true value. Values up to ~18 minutes are kept
+ *       apart; longer ones land in the last bucket (the max is still exact).</li>
+ *   <li>Buckets are striped by thread, so concurrent writers rarely increment the same
+ *       cache line. {@link #record} does not allocate.</li>
+ *   <li>{@link #snapshot()} sums the stripes; it is not atomic with respect to concurrent
+ *       records, which is fine for monitoring.</li>
+ * </ul>
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_SHIFT = 35;   // values below 2^(MAX_SHIFT + SUB_BITS + 1) ns get their own bucket
+    private static final int BUCKETS = (MAX_SHIFT + 2) * SUB_COUNT;
+    private static final int STRIPES = Math.min(8, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())));
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /** Record one duration */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        counts.incrementAndGet(stripe * BUCKETS + bucketOf(nanos));
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /** Record the time elapsed since {@code startNanos}, a {@link System#nanoTime()} reading */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] merged = new long[BUCKETS];
+        long count = 0;
+        for (int s = 0; s < STRIPES; s++) {
+            for (int b = 0; b < BUCKETS; b++) {
+                long c = counts.get(s * BUCKETS + b);
+                merged[b] += c;
+                count += c;
+            }
+        }
+        return new Snapshot(merged, count, totalNanos.sum(), maxNanos.get());
+    }
+
+    static int bucketOf(long v) {
+        if (v < 2 * SUB_COUNT) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        if (shift > MAX_SHIFT) return BUCKETS - 1;
+        return shift * SUB_COUNT + (int) (v >>> shift);
+    }
+
+    /** Highest value that falls into bucket {@code b} */
+    static long highestValueIn(int b) {
+        if (b < 2 * SUB_COUNT) return b;
+        int shift = b / SUB_COUNT - 1;
+        long m = b - (long) shift * SUB_COUNT;
+        return ((m + 1) << shift) - 1;
+    }
+
+    /** Counts at one point in time */
+    public static final class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Snapshot(long[] buckets, long count, long totalNanos, long maxNanos) {
+            this.buckets = buckets;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long totalNanos() {
+            return totalNanos;
+        }
+
+        public long maxNanos() {
+            return maxNanos;
+        }
+
+        public double meanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /** Value at percentile {@code p} (0-100), in nanoseconds; 0 if nothing was recorded */
+        public long percentile(double p) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank) return Math.min(highestValueIn(b), maxNanos);
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.0fns p50=%dns p99=%dns p999=%dns max=%dns",
+                    count, meanNanos(), percentile(50), percentile(99), percentile(99.9), maxNanos);
+        }
+    }
+}
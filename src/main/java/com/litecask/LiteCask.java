@@ -1,142 +1,675 @@
 package com.litecask;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32C;
 
 public class LiteCask {
-	private static final long MAX_FILE_SIZE = 64 * 1024 * 1024; // 64 MB
+    /** multiGet reads through gaps up to this size rather than issuing another read */
+    static final int COALESCE_GAP = 4096;
+    /** ...but never reads more than this in one go */
+    static final int MAX_COALESCED_READ = 1 << 20;
+    /** Streamed puts up to this size are read into memory and written like put(byte[]); larger ones are staged */
+    static final int STREAM_BUFFER = 64 * 1024;
+    /** Staging files of streamed puts in the data directory; leftovers are deleted on open */
+    static final String STAGING_PREFIX = "upload-";
 
     private final File dataDir;
-    private final KeyDir keyDir = new KeyDir();
-    private RandomAccessFile activeFile;
-    private int activeFileId = 1;
+    private final LiteCaskOptions options;
+    private final KeyDir keyDir;
+    private volatile LogWriter activeFile;
+    private volatile int activeFileId = 1;
+    /** Sequence number of the next record; the latest record of a key is the one with the highest */
+    private final AtomicLong nextSeq = new AtomicLong(1);
+    private final ReadChannelPool readers;
+    private final ValueCache cache; // null unless options.valueCacheBytes() > 0
+    private final ValueCompressor compressor; // null unless options.compressionCodec() is set
+    /** Codecs values may be stored with, by id: the built-in ones plus the configured one */
+    private final Map<Integer, ValueCodec> codecs = new HashMap<>();
+    private final FileStats stats = new FileStats();
+    private final EngineMetrics metrics;
+    private final Compactor compactor;
+    private final ExpirySweeper sweeper;
+    /** One merge, compaction or checkpoint at a time */
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final Checkpointer checkpointer;
+    /** Writers not closed yet, by fileId: the lowest one bounds the checkpoint position */
+    private final ConcurrentSkipListMap<Integer, LogWriter> openWriters = new ConcurrentSkipListMap<>();
+    /** Keys changed since the last checkpoint; null unless background checkpoints are on */
+    private volatile Set<String> dirtyKeys;
+    /** Read side: adding to dirtyKeys; write side: a checkpoint swapping it out, so no add lands in a retired set */
+    private final java.util.concurrent.locks.ReentrantReadWriteLock dirtyLock = new java.util.concurrent.locks.ReentrantReadWriteLock();
+    private ScheduledExecutorService checkpointScheduler;
+
+    /** Serializes rotation only; appends reserve their offset lock-free in LogWriter */
+    private final Object rotationLock = new Object();
+    private final boolean writable;
+    private ScheduledExecutorService syncScheduler;
+
+    /** Non-null in read-only mode: tails the writer's files instead of writing any */
+    private LogFollower follower;
+    private ScheduledExecutorService followScheduler;
+    /** Data files that open snapshots keep from being deleted */
+    private final FilePins pins;
+    /** Set while snapshot() copies KeyDir: entries that writes displace meanwhile */
+    private volatile Queue<Map.Entry<String, KeyDir.EntryMeta>> displaced;
+    /** How long snapshot() waits for writes before its position to show up in KeyDir */
+    private static final long SNAPSHOT_PUBLISH_TIMEOUT_MILLIS = 60_000;
+
+    /** Read-only mode: how far recovery read each hint file, for the follower to go on from */
+    private final Map<String, LogFollower.HintCursor> startupHints = new ConcurrentHashMap<>();
     
     private FileChannel lockChannel;
     private FileLock lock;
 
-    private LiteCask(String dirPath, boolean writable) throws IOException {
+    private LiteCask(String dirPath, boolean writable, LiteCaskOptions options) throws IOException {
     	 this.dataDir = new File(dirPath);
-    	    if (!dataDir.exists()) dataDir.mkdirs();
+    	 this.options = options;
+    	 this.writable = writable;
+    	 if (options.offHeapKeyDir() && options.orderedKeyDir()) {
+    	     throw new IllegalArgumentException("offHeapKeyDir and orderedKeyDir are mutually exclusive");
+    	 }
+    	 this.keyDir = options.offHeapKeyDir() ? new OffHeapKeyDir()
+    	         : options.orderedKeyDir() ? new OrderedKeyDir() : new HeapKeyDir();
+    	 this.metrics = new EngineMetrics(options.latencyMetrics());
+    	 this.readers = new ReadChannelPool(dataDir, options.mmapReads() || !writable);
+    	 this.pins = new FilePins(dataDir, readers);
+    	 this.cache = options.valueCacheBytes() > 0 ? new ValueCache(options.valueCacheBytes()) : null;
+    	 this.compressor = options.compressionCodec() == null ? null
+    	         : new ValueCompressor(options.compressionCodec(), options.compressionMinSize());
+    	 for (ValueCodec codec : new ValueCodec[] {ValueCodec.LZ, ValueCodec.DEFLATE, options.compressionCodec()}) {
+    	     if (codec != null) codecs.put(codec.id(), codec);
+    	 }
+    	    if (!dataDir.exists()) {
+    	        if (!writable) throw new FileNotFoundException("No LiteCask at " + dataDir);
+    	        dataDir.mkdirs();
+    	    }
+    	    this.checkpointer = new Checkpointer(dataDir);
+    	    this.sweeper = new ExpirySweeper(keyDir, this::expired);
+    	    if (!writable) {
+    	        this.compactor = new Compactor(this, stats, options); // never started
+    	        startFollowing();
+    	        return;
+    	    }
     	    
     	 // Create/open lock file
     	    File lockFile = new File(dataDir, "LOCK");
     	    this.lockChannel = new RandomAccessFile(lockFile, "rw").getChannel();
-
-    	    if (writable) {
-    	        this.lock = lockChannel.tryLock();
-    	        if (lock == null) {
-    	            throw new IOException("LiteCask already opened in write mode by another process!");
-    	        }
+    	    this.lock = lockChannel.tryLock();
+    	    if (lock == null) {
+    	        throw new IOException("LiteCask already opened in write mode by another process!");
     	    }
-    	    // Read existing files (if any), rebuild KeyDir and decide activeFileId
-    	    int lastCheckpointed = loadCheckpoint(); 
-    	    
-    	    // Read existing files (if any), rebuild KeyDir and decide activeFileId
-    	    rebuildFromDisk(lastCheckpointed);
+    	    // Staged values of streamed puts that never made it into a data file
+    	    File[] staged = dataDir.listFiles((d, name) -> name.startsWith(STAGING_PREFIX) && name.endsWith(".tmp"));
+    	    if (staged != null) for (File f : staged) f.delete();
+    	    // Load the last checkpoint and replay the log written after it; decide activeFileId
+    	    loadIndex();
+    	    sweepRecovered();
+    	    recomputeStats();
 
     	    // Open (or create) the active file and seek to end
     	    openActiveFile();
+    	    startBackgroundSync();
+
+    	    this.compactor = new Compactor(this, stats, options);
+    	    if (options.compactionIntervalMillis() > 0) {
+    	        compactor.start(options.compactionIntervalMillis());
+    	    }
+    	    if (options.checkpointIntervalMillis() > 0) {
+    	        startBackgroundCheckpoints(options.checkpointIntervalMillis());
+    	    }
     }
 
     public static LiteCask open(String dir, boolean writable) throws IOException {
-        // (writable flag can be used later for read-only mode)
-        return new LiteCask(dir, writable);
+        return new LiteCask(dir, writable, LiteCaskOptions.defaults());
+    }
+
+    /**
+     * Open the LiteCask in {@code dir}. With {@code writable} false it is opened read-only: it loads
+     * the index like a restart, then applies what the writing process appends every
+     * {@link LiteCaskOptions#followInterval}, following its rotations and merges. Files are opened
+     * read-only (memory-mapped once rotated), and the directory's lock is never taken nor a
+     * checkpoint written, so any number of readers can share the directory with the writer (or
+     * tail a replica filled by {@link LogReceiver}). Reads lag the writer by at most
+     * {@link #stalenessMillis()}; writes throw IllegalStateException.
+     */
+    public static LiteCask open(String dir, boolean writable, LiteCaskOptions options) throws IOException {
+        return new LiteCask(dir, writable, options);
+    }
+
+    /** Open a read-only follower of the LiteCask in {@code dir}; same as {@code open(dir, false, options)} */
+    public static LiteCask follow(String dir, LiteCaskOptions options) throws IOException {
+        return new LiteCask(dir, false, options);
+    }
+
+    private void startFollowing() throws IOException {
+        long recoveredAt = System.currentTimeMillis();
+        Map<Integer, Long> lengths = LogFollower.lengths(dataDir); // before loading: the rest is tailed
+        loadIndex();
+        sweepRecovered();
+        recomputeStats();
+        this.follower = new LogFollower(dataDir, keyDir, readers,
+                (hint, data, dataLength, cursor) -> loadHint(hint, Entry.formatOf(data), dataLength,
+                        new LongAccumulator(Math::max, 0), cursor, true),
+                this::applyFollowed);
+        follower.startFrom(lengths, startupHints, recoveredAt);
+        startupHints.clear();
+        follower.poll();
+
+        long interval = options.followIntervalMillis();
+        if (interval == 0) return; // refreshed by the caller only
+        followScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "litecask-follower");
+            t.setDaemon(true);
+            return t;
+        });
+        followScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                follower.poll();
+            } catch (IOException e) {
+                // staleness keeps growing until a poll gets through
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /** A record the leader wrote, found by the follower */
+    private void applyFollowed(String key, KeyDir.EntryMeta meta) {
+        keyDir.merge(key, meta, this::mergeLatest);
+        if (meta.expiresAt == 0) return;
+        if (!meta.expiredNow()) sweeper.schedule(key, meta.expiresAt);
+        else keyDir.remove(key, meta); // a record read again that expired meanwhile
+    }
+
+    /**
+     * Read-only mode: apply what the writer appended since the last poll now, instead of waiting
+     * for the next one. True if every data file was read to its end; always false for the writer.
+     */
+    public boolean refresh() throws IOException {
+        return follower != null && follower.poll();
+    }
+
+    /**
+     * Upper bound on how far reads lag the writer, in milliseconds: how long ago the follower last
+     * saw the end of every data file. Always 0 for the writer itself.
+     */
+    public long stalenessMillis() {
+        return follower == null ? 0 : follower.stalenessMillis();
+    }
+
+    private void requireWritable() {
+        if (!writable) throw new IllegalStateException("LiteCask was opened read-only");
     }
 
     private void openActiveFile() throws IOException {
         File file = new File(dataDir, "data" + activeFileId + ".dat");
-        this.activeFile = new RandomAccessFile(file, "rw");
-        this.activeFile.seek(activeFile.length()); // append mode
+        HintWriter hints = new HintWriter(new File(dataDir, "data" + activeFileId + ".hint"));
+        boolean created = !file.exists() || file.length() == 0;
+        this.activeFile = new LogWriter(file, activeFileId, options.syncPolicy(), hints, options.maxFileSize(), metrics.fsyncs);
+        if (created) {
+            // the file header counts towards the file's size but is never live
+            stats.written(activeFileId, Entry.FILE_HEADER_SIZE);
+            stats.dead(activeFileId, Entry.FILE_HEADER_SIZE);
+        }
+        openWriters.put(activeFileId, activeFile);
+        readers.setActiveFileId(activeFileId);
+    }
+
+    /** For SyncPolicy.everyMillis: fsync whatever the active file has accumulated on a timer */
+    private void startBackgroundSync() {
+        SyncPolicy policy = options.syncPolicy();
+        if (policy.mode != SyncPolicy.Mode.INTERVAL) return;
+        syncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "litecask-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        syncScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                activeFile.sync();
+            } catch (IOException e) {
+                // writer was rotated/closed under us; the next tick syncs the new one
+            }
+        }, policy.value, policy.value, TimeUnit.MILLISECONDS);
+    }
+
+    /** Checkpoint on a timer, as a delta of the keys changed since the previous one when that is small */
+    private void startBackgroundCheckpoints(long intervalMillis) {
+        dirtyKeys = ConcurrentHashMap.newKeySet();
+        checkpointScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "litecask-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpointScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint(false);
+            } catch (IOException e) {
+                // the previous checkpoint stays valid; retry on the next tick
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
     }
 
     public void put(String key, byte[] value) throws IOException {
-        checkRotation();  // 🔹 ensure we rotate if file too big
-
-        long offset = activeFile.getFilePointer();
-
-        // Serialize entry
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(baos);
-        Entry entry = new Entry(key, value, Entry.FLAG_PUT);
-        entry.writeTo(dos);
-
-        byte[] bytes = baos.toByteArray();
-        activeFile.write(bytes);
-        activeFile.getFD().sync();
-
-        // Update KeyDir
-        keyDir.put(key, new KeyDir.EntryMeta(
-                activeFileId,
-                offset + 4 + 4 + 1 + key.getBytes("UTF-8").length,
-                value.length,
-                Entry.FLAG_PUT
-        ));
-        
-        writeHint(
-                key,
-                activeFileId,
-                offset + 4 + 4 + 1 + key.getBytes("UTF-8").length,
-                value.length,
-                Entry.FLAG_PUT
-            );
+        put(key, value, 0);
+    }
+
+    /**
+     * Put a value that expires after {@code ttl}: from then on reads miss it, the sweeper drops it
+     * from KeyDir and merges drop the record, without a delete ever being written.
+     */
+    public void put(String key, byte[] value, java.time.Duration ttl) throws IOException {
+        put(key, value, expiryFor(ttl));
+    }
+
+    private void put(String key, byte[] value, long expiresAt) throws IOException {
+        long start = metrics.start();
+        Entry entry = new Entry(key, value, Entry.FLAG_PUT, expiresAt);
+        append(compressor == null ? entry : compressor.prepare(entry));
+        metrics.putDone(start);
+    }
+
+    /** Expiry time in epoch millis of a value written now with this TTL */
+    static long expiryFor(java.time.Duration ttl) {
+        if (ttl == null || ttl.isNegative() || ttl.isZero()) throw new IllegalArgumentException("ttl must be positive");
+        return Math.addExact(System.currentTimeMillis(), ttl.toMillis());
+    }
+
+    /**
+     * Store exactly {@code length} bytes read from {@code in} as the value of {@code key}, without
+     * holding the value in memory (see {@link #put(String, ReadableByteChannel, long, java.time.Duration)}).
+     */
+    public void put(String key, InputStream in, long length) throws IOException {
+        put(key, Channels.newChannel(in), length, 0);
+    }
+
+    public void put(String key, ReadableByteChannel in, long length) throws IOException {
+        put(key, in, length, 0);
+    }
+
+    /**
+     * Store exactly {@code length} bytes read from {@code in} as the value of {@code key}, expiring
+     * after {@code ttl} (null for never). Large values are first copied to a staging file next to
+     * the data files, checksummed on the way, and then appended to the active file by a kernel
+     * file-to-file copy: heap use stays at one {@value #STREAM_BUFFER} buffer, and a slow sender
+     * never holds up other writers. Streamed values are stored uncompressed.
+     */
+    public void put(String key, ReadableByteChannel in, long length, java.time.Duration ttl) throws IOException {
+        put(key, in, length, ttl == null ? 0 : expiryFor(ttl));
+    }
+
+    private void put(String key, ReadableByteChannel in, long length, long expiresAt) throws IOException {
+        requireWritable();
+        if (length < 0 || length > Integer.MAX_VALUE - Entry.EXPIRY_SIZE) {
+            throw new IllegalArgumentException("value length out of range: " + length);
+        }
+        if (length <= STREAM_BUFFER) {
+            ByteBuffer small = ByteBuffer.allocate((int) length);
+            readFully(in, small, length);
+            put(key, small.array(), expiresAt);
+            return;
+        }
+        long start = metrics.start();
+        Entry entry = new Entry(key, null, Entry.FLAG_PUT, expiresAt);
+        long seq = nextSeq.getAndIncrement();
+        byte[] head = Entry.head(seq, key.getBytes(StandardCharsets.UTF_8), (int) length, entry.flag, expiresAt);
+        CRC32C crc = new CRC32C();
+        crc.update(head, 4, head.length - 4);
+        File staging = Files.createTempFile(dataDir.toPath(), STAGING_PREFIX, ".tmp").toFile();
+        try (FileChannel body = FileChannel.open(staging.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(STREAM_BUFFER);
+            for (long staged = 0; staged < length; ) {
+                buf.clear().limit((int) Math.min(buf.capacity(), length - staged));
+                readFully(in, buf, buf.limit());
+                buf.flip();
+                crc.update(buf);
+                buf.flip();
+                while (buf.hasRemaining()) staged += body.write(buf);
+            }
+            ByteBuffer.wrap(head).putInt(0, (int) crc.getValue());
+            body.position(0);
+
+            LogWriter writer = activeFile;
+            long offset;
+            while ((offset = writer.append(head, body, length)) < 0) {
+                writer = rotate(writer);
+            }
+            long recordLength = head.length + length;
+            stats.written(writer.fileId(), recordLength);
+            LogWriter target = writer;
+            long recordStart = offset;
+            target.complete(offset, offset + recordLength,
+                    () -> publish(target, key, entry.flag, (int) length, expiresAt, recordStart, seq));
+        } finally {
+            staging.delete(); // DELETE_ON_CLOSE already did, unless the open failed
+        }
+        metrics.putDone(start);
+    }
+
+    private static void readFully(ReadableByteChannel in, ByteBuffer buf, long length) throws IOException {
+        while (buf.position() < length) {
+            if (in.read(buf) < 0) throw new EOFException("value ended " + (length - buf.position()) + " bytes short");
+        }
+    }
+
+    /**
+     * Append one entry to the active file, wait for its group commit, then publish it
+     * in KeyDir and the hint file.
+     */
+    private void append(Entry entry) throws IOException {
+        requireWritable();
+        long seq = nextSeq.getAndIncrement();
+        byte[] bytes = entry.toBytes(seq);
+        LogWriter writer = activeFile;
+        long offset;
+        while ((offset = writer.append(bytes)) < 0) {
+            writer = rotate(writer);  // 🔹 file full: move to the next one
+        }
+        stats.written(writer.fileId(), bytes.length);
+        // Group commit: concurrent writers share one fsync
+        LogWriter target = writer;
+        long start = offset;
+        writer.complete(offset, offset + bytes.length, () -> publish(target, entry, start, seq));
     }
 
+    /**
+     * Apply a WriteBatch atomically: one framed append, one sync, and only then are the
+     * batch's entries published to KeyDir (in batch order, so a later op on the same key wins).
+     * After a crash the batch is either all there or not at all, but concurrent readers are not
+     * excluded while it is published and may see it partially applied.
+     */
+    public void write(WriteBatch batch) throws IOException {
+        requireWritable();
+        if (batch.isEmpty()) return;
+        List<Entry> entries = new ArrayList<>(batch.entries());
+        if (compressor != null) entries.replaceAll(compressor::prepare);
+        long firstSeq = nextSeq.getAndAdd(entries.size() + 1L);
+        byte[] frame = WriteBatch.toFrame(entries, firstSeq);
+        LogWriter writer = activeFile;
+        long offset;
+        while ((offset = writer.append(frame)) < 0) {
+            writer = rotate(writer);
+        }
+        stats.written(writer.fileId(), frame.length);
+        stats.dead(writer.fileId(), Entry.HEADER_SIZE); // the frame header is never live
+        LogWriter target = writer;
+        long start = offset;
+        writer.complete(offset, offset + frame.length, () -> {
+            // Hint for the frame header keeps hint coverage contiguous across the block
+            target.hints().append(new byte[0], target.fileId(), start, frame.length - Entry.HEADER_SIZE, Entry.FLAG_BATCH, firstSeq);
+            long pos = start + Entry.HEADER_SIZE;
+            long seq = firstSeq;
+            for (Entry entry : entries) {
+                pos += publish(target, entry, pos, ++seq);
+            }
+        });
+    }
+
+    /** Point KeyDir and the hint file at a committed entry starting at {@code offset}; returns its length */
+    private long publish(LogWriter writer, Entry entry, long offset, long seq) throws IOException {
+        int valueSize = entry.flag == Entry.FLAG_TOMBSTONE ? 0 : entry.value.length;
+        return publish(writer, entry.key, entry.flag, valueSize, entry.expiresAt, offset, seq);
+    }
+
+    private long publish(LogWriter writer, String key, byte flag, int valueSize, long expiresAt,
+                         long offset, long seq) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        KeyDir.EntryMeta meta;
+        if (flag == Entry.FLAG_TOMBSTONE) {
+            meta = new KeyDir.EntryMeta(writer.fileId(), offset, 0, flag, seq);
+        } else {
+            long valueOffset = offset + Entry.HEADER_SIZE + keyBytes.length + Entry.valuePrefix(flag);
+            meta = new KeyDir.EntryMeta(writer.fileId(), valueOffset, valueSize, flag, seq, expiresAt);
+        }
+        // Latest record wins if concurrent writers raced on the same key; the other one is garbage now
+        int keyLength = keyBytes.length;
+        keyDir.merge(key, meta, (current, update) -> {
+            Queue<Map.Entry<String, KeyDir.EntryMeta>> capture = displaced;
+            if (capture != null) capture.add(Map.entry(key, current));
+            KeyDir.EntryMeta winner = mergeLatest(current, update);
+            KeyDir.EntryMeta loser = winner == update ? current : update;
+            stats.dead(loser.fileId, stats.recordSize(keyLength, loser));
+            return winner;
+        });
+        keyChanged(key);
+        writer.hints().append(keyBytes, meta.fileId, meta.valueOffset, meta.valueSize, meta.flag, seq, meta.expiresAt);
+        if (meta.expiresAt != 0) sweeper.schedule(key, meta.expiresAt);
+        return Entry.HEADER_SIZE + keyBytes.length + Entry.valuePrefix(flag) + valueSize;
+    }
 
     public byte[] get(String key) throws IOException {
-        KeyDir.EntryMeta meta = keyDir.get(key);
-        if (meta == null || meta.flag == Entry.FLAG_TOMBSTONE) {
-            return null;
+        long start = metrics.start();
+        try {
+            return read(key);
+        } finally {
+            metrics.getDone(start);
         }
+    }
 
-        File file = new File(dataDir, "data" + meta.fileId + ".dat");
-        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-            raf.seek(meta.valueOffset);
-            byte[] value = new byte[meta.valueSize];
-            raf.readFully(value);
-            return value;
+    private byte[] read(String key) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            KeyDir.EntryMeta meta = keyDir.get(key);
+            if (meta == null || meta.flag == Entry.FLAG_TOMBSTONE || meta.expiredNow()) {
+                return null; // expired: a miss without touching the file
+            }
+            if (cache != null) {
+                byte[] cached = cache.get(key, meta);
+                if (cached != null) return cached.clone();
+            }
+            try {
+                byte[] value = decode(meta, readers.read(meta.fileId, meta.valueOffset, meta.valueSize));
+                if (cache != null) cache.put(key, meta, value.clone());
+                return value;
+            } catch (ClosedChannelException | FileNotFoundException e) {
+                // The file was merged away (KeyDir already points elsewhere) or its channel got
+                // closed under us; look the key up again and retry with a fresh reader.
+                if (attempt >= 3) throw e;
+            }
         }
     }
 
-    public void delete(String key) throws IOException {
-        checkRotation();  // 🔹 ensure we rotate if file too big
+    /**
+     * Read the value of {@code key} into the buffer {@code room} hands out for its length, straight
+     * from the data file (or its mapping) when it is stored uncompressed, so a direct buffer gets
+     * it without a heap copy. False if the key is absent. When the file is merged away under the
+     * read, {@code room} is asked again and must hand out the same place.
+     */
+    boolean readInto(String key, IntFunction<ByteBuffer> room) throws IOException {
+        long start = metrics.start();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                KeyDir.EntryMeta meta = keyDir.get(key);
+                if (meta == null || meta.flag == Entry.FLAG_TOMBSTONE || meta.expiredNow()) return false;
+                byte[] cached = cache != null ? cache.get(key, meta) : null;
+                if (cached != null) {
+                    room.apply(cached.length).put(cached);
+                    return true;
+                }
+                try {
+                    if (Entry.codec(meta.flag) != 0) {
+                        byte[] value = decode(meta, readers.read(meta.fileId, meta.valueOffset, meta.valueSize));
+                        room.apply(value.length).put(value);
+                        return true;
+                    }
+                    ByteBuffer dst = room.apply(meta.valueSize);
+                    readers.read(meta.fileId, meta.valueOffset, dst.slice(dst.position(), meta.valueSize));
+                    dst.position(dst.position() + meta.valueSize);
+                    return true;
+                } catch (ClosedChannelException | FileNotFoundException e) {
+                    if (attempt >= 3) throw e; // merged away: look the key up again, like read()
+                }
+            }
+        } finally {
+            metrics.getDone(start);
+        }
+    }
 
-        long offset = activeFile.getFilePointer();
+    /**
+     * Values of many keys at once, in the order the keys are given; absent keys are left out.
+     *
+     * Keys are resolved in KeyDir first, then read grouped by data file and in offset order.
+     * Values close together on disk (at most {@value #COALESCE_GAP} bytes apart) are fetched
+     * with one read and sliced, so keys written together cost about one read between them.
+     */
+    public Map<String, byte[]> multiGet(Collection<String> keys) throws IOException {
+        Map<String, byte[]> found = new LinkedHashMap<>();
+        List<Map.Entry<String, KeyDir.EntryMeta>> pending = new ArrayList<>();
+        for (String key : new LinkedHashSet<>(keys)) {
+            KeyDir.EntryMeta meta = keyDir.get(key);
+            if (meta == null || meta.flag == Entry.FLAG_TOMBSTONE || meta.expiredNow()) continue;
+            byte[] cached = cache != null ? cache.get(key, meta) : null;
+            found.put(key, cached != null ? cached.clone() : null); // placeholder keeps the request order
+            if (cached == null) pending.add(Map.entry(key, meta));
+        }
+        pending.sort(Comparator.comparingInt((Map.Entry<String, KeyDir.EntryMeta> e) -> e.getValue().fileId)
+                .thenComparingLong(e -> e.getValue().valueOffset));
 
-        // Create tombstone entry
-        Entry entry = new Entry(key, null, Entry.FLAG_TOMBSTONE);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(baos);
-        entry.writeTo(dos);
+        for (int from = 0; from < pending.size(); ) {
+            KeyDir.EntryMeta first = pending.get(from).getValue();
+            long end = first.valueOffset + first.valueSize;
+            int to = from + 1;
+            while (to < pending.size()) {
+                KeyDir.EntryMeta next = pending.get(to).getValue();
+                long nextEnd = Math.max(end, next.valueOffset + next.valueSize);
+                if (next.fileId != first.fileId || next.valueOffset - end > COALESCE_GAP
+                        || nextEnd - first.valueOffset > MAX_COALESCED_READ) break;
+                end = nextEnd;
+                to++;
+            }
+            readRun(pending.subList(from, to), first.valueOffset, (int) (end - first.valueOffset), found);
+            from = to;
+        }
+        found.values().removeIf(java.util.Objects::isNull); // deleted while we were reading
+        return found;
+    }
+
+    /** One read covering every value of {@code run}, all in the same file */
+    private void readRun(List<Map.Entry<String, KeyDir.EntryMeta>> run, long offset, int length,
+                         Map<String, byte[]> found) throws IOException {
+        byte[] block;
+        try {
+            block = readers.read(run.get(0).getValue().fileId, offset, length);
+        } catch (ClosedChannelException | FileNotFoundException e) {
+            // merged away in the meantime: look each key up again
+            for (var stale : run) found.put(stale.getKey(), read(stale.getKey()));
+            return;
+        }
+        for (var e : run) {
+            KeyDir.EntryMeta meta = e.getValue();
+            int start = (int) (meta.valueOffset - offset);
+            byte[] stored = run.size() == 1 ? block : java.util.Arrays.copyOfRange(block, start, start + meta.valueSize);
+            byte[] value = decode(meta, stored);
+            if (cache != null) cache.put(e.getKey(), meta, value.clone());
+            found.put(e.getKey(), value);
+        }
+    }
 
-        byte[] bytes = baos.toByteArray();
-        activeFile.write(bytes);
-        activeFile.getFD().sync();
+    /**
+     * Pin the current value of {@code key} for streaming (see {@link ValueRef}), or null if the key
+     * is absent. The caller must close the returned ref.
+     */
+    public ValueRef lookup(String key) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            KeyDir.EntryMeta meta = keyDir.get(key);
+            if (meta == null || meta.flag == Entry.FLAG_TOMBSTONE || meta.expiredNow()) {
+                return null; // expired: a miss without touching the file
+            }
+            if (cache != null) {
+                byte[] cached = cache.get(key, meta);
+                if (cached != null) return new ValueRef(cached);
+            }
+            try {
+                if (Entry.codec(meta.flag) != 0) {
+                    // compressed on disk: can't stream the stored bytes, hand out the decoded value
+                    return new ValueRef(decode(meta, readers.read(meta.fileId, meta.valueOffset, meta.valueSize)));
+                }
+                // its own descriptor, not a pooled reader: the ref must stay readable if a merge deletes the file
+                File file = new File(dataDir, "data" + meta.fileId + ".dat");
+                FileChannel channel = FileChannel.open(file.toPath(), java.nio.file.StandardOpenOption.READ);
+                return new ValueRef(channel, meta.valueOffset, meta.valueSize);
+            } catch (java.nio.file.NoSuchFileException | ClosedChannelException | FileNotFoundException e) {
+                // merged away between the KeyDir lookup and the open; KeyDir points elsewhere now
+                if (attempt >= 3) throw e;
+            }
+        }
+    }
 
-        // Update KeyDir with tombstone
-        keyDir.put(key, new KeyDir.EntryMeta(
-                activeFileId,
-                offset,
-                0,
-                Entry.FLAG_TOMBSTONE
-        ));
-        
-        writeHint(key, activeFileId, 0, 0, Entry.FLAG_TOMBSTONE);
+    /**
+     * The current value of {@code key} as a channel that ends where the value ends, or null if the
+     * key is absent; reading it streams from the data file. The caller must close it.
+     */
+    public ReadableByteChannel openValue(String key) throws IOException {
+        return lookup(key);
+    }
 
+    public void delete(String key) throws IOException {
+        // Create tombstone entry
+        append(new Entry(key, null, Entry.FLAG_TOMBSTONE));
     }
 
     public void close() throws IOException {
+        compactor.close();
+        sweeper.close();
+        if (!writable) {
+            if (followScheduler != null) {
+                followScheduler.shutdownNow();
+                try {
+                    followScheduler.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            readers.close();
+            return; // the writer owns the files: nothing to write
+        }
+        if (checkpointScheduler != null) {
+            checkpointScheduler.shutdown();
+            try {
+                checkpointScheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (syncScheduler != null) {
+            syncScheduler.shutdownNow();
+        }
     	if (activeFile != null) {
             activeFile.close();
         }
+        readers.close();
+        pins.unpinAll();
     	// Save in-memory KeyDir snapshot
         checkpoint();
         if (lock != null) {
@@ -162,224 +695,567 @@ public class LiteCask {
         return Integer.parseInt(num);
     }
 
-    /** Scan all data files and rebuild KeyDir; set activeFileId accordingly. */
-    private void rebuildFromDisk(int minFileId) throws IOException {
-        File[] files = listDataFilesSorted();
-        if (files.length == 0) {
-            this.activeFileId = 1;
-            return;
-        }
-
-        // Gather files to process (newer than checkpoint)
-        List<File> toScan = new ArrayList<>();
-        for (File f : files) {
-            int fileId = parseFileId(f.getName());
-            if (fileId > minFileId) toScan.add(f);
-        }
-        if (toScan.isEmpty()) {
-            this.activeFileId = parseFileId(files[files.length - 1].getName());
-            return;
-        }
+    /**
+     * Rebuild KeyDir: checkpoint chunks and the data files after the checkpoint position are all
+     * loaded in parallel, straight into KeyDir; large v2 files are split at sync markers. Latest-wins
+     * by versionOf() makes the order irrelevant.
+     */
+    private void loadIndex() throws IOException {
+        int threads = options.recoveryThreads() > 0 ? options.recoveryThreads() : Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "litecask-load");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            // Tasks may submit more tasks (chunks of a file), so wait on a queue rather than a list
+            Queue<Future<?>> tasks = new ConcurrentLinkedQueue<>();
+            Checkpointer.Position from = checkpointer.load(keyDir, this::mergeLatest, pool, tasks);
+            LongAccumulator maxSeq = new LongAccumulator(Math::max, from == null ? 0 : from.nextSeq - 1);
+            Set<Integer> damaged = ConcurrentHashMap.newKeySet();
 
-        int threads = Math.min(Runtime.getRuntime().availableProcessors(), Math.max(1, toScan.size()));
-        ExecutorService pool = Executors.newFixedThreadPool(threads);
-        List<Future<Map<String, KeyDir.EntryMeta>>> futures = new ArrayList<>();
-
-        for (File f : toScan) {
-            futures.add(pool.submit(() -> scanFileFast(f)));
-        }
+            File[] files = listDataFilesSorted();
+            for (File f : files) {
+                int fileId = parseFileId(f.getName());
+                if (Entry.formatOf(f) == Entry.FORMAT_V1) stats.legacy(fileId);
+                if (from != null && fileId < from.fileId) continue;
+                long skip = from != null && fileId == from.fileId ? from.offset : 0;
+                tasks.add(pool.submit(() -> {
+                    replayFile(f, fileId, skip, pool, tasks, maxSeq, damaged);
+                    return null;
+                }));
+            }
 
-        // Merge results with latest-wins
-        for (Future<Map<String, KeyDir.EntryMeta>> fut : futures) {
-            try {
-                Map<String, KeyDir.EntryMeta> local = fut.get();
-                for (var e : local.entrySet()) {
-                    keyDir.put(e.getKey(), mergeLatest(keyDir.get(e.getKey()), e.getValue()));
+            for (Future<?> task = tasks.poll(); task != null; task = tasks.poll()) {
+                try {
+                    task.get();
+                } catch (ExecutionException ex) {
+                    throw new IOException("Parallel rebuild failed", ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Parallel rebuild interrupted");
                 }
-            } catch (ExecutionException | InterruptedException ex) {
-                throw new IOException("Parallel rebuild failed", ex);
             }
-        }
+            nextSeq.set(maxSeq.get() + 1);
 
-        pool.shutdown();
-
-        this.activeFileId = parseFileId(files[files.length - 1].getName());
+            // Keep appending to the last file only if it is a clean v2 file; otherwise start a new one
+            if (files.length == 0) {
+                this.activeFileId = 1;
+            } else {
+                File last = files[files.length - 1];
+                int lastId = parseFileId(last.getName());
+                boolean appendable = Entry.formatOf(last) == Entry.FORMAT_V2 && !damaged.contains(lastId)
+                        && (last.length() == 0 || last.length() >= Entry.FILE_HEADER_SIZE);
+                this.activeFileId = appendable ? lastId : lastId + 1;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
     }
 
+    /**
+     * The later of two entries of a key. A merge copy keeps the seq of the record it copies, so an
+     * equal seq means the same write in two places: the higher file id wins, since merge outputs
+     * always get ids above their inputs. That way recovery gets the same answer whatever order its
+     * checkpoint chunks, deltas and replayed files finish in.
+     */
     private KeyDir.EntryMeta mergeLatest(KeyDir.EntryMeta oldMeta, KeyDir.EntryMeta newMeta) {
         if (oldMeta == null) return newMeta;
         long oldV = versionOf(oldMeta);
         long newV = versionOf(newMeta);
-        return (newV >= oldV) ? newMeta : oldMeta;
+        if (newV != oldV) return newV > oldV ? newMeta : oldMeta;
+        return newMeta.fileId >= oldMeta.fileId ? newMeta : oldMeta;
     }
 
 
     
-    private void checkRotation() throws IOException {
-        if (activeFile.length() >= MAX_FILE_SIZE) {
-            activeFile.close();
-            activeFileId++;   // move to next file
-            openActiveFile(); // start new active file
+    /**
+     * Switch to a new active file because {@code full} ran out of space. Only writers that hit
+     * the limit of the same file contend here; readers never do.
+     */
+    private LogWriter rotate(LogWriter full) throws IOException {
+        synchronized (rotationLock) {
+            if (activeFile == full) {
+                full.retire(); // closes once writers still committing to it are done
+                activeFileId++;   // move to next file
+                openActiveFile(); // start new active file
+                metrics.rotations.increment();
+            }
+            return activeFile;
         }
     }
     
+    /** Compact every rotated (immutable) data file; reads and writes continue meanwhile */
     public void merge() throws IOException {
-        Merger merger = new Merger(dataDir, keyDir);
-        merger.merge(activeFileId);
+        int active = activeFileId;
+        List<Integer> immutable = new ArrayList<>();
+        for (File f : listDataFilesSorted()) {
+            int fileId = parseFileId(f.getName());
+            if (fileId < active && !pins.isDoomed(fileId)) immutable.add(fileId);
+        }
+        if (!immutable.isEmpty()) compactFiles(immutable);
     }
-    
-    private void writeHint(String key, int fileId, long valueOffset, int valueSize, byte flag) throws IOException {
-        File hintFile = new File(dataDir, "data" + fileId + ".hint");
-        try (RandomAccessFile raf = new RandomAccessFile(hintFile, "rw")) {
-            raf.seek(raf.length()); // append
-            DataOutputStream dos = new DataOutputStream(new FileOutputStream(raf.getFD()));
-            byte[] keyBytes = key.getBytes("UTF-8");
-            dos.writeInt(keyBytes.length);
-            dos.writeInt(valueSize);
-            dos.writeInt(fileId);
-            dos.writeLong(valueOffset);
-            dos.writeByte(flag);
-            dos.write(keyBytes);
-            dos.flush();
+
+    /** The sweeper removed an expired key from KeyDir: its record is garbage now */
+    private void expired(String key, KeyDir.EntryMeta meta) {
+        Queue<Map.Entry<String, KeyDir.EntryMeta>> capture = displaced;
+        if (capture != null) capture.add(Map.entry(key, meta));
+        stats.dead(meta.fileId, stats.recordSize(key.getBytes(StandardCharsets.UTF_8).length, meta));
+        keyChanged(key);
+        metrics.expired.increment();
+    }
+
+    /** After recovery: drop what expired while the store was closed, file the rest with the sweeper */
+    private void sweepRecovered() {
+        long now = System.currentTimeMillis();
+        for (var e : keyDir.entrySet()) {
+            KeyDir.EntryMeta meta = e.getValue();
+            if (meta.expiresAt == 0) continue;
+            if (!meta.expired(now)) sweeper.schedule(e.getKey(), meta.expiresAt);
+            else if (keyDir.remove(e.getKey(), meta)) metrics.expired.increment(); // stats are computed next
         }
     }
-    
-    private void loadFromHint(File hint, int fileId) throws IOException {
-        try (DataInputStream in = new DataInputStream(new FileInputStream(hint))) {
-            while (in.available() > 0) {
-                int keyLen = in.readInt();
-                int valueSize = in.readInt();
-                int fId = in.readInt();
-                long valueOffset = in.readLong();
-                byte flag = in.readByte();
-                byte[] keyBytes = new byte[keyLen];
-                in.readFully(keyBytes);
-                String key = new String(keyBytes, "UTF-8");
 
-                keyDir.put(key, new KeyDir.EntryMeta(fId, valueOffset, valueSize, flag));
-            }
+    /** Run the sweeper now; returns how many expired keys it removed */
+    int sweepExpired() {
+        return sweeper.sweep(System.currentTimeMillis());
+    }
+
+    /** KeyDir now points somewhere else for {@code key}: drop cached copies, include it in the next delta */
+    private void keyChanged(String key) {
+        if (cache != null) cache.invalidate(key);
+        if (dirtyKeys == null) return; // background checkpoints off
+        dirtyLock.readLock().lock();
+        try {
+            dirtyKeys.add(key);
+        } finally {
+            dirtyLock.readLock().unlock();
         }
     }
-    
-    public void checkpoint() throws IOException {
-        File chk = new File(dataDir, "keydir.chk");
-        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(chk))) {
-            // Write header: last fileId we’ve fully processed
-            out.writeInt(activeFileId);
 
-            for (var e : keyDir.entrySet()) {
-                byte[] keyBytes = e.getKey().getBytes("UTF-8");
-                KeyDir.EntryMeta meta = e.getValue();
-                out.writeInt(keyBytes.length);
-                out.write(keyBytes);
-                out.writeInt(meta.fileId);
-                out.writeLong(meta.valueOffset);
-                out.writeInt(meta.valueSize);
-                out.writeByte(meta.flag);
-            }
+    int activeFileId() {
+        return activeFileId;
+    }
+
+    /** Hit/miss/eviction counters of the value cache, or null when it is disabled */
+    public ValueCache valueCache() {
+        return cache;
+    }
+
+    FileStats fileStats() {
+        return stats;
+    }
+
+    EngineMetrics metrics() {
+        return metrics;
+    }
+
+    /** Latency histograms, counters and sizes of this instance, as of now */
+    public LiteCaskStats stats() {
+        return new LiteCaskStats(metrics, keyDirSize(), stats.fileCount(), stats.totalBytes(), stats.deadBytes(), openFiles(),
+                stalenessMillis());
+    }
+
+    /** KeyDir metadata of a key, or null */
+    KeyDir.EntryMeta metaOf(String key) {
+        return keyDir.get(key);
+    }
+
+    /** KeyDir entries, tombstones included */
+    int keyDirSize() {
+        return keyDir.size();
+    }
+
+    /** Data files held open: cached readers plus writers not closed yet */
+    int openFiles() {
+        int writers = 0;
+        for (LogWriter w : openWriters.values()) {
+            if (!w.isClosed()) writers++;
+        }
+        return readers.openCount() + writers;
+    }
+
+    /** Run one background compaction round now; returns how many files were rewritten */
+    int compactGarbage() throws IOException {
+        return compactor.runOnce();
+    }
+
+    /**
+     * Rewrite the given immutable files while reads and writes continue. The outputs get ids
+     * above every existing file and writes move past them first, so file order stays write order.
+     */
+    void compactFiles(List<Integer> fileIds) throws IOException {
+        requireWritable();
+        compactionLock.lock();
+        try {
+            Merger merger = new Merger(dataDir, keyDir, readers, pins, this::keyChanged, options.maxFileSize(), stats, metrics);
+            int firstOutputId = reserveFileIds(merger.outputIdsNeeded(fileIds));
+            merger.compact(fileIds, firstOutputId);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Reserve {@code count} file ids for compaction output: rotate the active file past them and
+     * wait until the retired file's in-flight writes are published. Returns the first reserved id.
+     */
+    private int reserveFileIds(int count) throws IOException {
+        LogWriter retired;
+        int first;
+        synchronized (rotationLock) {
+            retired = activeFile;
+            first = activeFileId + 1;
+            retired.retire();
+            activeFileId += count + 1;
+            openActiveFile();
         }
+        retired.awaitClosed();
+        if (retired.size() <= Entry.FILE_HEADER_SIZE) {
+            // nothing was written to it: don't leave an empty file behind for every round
+            pins.delete(retired.fileId());
+            stats.remove(retired.fileId());
+        }
+        return first;
     }
 
+    /** Derive per-file total and dead bytes from the data file lengths and what KeyDir still points at */
+    private void recomputeStats() {
+        Map<Integer, Long> live = new HashMap<>();
+        for (var e : keyDir.entrySet()) {
+            KeyDir.EntryMeta m = e.getValue();
+            int keyLength = e.getKey().getBytes(java.nio.charset.StandardCharsets.UTF_8).length;
+            live.merge(m.fileId, stats.recordSize(keyLength, m), Long::sum);
+        }
+        for (File f : listDataFilesSorted()) {
+            int fileId = parseFileId(f.getName());
+            long total = f.length();
+            stats.reset(fileId, total, Math.max(0, total - live.getOrDefault(fileId, 0L)));
+        }
+    }
     
-    private int loadCheckpoint() throws IOException {
-        File chk = new File(dataDir, "keydir.chk");
-        if (!chk.exists()) return 0;
+    /** Write a full KeyDir checkpoint; a restart then only replays the log written after it */
+    public void checkpoint() throws IOException {
+        checkpoint(true);
+    }
 
-        int lastCheckpointedFileId = 0;
-        try (DataInputStream in = new DataInputStream(new FileInputStream(chk))) {
-            in.mark(4);
+    private void checkpoint(boolean full) throws IOException {
+        requireWritable();
+        compactionLock.lock(); // a snapshot taken mid-compaction could point into files about to go
+        try {
+            // Position first: every record before it is already published, so the snapshot has it
+            Checkpointer.Position pos = logPosition();
+            Set<String> changed;
+            dirtyLock.writeLock().lock();
             try {
-                // Try to read header (new format)
-                lastCheckpointedFileId = in.readInt();
-            } catch (EOFException e) {
-                // Old format → reset stream
-                in.reset();
+                changed = dirtyKeys;
+                if (changed != null) dirtyKeys = ConcurrentHashMap.newKeySet();
+            } finally {
+                dirtyLock.writeLock().unlock();
             }
 
-            while (in.available() > 0) {
-                int keyLen = in.readInt();
-                byte[] keyBytes = new byte[keyLen];
-                in.readFully(keyBytes);
-                String key = new String(keyBytes, "UTF-8");
+            if (full || changed == null || checkpointer.needsFull(changed.size(), keyDir.size())) {
+                checkpointer.writeFull(pos, keyDir.entrySet());
+            } else if (!changed.isEmpty()) {
+                checkpointer.writeDelta(pos, changed, keyDir);
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
 
-                int fileId = in.readInt();
-                long valueOffset = in.readLong();
-                int valueSize = in.readInt();
-                byte flag = in.readByte();
+    /**
+     * Take a point-in-time {@link Snapshot} while reads and writes go on. Its position is the end
+     * of the active file right now: once every write before it is in KeyDir, KeyDir is copied, and
+     * entries that later writes put in the copy are swapped back for the ones they displaced. Only
+     * merges wait, for the duration of the copy. Close the snapshot when done.
+     */
+    public Snapshot snapshot() throws IOException {
+        requireWritable();
+        compactionLock.lock(); // nothing relocated while copying, nothing merged away before it is pinned
+        try {
+            Queue<Map.Entry<String, KeyDir.EntryMeta>> changes = new ConcurrentLinkedQueue<>();
+            Checkpointer.Position pos;
+            Map<String, KeyDir.EntryMeta> view = new HashMap<>();
+            displaced = changes; // before the position: every write after it is seen
+            try {
+                LogWriter writer;
+                long end;
+                synchronized (rotationLock) {
+                    writer = activeFile;
+                    end = writer.size();
+                }
+                pos = new Checkpointer.Position(writer.fileId(), end, nextSeq.get());
+                for (LogWriter w : openWriters.headMap(pos.fileId).values()) w.awaitClosed();
+                if (!writer.awaitPublished(end, SNAPSHOT_PUBLISH_TIMEOUT_MILLIS)) {
+                    throw new IOException("writes before " + pos + " did not complete in time");
+                }
+                for (var e : keyDir.entrySet()) {
+                    if (before(e.getValue(), pos)) view.put(e.getKey(), e.getValue());
+                }
+            } finally {
+                displaced = null;
+            }
+            // A key's state at the position is its latest record before it: either still in KeyDir
+            // when copied, or displaced by a later write
+            for (var e : changes) {
+                if (before(e.getValue(), pos)) view.merge(e.getKey(), e.getValue(), this::mergeLatest);
+            }
 
-                keyDir.put(key, new KeyDir.EntryMeta(fileId, valueOffset, valueSize, flag));
+            List<Integer> files = new ArrayList<>();
+            for (File f : listDataFilesSorted()) {
+                int fileId = parseFileId(f.getName());
+                if (fileId <= pos.fileId && !pins.isDoomed(fileId)) files.add(fileId);
             }
+            pins.pin(files);
+            return new Snapshot(this, dataDir, view, files, pos, pins);
+        } finally {
+            compactionLock.unlock();
         }
-        return lastCheckpointedFileId;
     }
 
+    private static boolean before(KeyDir.EntryMeta meta, Checkpointer.Position pos) {
+        return meta.fileId < pos.fileId || (meta.fileId == pos.fileId && meta.valueOffset < pos.offset);
+    }
+
+    /** The value a KeyDir entry points at, decoded; for snapshots, whose files stay put */
+    byte[] readStored(KeyDir.EntryMeta meta) throws IOException {
+        return decode(meta, readers.read(meta.fileId, meta.valueOffset, meta.valueSize));
+    }
+
+    /** Log position up to which every record is reflected in KeyDir */
+    private Checkpointer.Position logPosition() {
+        for (var it = openWriters.values().iterator(); it.hasNext(); ) {
+            LogWriter w = it.next();
+            if (!w.isClosed()) return new Checkpointer.Position(w.fileId(), w.publishedUpTo(), nextSeq.get());
+            it.remove(); // closed after its last writer published
+        }
+        return new Checkpointer.Position(activeFileId + 1, 0, nextSeq.get());
+    }
 
-    
     private long versionOf(KeyDir.EntryMeta m) {
-        long off = (m.entryStart >= 0 ? m.entryStart : m.valueOffset);
-        return ((long)m.fileId << 32) | (off & 0xffffffffL);
+        return m.seq;
     }
     
-    private Map<String, KeyDir.EntryMeta> scanFileFast(File dataFile) throws IOException {
-        int fileId = parseFileId(dataFile.getName());
+    /** Bytes of a data file scanned by one recovery task */
+    private static final long SCAN_CHUNK = 8L << 20;
+
+    /**
+     * Merge one data file's records into KeyDir: from its hint where the hint covers the file, by
+     * scanning the rest. Records before {@code skip} are already in the checkpoint. The scan of a
+     * large v2 file is split into chunks that start at sync markers and run as tasks of their own.
+     */
+    private void replayFile(File dataFile, int fileId, long skip, ExecutorService pool, Queue<Future<?>> tasks,
+                            LongAccumulator maxSeq, Set<Integer> damaged) throws IOException {
+        int format = Entry.formatOf(dataFile);
         File hint = new File(dataDir, "data" + fileId + ".hint");
+        long dataLength = dataFile.length();
+        long covered = hint.exists() ? loadHint(hint, format, dataLength, maxSeq) : 0;
 
-        Map<String, KeyDir.EntryMeta> local = new HashMap<>();
-        if (hint.exists()) {
-            try (DataInputStream in = new DataInputStream(new FileInputStream(hint))) {
-                while (in.available() > 0) {
-                    int keyLen = in.readInt();
-                    int valueSize = in.readInt();
-                    int fId = in.readInt();
-                    long valueOffset = in.readLong();
-                    byte flag = in.readByte();
-                    byte[] keyBytes = new byte[keyLen];
-                    in.readFully(keyBytes);
-                    String key = new String(keyBytes, "UTF-8");
-
-                    // entryStart unknown in hints → use valueOffset as tie-breaker
-                    KeyDir.EntryMeta m = new KeyDir.EntryMeta(fId, valueOffset, valueSize, flag, valueOffset);
-                    local.merge(key, m, (a,b)-> mergeLatest(a,b));
-                }
+        // Fallback: scan the part of the .dat the hint doesn't cover (all of it without a hint)
+        long from = Math.max(covered, skip);
+        if (from >= dataLength) return;
+        long stop = Long.MAX_VALUE;
+        if (format == Entry.FORMAT_V2 && dataLength - from > SCAN_CHUNK) {
+            stop = from + SCAN_CHUNK;
+            for (long chunk = stop; chunk < dataLength; chunk += SCAN_CHUNK) {
+                long chunkStart = chunk;
+                tasks.add(pool.submit(() -> {
+                    scanData(dataFile, fileId, chunkStart, chunkStart + SCAN_CHUNK, true, maxSeq, damaged);
+                    return null;
+                }));
             }
-            return local;
         }
+        scanData(dataFile, fileId, from, stop, false, maxSeq, damaged);
+    }
+
+    /**
+     * Merge a hint file into KeyDir, parsing it from a read-only mapping. Returns how far the data
+     * file is covered by hint records without gaps; the caller scans the .dat from there. A torn
+     * trailing record is dropped and, in write mode, truncated away.
+     */
+    private long loadHint(File hint, int format, long dataLength, LongAccumulator maxSeq) throws IOException {
+        long covered = format == Entry.FORMAT_V1 ? 0 : Math.min(dataLength, Entry.FILE_HEADER_SIZE);
+        LogFollower.HintCursor cursor = new LogFollower.HintCursor(covered);
+        loadHint(hint, format, dataLength, maxSeq, cursor, false);
+        if (!writable) startupHints.put(hint.getName(), cursor);
+        return cursor.covered;
+    }
+
+    /**
+     * Merge the hint records after {@code cursor} into KeyDir and move the cursor past them. A
+     * {@code tailing} read stops at a torn record or one whose data isn't there yet, to pick it
+     * up on the next call; recovery skips over those instead.
+     */
+    private void loadHint(File hint, int format, long dataLength, LongAccumulator maxSeq,
+                          LogFollower.HintCursor cursor, boolean tailing) throws IOException {
+        ByteBuffer buf;
+        long base = cursor.hintPos;
+        try (FileChannel ch = FileChannel.open(hint.toPath(), java.nio.file.StandardOpenOption.READ)) {
+            if (ch.size() - base > Integer.MAX_VALUE) return; // too big to map: scan the data file instead
+            if (ch.size() <= base) return;
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, base, ch.size() - base);
+        }
+        boolean v1 = format == Entry.FORMAT_V1;
+        int recordHeader = v1 ? HintWriter.V1_RECORD_HEADER_SIZE : HintWriter.RECORD_HEADER_SIZE;
+        int header = Entry.headerSize(format);
+        int length = buf.limit();
+        int pos = 0;
+        long covered = cursor.covered;
+        TreeMap<Long, Long> ahead = cursor.ahead; // records past a gap (start -> end)
+        byte[] keyBytes = new byte[256];
 
-        // Fallback: scan .dat
-        try (RandomAccessFile raf = new RandomAccessFile(dataFile, "r")) {
-            long len = raf.length();
-            while (raf.getFilePointer() < len) {
-                long start = raf.getFilePointer();
-                if (len - start < 4 + 4 + 1) break;
+        while (length - pos >= recordHeader) {
+            int keyLen = buf.getInt(pos);
+            int valueSize = buf.getInt(pos + 4);
+            int fId = buf.getInt(pos + 8);
+            long valueOffset = buf.getLong(pos + 12);
+            byte flag = buf.get(pos + 20);
+            int expiry = v1 ? 0 : Entry.valuePrefix(flag); // expiresAt follows the seq
+            if (keyLen < 0 || valueSize < 0 || keyLen > length - pos - recordHeader - expiry) {
+                break; // torn tail
+            }
+            if (keyBytes.length < keyLen) keyBytes = new byte[Math.max(keyLen, keyBytes.length * 2)];
+            buf.get(pos + recordHeader + expiry, keyBytes, 0, keyLen);
 
-                int keyLen = raf.readInt();
-                int valLen = raf.readInt();
-                byte flag = raf.readByte();
-                if (keyLen < 0 || valLen < 0) break;
+            long start, end;
+            if (flag == Entry.FLAG_BATCH) {
+                // batch header: covers just the frame header, its entries have their own hints
+                start = valueOffset;
+                end = start + header;
+                if (valueOffset + header + valueSize > dataLength) {
+                    if (tailing) break;
+                    pos += recordHeader + keyLen;
+                    continue;
+                }
+            } else if (flag == Entry.FLAG_SYNC) {
+                start = valueOffset;
+                end = start + Entry.SYNC_RECORD_SIZE;
+            } else if (flag == Entry.FLAG_TOMBSTONE) {
+                start = valueOffset;
+                end = start + header + keyLen;
+            } else {
+                start = valueOffset - header - keyLen - expiry;
+                end = valueOffset + valueSize;
+            }
+            if (end > dataLength && tailing) break; // data not visible yet
+            long seq = v1 ? Entry.legacySeq(fId, Math.max(start, 0)) : buf.getLong(pos + 21);
+            long expiresAt = expiry == 0 ? 0 : buf.getLong(pos + recordHeader);
+            pos += recordHeader + expiry + keyLen;
+            if (end > dataLength) continue; // hint outran its data (crash before data hit the disk)
 
-                long afterHeader = raf.getFilePointer();
-                long need = (long) keyLen + (long) valLen;
-                if (afterHeader + need > len) break;
+            if (Entry.type(flag) == Entry.FLAG_PUT || flag == Entry.FLAG_TOMBSTONE) {
+                String key = new String(keyBytes, 0, keyLen, StandardCharsets.UTF_8);
+                KeyDir.EntryMeta meta = new KeyDir.EntryMeta(fId, valueOffset, valueSize, flag, seq, expiresAt);
+                if (tailing) {
+                    applyFollowed(key, meta);
+                } else {
+                    keyDir.merge(key, meta, this::mergeLatest);
+                }
+                maxSeq.accumulate(seq);
+            }
 
-                byte[] keyBytes = new byte[keyLen];
-                raf.readFully(keyBytes);
-                String key = new String(keyBytes, "UTF-8");
+            // Concurrent writers may add hints out of data order: track contiguous coverage
+            if (start == covered) {
+                covered = end;
+                for (var next = ahead.firstEntry(); next != null && next.getKey() <= covered; next = ahead.firstEntry()) {
+                    covered = Math.max(covered, ahead.pollFirstEntry().getValue());
+                }
+            } else if (start > covered) {
+                ahead.put(start, end);
+            }
+        }
+        cursor.covered = covered;
+        cursor.hintPos = base + pos;
 
-                long valuePos = raf.getFilePointer();
-                raf.seek(valuePos + valLen);
+        if (pos < length && writable) {
+            try (RandomAccessFile raf = new RandomAccessFile(hint, "rw")) {
+                raf.setLength(base + pos);
+            }
+        }
+    }
 
+    /**
+     * Scan the records of a .dat file from {@code from} (a record boundary, or with {@code seek}
+     * the first sync marker after it) up to the first sync marker at or after {@code stop}.
+     */
+    private void scanData(File dataFile, int fileId, long from, long stop, boolean seek,
+                          LongAccumulator maxSeq, Set<Integer> damaged) throws IOException {
+        try (LogScanner in = new LogScanner(dataFile, fileId, from, stop)) {
+            if (seek && (!in.seekSync(from) || in.position() >= stop)) return; // someone else's records
+            while (in.next()) {
                 KeyDir.EntryMeta m;
-                if (flag == Entry.FLAG_TOMBSTONE) {
-                    m = new KeyDir.EntryMeta(fileId, start, 0, flag, start);
+                if (in.flag() == Entry.FLAG_TOMBSTONE) {
+                    m = new KeyDir.EntryMeta(fileId, in.start(), 0, in.flag(), in.seq());
                 } else {
-                    m = new KeyDir.EntryMeta(fileId, valuePos, valLen, flag, start);
+                    m = new KeyDir.EntryMeta(fileId, in.valueOffset(), in.valueLength(), in.flag(), in.seq(), in.expiresAt());
                 }
-                local.merge(key, m, (a,b)-> mergeLatest(a,b));
+                keyDir.merge(in.key(), m, this::mergeLatest);
+                maxSeq.accumulate(in.seq());
             }
+            if (in.damaged()) damaged.add(fileId);
         }
-        return local;
     }
-    
+
+    /**
+     * Live keys with {@code from <= key < to} in order ({@code null} bounds are open), streamed
+     * lazily. Only {@link LiteCaskOptions#orderedKeyDir} avoids sorting a snapshot of the index.
+     */
+    public java.util.Iterator<String> scan(String from, String to) {
+        return keysOf(new ScanIterator(keyDir.range(from, to), null, null));
+    }
+
+    /** Live keys starting with {@code prefix}, in order, streamed lazily */
+    public java.util.Iterator<String> prefix(String prefix) {
+        return keysOf(new ScanIterator(keyDir.range(prefix, null), prefix, null));
+    }
+
+    /** Like {@link #scan} but with values, read in file-offset order a batch at a time */
+    public java.util.Iterator<Map.Entry<String, byte[]>> scanWithValues(String from, String to) {
+        return new ScanIterator(keyDir.range(from, to), null, this::readValue);
+    }
+
+    /** Like {@link #prefix} but with values, read in file-offset order a batch at a time */
+    public java.util.Iterator<Map.Entry<String, byte[]>> prefixWithValues(String prefix) {
+        return new ScanIterator(keyDir.range(prefix, null), prefix, this::readValue);
+    }
+
+    private static java.util.Iterator<String> keysOf(java.util.Iterator<Map.Entry<String, byte[]>> entries) {
+        return new java.util.Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return entries.next().getKey();
+            }
+        };
+    }
+
+    /** Value at {@code meta} as seen by a scan; falls back to a fresh lookup if the file was merged away */
+    private byte[] readValue(String key, KeyDir.EntryMeta meta) throws IOException {
+        if (cache != null) {
+            byte[] cached = cache.get(key, meta);
+            if (cached != null) return cached.clone();
+        }
+        try {
+            return decode(meta, readers.read(meta.fileId, meta.valueOffset, meta.valueSize));
+        } catch (ClosedChannelException | FileNotFoundException e) {
+            return get(key);
+        }
+    }
+
+    /** The value of a put as the caller wrote it: decompressed if it is stored compressed */
+    private byte[] decode(KeyDir.EntryMeta meta, byte[] stored) throws IOException {
+        int codecId = Entry.codec(meta.flag);
+        if (codecId == 0) return stored;
+        ValueCodec codec = codecs.get(codecId);
+        if (codec == null) throw new IOException("value stored with unknown codec " + codecId + ", pass it to LiteCaskOptions.compression()");
+        return codec.decompress(stored);
+    }
+
     public java.util.Set<String> keys() {
         java.util.HashSet<String> s = new java.util.HashSet<>();
         for (var e : keyDir.entrySet()) s.add(e.getKey());
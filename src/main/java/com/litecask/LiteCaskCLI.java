@@ -3,12 +3,13 @@ package com.litecask;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.Arrays;
+import java.util.Iterator;
 
-public class LiteCaskCli {
+public class LiteCaskCLI {
     public static void main(String[] args) throws Exception {
         String dir = (args.length > 0) ? args[0] : "data";
-        LiteCask db = LiteCask.open(dir, true);
-        System.out.println("LiteCask CLI. Dir=" + dir + "  Commands: put k v | get k | del k | list | merge | exit");
+        LiteCask db = LiteCask.open(dir, true, LiteCaskOptions.defaults().orderedKeyDir(true));
+        System.out.println("LiteCask CLI. Dir=" + dir + "  Commands: put k v | get k | del k | list [prefix] | scan from [to] | merge | exit");
 
         BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
         for (;;) {
@@ -43,7 +44,16 @@ public class LiteCaskCli {
                         System.out.println("OK");
                         break;
                     case "list":
-                        for (String k : db.keys()) System.out.println(k);
+                        // streamed in key order, never materialized
+                        for (Iterator<String> it = db.prefix(parts.length > 1 ? parts[1] : ""); it.hasNext(); ) {
+                            System.out.println(it.next());
+                        }
+                        break;
+                    case "scan":
+                        if (parts.length < 2 || parts.length > 3) { System.out.println("Usage: scan <from> [to]"); break; }
+                        for (Iterator<String> it = db.scan(parts[1], parts.length == 3 ? parts[2] : null); it.hasNext(); ) {
+                            System.out.println(it.next());
+                        }
                         break;
                     case "merge":
                         db.merge();
@@ -0,0 +1,38 @@
+package com.litecask;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/** The store behind the REST API, opened from {@code litecask.dir} and closed with the context */
+@Configuration
+public class LiteCaskConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public LiteCask liteCask(@Value("${litecask.dir:data}") String dir) throws IOException {
+        return LiteCask.open(dir, true, LiteCaskOptions.defaults().orderedKeyDir(true));
+    }
+
+    /**
+     * Redis-protocol endpoint next to the REST API, only when {@code litecask.resp.port} is set
+     * (0 picks a free port). Listens on {@code litecask.resp.bind}, the loopback address by default.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty("litecask.resp.port")
+    public RespServer respServer(LiteCask db, @Value("${litecask.resp.port}") int port,
+                                 @Value("${litecask.resp.bind:127.0.0.1}") String bind,
+                                 @Value("${litecask.resp.threads:0}") int threads) throws IOException {
+        int loops = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return RespServer.start(db, new InetSocketAddress(bind, port), loops);
+    }
+
+    @Bean
+    public MeterBinder liteCaskMetrics(LiteCask db) {
+        return new LiteCaskMeterBinder(db);
+    }
+}
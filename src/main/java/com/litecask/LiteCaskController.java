@@ -1,30 +1,153 @@
 package com.litecask;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/kv")
 public class LiteCaskController {
 
+    /** Keys looked up per multiGet while streaming an _mget response */
+    static final int MGET_CHUNK = 256;
+    static final int MGET_MAX_KEYS = 10_000;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
     private final LiteCask db;
 
-    public LiteCaskController() throws Exception {
-        this.db = LiteCask.open("data", true);
+    public LiteCaskController(LiteCask db) {
+        this.db = db;
+    }
+
+    /**
+     * Keys in order, one per line, streamed as they are walked: {@code ?prefix=user:42:} or
+     * {@code ?from=a&to=b} (to is exclusive), optionally capped with {@code limit}.
+     */
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> scan(@RequestParam(required = false) String prefix,
+                                                      @RequestParam(required = false) String from,
+                                                      @RequestParam(required = false) String to,
+                                                      @RequestParam(defaultValue = "-1") long limit) {
+        Iterator<String> keys = prefix != null ? db.prefix(prefix) : db.scan(from, to);
+        StreamingResponseBody body = out -> {
+            Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            for (long n = 0; keys.hasNext() && (limit < 0 || n < limit); n++) {
+                w.write(keys.next());
+                w.write('\n');
+            }
+            w.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(new MediaType("text", "plain", StandardCharsets.UTF_8))
+                .body(body);
+    }
+
+    /** Closes a streamed value's ref once its async request is over, however it ended */
+    static final class ClosingInterceptor implements CallableProcessingInterceptor {
+        final ValueRef ref;
+
+        ClosingInterceptor(ValueRef ref) {
+            this.ref = ref;
+        }
+
+        @Override
+        public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) throws Exception {
+            ref.close();
+        }
     }
 
+    /**
+     * Streams the raw value from its data file; heap use doesn't grow with the value size. The ref
+     * is also closed when the async request completes, times out or fails, in case the body never
+     * runs (a client that went away or a timeout before the body was written).
+     */
     @GetMapping("/{key}")
-    public ResponseEntity<String> get(@PathVariable String key) throws Exception {
-        byte[] val = db.get(key);
-        if (val == null) {
+    public ResponseEntity<StreamingResponseBody> get(@PathVariable String key, HttpServletRequest request) throws Exception {
+        ValueRef ref = db.lookup(key);
+        if (ref == null) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(new String(val));
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(ValueRef.class.getName(), new ClosingInterceptor(ref));
+        StreamingResponseBody body = out -> {
+            try (ref) {
+                ref.transferTo(Channels.newChannel(out));
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(ref.size())
+                .body(body);
+    }
+
+    /**
+     * Many values in one round trip: the body is a JSON array of keys, the response a JSON object
+     * of key to base64 value, in request order, without the absent keys. Keys are read a chunk at
+     * a time with {@link LiteCask#multiGet}, and each chunk is written out before the next is read.
+     */
+    @PostMapping(path = "/_mget", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> multiGet(@RequestBody List<String> keys) {
+        if (keys.size() > MGET_MAX_KEYS || keys.contains(null)) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<String> unique = List.copyOf(new LinkedHashSet<>(keys)); // a key may only appear once in the object
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = JSON.createGenerator(out, JsonEncoding.UTF8)) {
+                json.writeStartObject();
+                for (int i = 0; i < unique.size(); i += MGET_CHUNK) {
+                    Map<String, byte[]> values = db.multiGet(unique.subList(i, Math.min(unique.size(), i + MGET_CHUNK)));
+                    for (Map.Entry<String, byte[]> e : values.entrySet()) {
+                        json.writeBinaryField(e.getKey(), e.getValue());
+                    }
+                    json.flush();
+                }
+                json.writeEndObject();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
     }
 
+    /**
+     * Store the body as the value; {@code ?ttl=seconds} makes it expire. A body with a
+     * Content-Length is streamed into the store, so uploads of any size run in constant memory.
+     */
     @PutMapping("/{key}")
-    public ResponseEntity<Void> put(@PathVariable String key, @RequestBody String body) throws Exception {
-        db.put(key, body.getBytes());
+    public ResponseEntity<Void> put(@PathVariable String key, HttpServletRequest request,
+                                    @RequestParam(required = false) Long ttl) throws Exception {
+        if (ttl != null && ttl <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        Duration expiry = ttl == null ? null : Duration.ofSeconds(ttl);
+        long length = request.getContentLengthLong();
+        if (length >= 0) {
+            db.put(key, Channels.newChannel(request.getInputStream()), length, expiry);
+        } else if (expiry == null) {
+            db.put(key, request.getInputStream().readAllBytes()); // chunked: size unknown up front
+        } else {
+            db.put(key, request.getInputStream().readAllBytes(), expiry);
+        }
         return ResponseEntity.noContent().build();
     }
 
@@ -0,0 +1,67 @@
+package com.litecask;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes a LiteCask instance's metrics to Micrometer (and so to {@code /actuator/metrics}).
+ *
+ * Nothing here runs on the engine's hot paths: every meter is a function of the engine's own
+ * histograms and counters, evaluated when the registry is read.
+ */
+class LiteCaskMeterBinder implements MeterBinder {
+
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+
+    private final LiteCask db;
+
+    LiteCaskMeterBinder(LiteCask db) {
+        this.db = db;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        EngineMetrics m = db.metrics();
+        timer(registry, "litecask.put", "Latency of put()", m.puts);
+        timer(registry, "litecask.get", "Latency of get()", m.gets);
+        timer(registry, "litecask.fsync", "Duration of data file fsyncs", m.fsyncs);
+        timer(registry, "litecask.merge", "Duration of merges and compaction rounds", m.merges);
+
+        FunctionCounter.builder("litecask.rotations", m.rotations, a -> a.sum())
+                .description("Active data file rotations").register(registry);
+        FunctionCounter.builder("litecask.expired", m.expired, a -> a.sum())
+                .description("Expired keys removed from KeyDir").register(registry);
+        FunctionCounter.builder("litecask.merge.bytes.read", m.mergeBytesIn, a -> a.sum())
+                .baseUnit("bytes").register(registry);
+        FunctionCounter.builder("litecask.merge.bytes.written", m.mergeBytesOut, a -> a.sum())
+                .baseUnit("bytes").register(registry);
+
+        FileStats files = db.fileStats();
+        Gauge.builder("litecask.keydir.size", db, LiteCask::keyDirSize)
+                .description("KeyDir entries, tombstones included").register(registry);
+        Gauge.builder("litecask.data.files", files, FileStats::fileCount).register(registry);
+        Gauge.builder("litecask.data.bytes", files, FileStats::totalBytes).baseUnit("bytes").register(registry);
+        Gauge.builder("litecask.data.dead.bytes", files, FileStats::deadBytes).baseUnit("bytes").register(registry);
+        Gauge.builder("litecask.data.dead.ratio", files, f -> f.totalBytes() == 0 ? 0 : (double) f.deadBytes() / f.totalBytes())
+                .register(registry);
+        Gauge.builder("litecask.open.files", db, LiteCask::openFiles).register(registry);
+        Gauge.builder("litecask.staleness", db, d -> d.stalenessMillis() / 1e3).baseUnit("seconds")
+                .description("How far a follower's reads may lag the writer; 0 on the writer").register(registry);
+    }
+
+    private static void timer(MeterRegistry registry, String name, String description, LatencyHistogram histogram) {
+        FunctionTimer.builder(name, histogram, h -> h.snapshot().count(), h -> h.snapshot().totalNanos(), TimeUnit.NANOSECONDS)
+                .description(description).register(registry);
+        Gauge.builder(name + ".max", histogram, h -> h.snapshot().maxNanos() / 1e9)
+                .baseUnit("seconds").register(registry);
+        for (double p : PERCENTILES) {
+            Gauge.builder(name + ".percentile", histogram, h -> h.snapshot().percentile(p) / 1e9)
+                    .tag("phi", String.valueOf(p / 100)).baseUnit("seconds").register(registry);
+        }
+    }
+}
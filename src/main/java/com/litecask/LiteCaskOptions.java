@@ -0,0 +1,190 @@
+package com.litecask;
+
+/**
+ * Tunables for a LiteCask instance. Setters return this so options can be chained:
+ * <pre>
+ *   LiteCask.open(dir, true, LiteCaskOptions.defaults().syncPolicy(SyncPolicy.everyMillis(10)));
+ * </pre>
+ */
+public class LiteCaskOptions {
+
+    private SyncPolicy syncPolicy = SyncPolicy.always();
+    private long maxFileSize = 64 * 1024 * 1024; // 64 MB
+    private boolean mmapReads = false;
+    private boolean offHeapKeyDir = false;
+    private boolean orderedKeyDir = false;
+    private double compactionGarbageRatio = 0.5;
+    private long compactionIntervalMillis = 0; // background compaction off
+    private long valueCacheBytes = 0;          // value cache off
+    private long checkpointIntervalMillis = 0; // checkpoint on close() only
+    private ValueCodec compressionCodec = null;  // values stored raw
+    private int compressionMinSize = 0;
+    private boolean latencyMetrics = true;
+    private long followIntervalMillis = 100;
+    private int recoveryThreads = 0;           // one per core
+
+    public static LiteCaskOptions defaults() {
+        return new LiteCaskOptions();
+    }
+
+    /** When data files are fsync'ed (default: before every write returns) */
+    public LiteCaskOptions syncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+        return this;
+    }
+
+    /** Size after which the active data file is rotated */
+    public LiteCaskOptions maxFileSize(long maxFileSize) {
+        if (maxFileSize <= 0) throw new IllegalArgumentException("maxFileSize must be > 0");
+        this.maxFileSize = maxFileSize;
+        return this;
+    }
+
+    /** Serve reads of rotated (immutable) data files from read-only memory mappings */
+    public LiteCaskOptions mmapReads(boolean mmapReads) {
+        this.mmapReads = mmapReads;
+        return this;
+    }
+
+    /** Keep the KeyDir in direct memory ({@link OffHeapKeyDir}) instead of a heap hash map */
+    public LiteCaskOptions offHeapKeyDir(boolean offHeapKeyDir) {
+        this.offHeapKeyDir = offHeapKeyDir;
+        return this;
+    }
+
+    /** Keep the KeyDir sorted ({@link OrderedKeyDir}) so scan/prefix stream without sorting */
+    public LiteCaskOptions orderedKeyDir(boolean orderedKeyDir) {
+        this.orderedKeyDir = orderedKeyDir;
+        return this;
+    }
+
+    /**
+     * Compact rotated data files in the background: every {@code intervalMillis}, files whose
+     * dead bytes make up at least {@code garbageRatio} of their size are rewritten.
+     */
+    public LiteCaskOptions compaction(double garbageRatio, long intervalMillis) {
+        if (garbageRatio <= 0 || garbageRatio > 1) throw new IllegalArgumentException("garbageRatio must be in (0, 1]");
+        if (intervalMillis <= 0) throw new IllegalArgumentException("intervalMillis must be > 0");
+        this.compactionGarbageRatio = garbageRatio;
+        this.compactionIntervalMillis = intervalMillis;
+        return this;
+    }
+
+    /** Keep up to this many bytes of hot values in memory ({@link ValueCache}); 0 disables the cache */
+    public LiteCaskOptions valueCacheBytes(long valueCacheBytes) {
+        if (valueCacheBytes < 0) throw new IllegalArgumentException("valueCacheBytes must be >= 0");
+        this.valueCacheBytes = valueCacheBytes;
+        return this;
+    }
+
+    /**
+     * Checkpoint KeyDir in the background every {@code intervalMillis} (incrementally where possible),
+     * so a restart after a crash only replays the log written since.
+     */
+    public LiteCaskOptions checkpointInterval(long intervalMillis) {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("intervalMillis must be > 0");
+        this.checkpointIntervalMillis = intervalMillis;
+        return this;
+    }
+
+    /**
+     * Compress values of at least {@code minValueSize} bytes with {@code codec} when that saves
+     * space ({@link ValueCodec#LZ}, {@link ValueCodec#DEFLATE} or a custom codec with an id of its
+     * own). Values written compressed stay readable after compression is turned off.
+     */
+    public LiteCaskOptions compression(ValueCodec codec, int minValueSize) {
+        if (codec != null && (codec.id() < 1 || codec.id() > 15)) throw new IllegalArgumentException("codec id must be in [1, 15]");
+        // a custom codec on a built-in id would have its records read back by the built-in
+        ValueCodec builtIn = codec == null ? null
+                : codec.id() == ValueCodec.LZ.id() ? ValueCodec.LZ
+                : codec.id() == ValueCodec.DEFLATE.id() ? ValueCodec.DEFLATE : codec;
+        if (builtIn != codec) throw new IllegalArgumentException("codec id " + codec.id() + " is taken by " + builtIn.name());
+        if (minValueSize < 0) throw new IllegalArgumentException("minValueSize must be >= 0");
+        this.compressionCodec = codec;
+        this.compressionMinSize = minValueSize;
+        return this;
+    }
+
+    /**
+     * Record put and get latency histograms for {@link LiteCask#stats()} (default on). Off saves two
+     * clock reads per call; counters and fsync/merge timings are kept either way.
+     */
+    public LiteCaskOptions latencyMetrics(boolean latencyMetrics) {
+        this.latencyMetrics = latencyMetrics;
+        return this;
+    }
+
+    /**
+     * How often a read-only instance ({@link LiteCask#follow}) looks for records the writer appended;
+     * 0 leaves it to {@link LiteCask#refresh()}
+     */
+    public LiteCaskOptions followInterval(long intervalMillis) {
+        if (intervalMillis < 0) throw new IllegalArgumentException("intervalMillis must be >= 0");
+        this.followIntervalMillis = intervalMillis;
+        return this;
+    }
+
+    /** Threads that rebuild KeyDir on open (default 0: one per available core) */
+    public LiteCaskOptions recoveryThreads(int threads) {
+        if (threads < 0) throw new IllegalArgumentException("threads must be >= 0");
+        this.recoveryThreads = threads;
+        return this;
+    }
+
+    public SyncPolicy syncPolicy() {
+        return syncPolicy;
+    }
+
+    public long maxFileSize() {
+        return maxFileSize;
+    }
+
+    public boolean mmapReads() {
+        return mmapReads;
+    }
+
+    public boolean offHeapKeyDir() {
+        return offHeapKeyDir;
+    }
+
+    public boolean orderedKeyDir() {
+        return orderedKeyDir;
+    }
+
+    public double compactionGarbageRatio() {
+        return compactionGarbageRatio;
+    }
+
+    public long compactionIntervalMillis() {
+        return compactionIntervalMillis;
+    }
+
+    public long checkpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    public long valueCacheBytes() {
+        return valueCacheBytes;
+    }
+
+    /** Codec new values are compressed with, or null if compression is off */
+    public ValueCodec compressionCodec() {
+        return compressionCodec;
+    }
+
+    public int compressionMinSize() {
+        return compressionMinSize;
+    }
+
+    public boolean latencyMetrics() {
+        return latencyMetrics;
+    }
+
+    public long followIntervalMillis() {
+        return followIntervalMillis;
+    }
+
+    public int recoveryThreads() {
+        return recoveryThreads;
+    }
+}
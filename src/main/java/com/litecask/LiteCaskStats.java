@@ -0,0 +1,64 @@
+package com.litecask;
+
+/**
+ * A point-in-time view of a LiteCask instance's metrics, from {@link LiteCask#stats()}.
+ *
+ * Latencies are in nanoseconds. Put and get histograms stay empty when
+ * {@link LiteCaskOptions#latencyMetrics(boolean)} is off.
+ */
+public final class LiteCaskStats {
+
+    public final LatencyHistogram.Snapshot puts;
+    public final LatencyHistogram.Snapshot gets;
+    public final LatencyHistogram.Snapshot fsyncs;
+    public final LatencyHistogram.Snapshot merges;
+
+    /** Times the active file filled up and writes moved to a new one */
+    public final long rotations;
+    /** Bytes of data files read by merges and compactions, and written back as live records */
+    public final long mergeBytesIn;
+    public final long mergeBytesOut;
+    /** Expired keys removed from KeyDir by the sweeper, recovery or merges */
+    public final long expired;
+
+    /** KeyDir entries, tombstones included */
+    public final long keyDirSize;
+    public final int dataFiles;
+    public final long dataBytes;
+    /** Bytes of records that are overwritten, deleted or otherwise no longer referenced */
+    public final long deadBytes;
+    /** Data files currently held open for reading or writing */
+    public final int openFiles;
+    /** How far reads may lag the writer, for a follower ({@link LiteCask#follow}); 0 otherwise */
+    public final long stalenessMillis;
+
+    LiteCaskStats(EngineMetrics m, long keyDirSize, int dataFiles, long dataBytes, long deadBytes, int openFiles,
+                  long stalenessMillis) {
+        this.puts = m.puts.snapshot();
+        this.gets = m.gets.snapshot();
+        this.fsyncs = m.fsyncs.snapshot();
+        this.merges = m.merges.snapshot();
+        this.rotations = m.rotations.sum();
+        this.mergeBytesIn = m.mergeBytesIn.sum();
+        this.mergeBytesOut = m.mergeBytesOut.sum();
+        this.expired = m.expired.sum();
+        this.keyDirSize = keyDirSize;
+        this.dataFiles = dataFiles;
+        this.dataBytes = dataBytes;
+        this.deadBytes = deadBytes;
+        this.openFiles = openFiles;
+        this.stalenessMillis = stalenessMillis;
+    }
+
+    /** Dead fraction of all data file bytes */
+    public double deadRatio() {
+        return dataBytes == 0 ? 0 : Math.min(1.0, (double) deadBytes / dataBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "puts: " + puts + "\ngets: " + gets + "\nfsyncs: " + fsyncs + "\nmerges: " + merges
+                + String.format("%nrotations=%d expired=%d keyDirSize=%d dataFiles=%d dataBytes=%d deadBytes=%d (%.1f%%) openFiles=%d stalenessMillis=%d",
+                        rotations, expired, keyDirSize, dataFiles, dataBytes, deadBytes, 100 * deadRatio(), openFiles, stalenessMillis);
+    }
+}
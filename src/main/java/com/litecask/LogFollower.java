@@ -0,0 +1,200 @@
+package com.litecask;
+
+import java.io.*;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LogFollower keeps a KeyDir up to date with data files that another process is writing:
+ * the leader's own directory, or a replica of it filled by {@link LogReceiver}.
+ *
+ * <ul>
+ *   <li>Every {@link #poll()} scans what was appended to each data file since the last one. The
+ *       leader appends concurrently and a record may not be complete yet, so the scan of a file
+ *       stops at the first incomplete or corrupt record and resumes there next time. Only once a
+ *       newer file exists and the file has not changed for {@link #SETTLE_MILLIS} is real damage
+ *       skipped the way recovery does.</li>
+ *   <li>Before that, the hint records appended to the file's hint file since the last poll are
+ *       applied, and the scan starts where the hints cover the data file without gaps. The leader
+ *       writes hints at sync points, so with frequent syncs most records come from the small
+ *       hint file, and a file seen for the first time (a merge output, or a rotation between
+ *       polls) is loaded without reading its values.</li>
+ *   <li>When a merge deletes its inputs, entries that still point into them are records the
+ *       merge dropped (expired values), so they are removed. The outputs are complete before the
+ *       inputs go, and new files are read before deletions are looked at, so a relocated key
+ *       already points at its new file by then.</li>
+ * </ul>
+ *
+ * Latest-wins by sequence number makes reading a record twice harmless.
+ */
+class LogFollower {
+
+    /** How long a data file must sit unchanged before a bad record in it is taken as damage */
+    static final long SETTLE_MILLIS = 1000;
+
+    /**
+     * Applies the hint records after {@code cursor} whose data is within {@code dataLength}, and
+     * moves the cursor past them
+     */
+    interface HintLoader {
+        void load(File hint, File dataFile, long dataLength, HintCursor cursor) throws IOException;
+    }
+
+    /** How far a hint file was read, and how far its records cover the data file */
+    static final class HintCursor {
+        long hintPos;
+        /** The data file is covered by hint records without gaps up to here */
+        long covered;
+        /** Records past a gap in the coverage (start -> end) */
+        final TreeMap<Long, Long> ahead = new TreeMap<>();
+
+        HintCursor(long covered) {
+            this.covered = covered;
+        }
+    }
+
+    /** Applies one record found by the scan */
+    interface Sink {
+        void apply(String key, KeyDir.EntryMeta meta);
+    }
+
+    private final File dataDir;
+    private final KeyDir keyDir;
+    private final HintLoader hints;
+    private final Sink sink;
+    private final ReadChannelPool readers;
+    /** fileId -> offset up to which its records were applied */
+    private final TreeMap<Integer, Long> applied = new TreeMap<>();
+    private final Map<Integer, HintCursor> cursors = new HashMap<>();
+    private volatile long caughtUpAt;
+    private volatile int newestFileId;
+
+    LogFollower(File dataDir, KeyDir keyDir, ReadChannelPool readers, HintLoader hints, Sink sink) {
+        this.dataDir = dataDir;
+        this.keyDir = keyDir;
+        this.readers = readers;
+        this.hints = hints;
+        this.sink = sink;
+    }
+
+    /**
+     * Start after a recovery that read everything in the directory up to {@code lengths}, and the
+     * hint files as far as {@code hintCursors} (by hint file name). The newest file is scanned
+     * again from where its hints end: recovery skipped records of it that were still being written.
+     */
+    synchronized void startFrom(Map<Integer, Long> lengths, Map<String, HintCursor> hintCursors, long recoveredAt) {
+        applied.putAll(lengths);
+        for (int fileId : lengths.keySet()) {
+            HintCursor cursor = hintCursors.get("data" + fileId + ".hint");
+            if (cursor != null) cursors.put(fileId, cursor);
+        }
+        if (!applied.isEmpty()) {
+            HintCursor newest = cursors.get(applied.lastKey());
+            applied.put(applied.lastKey(), newest == null ? 0L : newest.covered);
+        }
+        newestFileId = applied.isEmpty() ? 0 : applied.lastKey();
+        readers.setActiveFileId(newestFileId);
+        caughtUpAt = recoveredAt;
+    }
+
+    /** Lengths of the data files in {@code dir} right now, by file id */
+    static TreeMap<Integer, Long> lengths(File dir) {
+        TreeMap<Integer, Long> lengths = new TreeMap<>();
+        for (File f : dataFiles(dir).values()) lengths.put(fileIdOf(f), f.length());
+        return lengths;
+    }
+
+    /** Apply everything appended since the last poll; true if every file was read to its end */
+    synchronized boolean poll() throws IOException {
+        long startedAt = System.currentTimeMillis();
+        TreeMap<Integer, File> files = dataFiles(dataDir);
+        if (!files.isEmpty() && files.lastKey() != newestFileId) {
+            newestFileId = files.lastKey();
+            readers.setActiveFileId(newestFileId); // the newest file grows: read it through a channel
+        }
+
+        boolean caughtUp = true;
+        for (var e : files.entrySet()) {
+            int fileId = e.getKey();
+            File file = e.getValue();
+            try {
+                caughtUp &= follow(fileId, file, fileId < newestFileId);
+            } catch (FileNotFoundException | NoSuchFileException ex) {
+                // merged away since the listing; dropped below on the next poll
+            }
+        }
+
+        List<Integer> gone = new ArrayList<>();
+        for (int fileId : applied.keySet()) {
+            if (!files.containsKey(fileId)) gone.add(fileId);
+        }
+        for (int fileId : gone) {
+            applied.remove(fileId);
+            cursors.remove(fileId);
+            readers.invalidate(fileId);
+            for (var e : keyDir.entrySet()) {
+                if (e.getValue().fileId == fileId) keyDir.remove(e.getKey(), e.getValue());
+            }
+        }
+        if (caughtUp) caughtUpAt = startedAt;
+        return caughtUp;
+    }
+
+    /** Milliseconds since the start of the last poll that read every file to its end */
+    long stalenessMillis() {
+        return caughtUpAt == 0 ? Long.MAX_VALUE : Math.max(0, System.currentTimeMillis() - caughtUpAt);
+    }
+
+    private boolean follow(int fileId, File file, boolean rotated) throws IOException {
+        long length = file.length();
+        Long from = applied.get(fileId);
+        HintCursor cursor = cursors.get(fileId);
+        if (from == null) {
+            from = 0L;
+            cursor = new HintCursor(Entry.formatOf(file) == Entry.FORMAT_V1 ? 0 : Math.min(length, Entry.FILE_HEADER_SIZE));
+            cursors.put(fileId, cursor);
+        }
+        if (cursor != null && from < length) {
+            File hint = new File(dataDir, "data" + fileId + ".hint");
+            long hintLength = hint.length();
+            cursor.hintPos = Math.min(cursor.hintPos, hintLength); // a restarted leader cut a torn tail off
+            if (hintLength > cursor.hintPos) hints.load(hint, file, length, cursor);
+            from = Math.max(from, cursor.covered);
+            applied.put(fileId, from);
+        }
+        if (from >= length) return true;
+        if (!rotated && length < Entry.FILE_HEADER_SIZE) return false; // header not written yet
+
+        boolean settled = rotated && System.currentTimeMillis() - file.lastModified() >= SETTLE_MILLIS;
+        try (LogScanner in = new LogScanner(file, fileId, from)) {
+            if (!settled) in.stopAtDamage();
+            while (in.next()) {
+                KeyDir.EntryMeta meta = in.flag() == Entry.FLAG_TOMBSTONE
+                        ? new KeyDir.EntryMeta(fileId, in.start(), 0, in.flag(), in.seq())
+                        : new KeyDir.EntryMeta(fileId, in.valueOffset(), in.valueLength(), in.flag(), in.seq(), in.expiresAt());
+                sink.apply(in.key(), meta);
+            }
+            long end = in.damaged() && !settled ? in.position() : Math.max(in.position(), length);
+            applied.put(fileId, end);
+            return end >= length;
+        }
+    }
+
+    private static TreeMap<Integer, File> dataFiles(File dir) {
+        TreeMap<Integer, File> files = new TreeMap<>();
+        File[] found = dir.listFiles((d, name) -> name.matches("data\\d+\\.dat"));
+        if (found != null) {
+            for (File f : found) files.put(fileIdOf(f), f);
+        }
+        return files;
+    }
+
+    private static int fileIdOf(File f) {
+        String name = f.getName();
+        return Integer.parseInt(name.substring(4, name.length() - 4));
+    }
+}
@@ -0,0 +1,145 @@
+package com.litecask;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * LogReceiver keeps a local replica of a leader's directory up to date from a {@link LogShipper},
+ * for a follower ({@link LiteCask#follow}) to tail.
+ *
+ * Appends are written in the order they were shipped, so the replica only ever holds a prefix
+ * of each leader file. When the connection drops, the receiver reconnects and tells the shipper
+ * how much of each file it already has.
+ */
+public class LogReceiver implements Closeable {
+
+    private static final long RETRY_MILLIS = 500;
+
+    private final File replicaDir;
+    private final InetSocketAddress leader;
+    private final Thread thread;
+    private final Map<String, RandomAccessFile> open = new HashMap<>();
+    private volatile Socket socket;
+    private volatile long caughtUpAt;
+    private volatile boolean closed;
+
+    private LogReceiver(File replicaDir, InetSocketAddress leader) {
+        this.replicaDir = replicaDir;
+        this.leader = leader;
+        this.thread = new Thread(this::run, "litecask-receiver");
+        this.thread.setDaemon(true);
+    }
+
+    /** Replicate the directory shipped at {@code host:port} into {@code replicaDir} */
+    public static LogReceiver start(String host, int port, String replicaDir) throws IOException {
+        File dir = new File(replicaDir);
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        LogReceiver receiver = new LogReceiver(dir, new InetSocketAddress(host, port));
+        receiver.thread.start();
+        return receiver;
+    }
+
+    /**
+     * Milliseconds since the shipper last reported the replica complete; a follower of the
+     * replica lags the leader by at most this plus its own {@link LiteCask#stalenessMillis()}.
+     */
+    public long stalenessMillis() {
+        return caughtUpAt == 0 ? Long.MAX_VALUE : Math.max(0, System.currentTimeMillis() - caughtUpAt);
+    }
+
+    private void run() {
+        while (!closed) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(leader);
+                s.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                out.writeInt(LogShipper.MAGIC);
+                File[] files = replicaDir.listFiles((d, name) -> name.matches("data\\d+\\.(dat|hint)"));
+                out.writeInt(files == null ? 0 : files.length);
+                if (files != null) {
+                    for (File f : files) {
+                        out.writeUTF(f.getName());
+                        out.writeLong(f.length());
+                    }
+                }
+                out.flush();
+                receive(new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 20)));
+            } catch (IOException e) {
+                // leader unreachable or gone; try again below
+            } finally {
+                closeFiles();
+            }
+            try {
+                if (!closed) Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void receive(DataInputStream in) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        while (!closed) {
+            byte op = in.readByte();
+            if (op == LogShipper.CAUGHT_UP) {
+                caughtUpAt = System.currentTimeMillis();
+            } else if (op == LogShipper.APPEND) {
+                String name = checkedName(in.readUTF());
+                long offset = in.readLong();
+                int length = in.readInt();
+                RandomAccessFile raf = open.get(name);
+                if (raf == null) {
+                    raf = new RandomAccessFile(new File(replicaDir, name), "rw");
+                    open.put(name, raf);
+                }
+                raf.seek(offset);
+                for (int left = length; left > 0; ) {
+                    int n = in.read(buffer, 0, Math.min(buffer.length, left));
+                    if (n < 0) throw new EOFException();
+                    raf.write(buffer, 0, n);
+                    left -= n;
+                }
+            } else if (op == LogShipper.DELETE) {
+                String name = checkedName(in.readUTF());
+                RandomAccessFile raf = open.remove(name);
+                if (raf != null) raf.close();
+                new File(replicaDir, name).delete();
+            } else {
+                throw new IOException("Unknown replication frame " + op);
+            }
+        }
+    }
+
+    /** Only data and hint files are ever shipped; anything else would write outside the replica */
+    private static String checkedName(String name) throws IOException {
+        if (!name.matches("data\\d+\\.(dat|hint)")) throw new IOException("Unexpected file name from shipper: " + name);
+        return name;
+    }
+
+    private void closeFiles() {
+        for (RandomAccessFile raf : open.values()) {
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+            }
+        }
+        open.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Socket s = socket;
+        if (s != null) s.close();
+        thread.interrupt();
+        try {
+            thread.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
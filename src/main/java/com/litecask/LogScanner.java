@@ -0,0 +1,294 @@
+package com.litecask;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * LogScanner walks the records of one data file, in either record format, through a large
+ * read-ahead window.
+ *
+ * <ul>
+ *   <li>Only puts and tombstones are returned. Batch headers and sync markers are stepped over;
+ *       a batch whose block is incomplete or fails its CRC is skipped as a whole.</li>
+ *   <li>A torn or corrupt v2 record is skipped by searching for the next sync marker, so damage
+ *       loses at most the records up to that marker. v1 files have no markers: the scan ends there.</li>
+ *   <li>A scan can be bounded to the records between two sync markers ({@link #seekSync} and
+ *       {@code stopAt}), which is how recovery splits one large file across threads.</li>
+ *   <li>A follower tailing a file that is still being written uses {@link #stopAtDamage()}: a
+ *       record that is incomplete or fails its CRC may just not be fully written yet, so the
+ *       scan stops in front of it instead of skipping ahead.</li>
+ * </ul>
+ */
+final class LogScanner implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final int fileId;
+    private final int format;
+    private final int headerSize;
+    private final long length;
+    private final long stopAt;        // stop before a sync marker at or after this offset
+    private final byte[] syncRecord;  // v2 only
+
+    private final ByteBuffer window = ByteBuffer.allocate(BUFFER_SIZE);
+    private long windowStart = -1;
+    private final byte[] header = new byte[Entry.HEADER_SIZE];
+
+    private long pos;         // where the next record starts
+    private boolean damaged;  // a torn or corrupt record was skipped or ended the scan
+    private boolean stopAtDamage;
+
+    // The current record
+    private byte[] record = new byte[4096];
+    private int recordLength;
+    private long start;
+    private long seq;
+    private int keyLength;
+    private int valueLength;
+    private byte flag;
+
+    /** Scan from {@code from}, which must be a record boundary (or 0), to the end of the file */
+    LogScanner(File dataFile, int fileId, long from) throws IOException {
+        this(dataFile, fileId, from, Long.MAX_VALUE);
+    }
+
+    LogScanner(File dataFile, int fileId, long from, long stopAt) throws IOException {
+        this.channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+        this.fileId = fileId;
+        this.stopAt = stopAt;
+        this.length = channel.size();
+        this.format = Entry.formatOf(dataFile);
+        this.headerSize = Entry.headerSize(format);
+        if (format == Entry.FORMAT_V2 && length >= Entry.FILE_HEADER_SIZE) {
+            byte[] token = new byte[Entry.SYNC_TOKEN_SIZE];
+            read(4, token, 0, token.length);
+            this.syncRecord = Entry.syncRecord(token);
+            this.pos = Math.max(from, Entry.FILE_HEADER_SIZE);
+        } else {
+            this.syncRecord = null;
+            this.pos = format == Entry.FORMAT_V2 ? length : from; // a v2 file without a complete header holds nothing
+        }
+    }
+
+    /** End the scan at the first bad record, with {@link #position()} at its start */
+    LogScanner stopAtDamage() {
+        this.stopAtDamage = true;
+        return this;
+    }
+
+    int format() {
+        return format;
+    }
+
+    /** Move to the first sync marker at or after {@code from}; false if there is none */
+    boolean seekSync(long from) throws IOException {
+        long marker = syncRecord == null ? -1 : findSync(from);
+        pos = marker < 0 ? length : marker;
+        return marker >= 0;
+    }
+
+    /** Where the next record starts (the end of the last one read) */
+    long position() {
+        return pos;
+    }
+
+    /** True if a torn or corrupt record was skipped or ended the scan */
+    boolean damaged() {
+        return damaged;
+    }
+
+    /** Advance to the next put or tombstone; false at the end of the file or the stop marker */
+    boolean next() throws IOException {
+        while (length - pos >= headerSize) {
+            long at = pos;
+            read(at, header, 0, headerSize);
+            ByteBuffer h = ByteBuffer.wrap(header);
+            int keyLen, valLen;
+            byte f;
+            long s;
+            if (format == Entry.FORMAT_V1) {
+                keyLen = h.getInt(0);
+                valLen = h.getInt(4);
+                f = h.get(8);
+                s = Entry.legacySeq(fileId, at);
+            } else {
+                s = h.getLong(4);
+                keyLen = h.getInt(12);
+                valLen = h.getInt(16);
+                f = h.get(20);
+            }
+            long end = at + headerSize + (long) keyLen + valLen;
+            if (keyLen < 0 || valLen < 0 || end > length || end - at > Integer.MAX_VALUE) {
+                if (!skipDamage(at)) return false; // torn tail
+                continue;
+            }
+
+            if (f == Entry.FLAG_BATCH) {
+                if (format == Entry.FORMAT_V2 && !blockCrcMatches(at, end, h.getInt(0))) {
+                    if (!skipDamage(at)) return false;
+                    continue;
+                }
+                pos = at + headerSize; // complete block: its entries follow, read them like any other
+                continue;
+            }
+
+            int len = (int) (end - at);
+            if (record.length < len) record = new byte[Math.max(len, record.length * 2)];
+            read(at, record, 0, len);
+            if (format == Entry.FORMAT_V2 && Entry.crc(record, len) != h.getInt(0)) {
+                if (!skipDamage(at)) return false;
+                continue;
+            }
+            if (f == Entry.FLAG_SYNC) {
+                if (at >= stopAt) return false; // the next chunk starts here
+                pos = end;
+                continue;
+            }
+            if ((Entry.type(f) != Entry.FLAG_PUT || (Entry.expires(f) && valLen < Entry.EXPIRY_SIZE))
+                    && f != Entry.FLAG_TOMBSTONE) {
+                if (!skipDamage(at)) return false;
+                continue;
+            }
+
+            pos = end;
+            recordLength = len;
+            start = at;
+            seq = s;
+            keyLength = keyLen;
+            valueLength = valLen;
+            flag = f;
+            return true;
+        }
+        if (pos < length) damaged = true; // a partial header at the end
+        return false;
+    }
+
+    long start() {
+        return start;
+    }
+
+    long seq() {
+        return seq;
+    }
+
+    byte flag() {
+        return flag;
+    }
+
+    int keyLength() {
+        return keyLength;
+    }
+
+    /** Length of the stored value, without the expiry time of an expiring put */
+    int valueLength() {
+        return valueLength - Entry.valuePrefix(flag);
+    }
+
+    /** Offset of the stored value in the file (after the expiry time of an expiring put) */
+    long valueOffset() {
+        return start + headerSize + keyLength + Entry.valuePrefix(flag);
+    }
+
+    /** Expiry time of an expiring put, else 0 */
+    long expiresAt() {
+        return Entry.expires(flag) ? ByteBuffer.wrap(record).getLong(headerSize + keyLength) : 0;
+    }
+
+    String key() {
+        return new String(record, headerSize, keyLength, StandardCharsets.UTF_8);
+    }
+
+    /** The whole record, header included, in {@code record()[0, recordLength())}; valid until next() */
+    byte[] record() {
+        return record;
+    }
+
+    int recordLength() {
+        return recordLength;
+    }
+
+    int headerSize() {
+        return headerSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Resume at the next sync marker after a bad record at {@code at}; false if there is none */
+    private boolean skipDamage(long at) throws IOException {
+        damaged = true;
+        if (stopAtDamage) {
+            pos = at;
+            return false;
+        }
+        long marker = syncRecord == null ? -1 : findSync(at + 1);
+        pos = marker < 0 ? length : marker;
+        return marker >= 0;
+    }
+
+    private boolean blockCrcMatches(long at, long end, int expected) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(header, 4, headerSize - 4);
+        byte[] chunk = new byte[64 * 1024];
+        for (long p = at + headerSize; p < end; ) {
+            int n = (int) Math.min(chunk.length, end - p);
+            read(p, chunk, 0, n);
+            crc.update(chunk, 0, n);
+            p += n;
+        }
+        return (int) crc.getValue() == expected;
+    }
+
+    private long findSync(long from) throws IOException {
+        int n = syncRecord.length;
+        long p = Math.max(from, Entry.FILE_HEADER_SIZE);
+        while (length - p >= n) {
+            fill(p);
+            byte[] w = window.array();
+            int limit = window.limit();
+            for (int i = 0; i + n <= limit; i++) {
+                if (w[i] == syncRecord[0] && Arrays.equals(w, i, i + n, syncRecord, 0, n)) return p + i;
+            }
+            p += limit - n + 1;
+        }
+        return -1;
+    }
+
+    /** Copy {@code len} bytes at {@code at} into {@code dst}, through the window */
+    private void read(long at, byte[] dst, int off, int len) throws IOException {
+        if (len >= BUFFER_SIZE) {
+            ByteBuffer buf = ByteBuffer.wrap(dst, off, len);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, at + buf.position() - off) < 0) throw new EOFException();
+            }
+            return;
+        }
+        while (len > 0) {
+            if (windowStart < 0 || at < windowStart || at >= windowStart + window.limit()) fill(at);
+            int i = (int) (at - windowStart);
+            int n = Math.min(len, window.limit() - i);
+            System.arraycopy(window.array(), i, dst, off, n);
+            at += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void fill(long at) throws IOException {
+        window.clear();
+        window.limit((int) Math.min(BUFFER_SIZE, length - at));
+        while (window.hasRemaining()) {
+            if (channel.read(window, at + window.position()) < 0) throw new EOFException();
+        }
+        window.flip();
+        windowStart = at;
+    }
+}
@@ -0,0 +1,232 @@
+package com.litecask;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LogShipper streams a LiteCask directory to {@link LogReceiver}s over TCP, so followers can
+ * run on machines that don't share the leader's disk.
+ *
+ * It only reads the directory, like a follower, and needs no hook into the writing LiteCask:
+ * every pass ships what was appended to each data and hint file since the last pass, then the
+ * deletions of merged-away files. Of a data file that may still be written, only complete
+ * records are shipped, so the replica never holds a hole that the leader filled in later.
+ *
+ * Protocol (DataOutputStream encoding): the receiver opens with {@link #MAGIC} and the files it
+ * already has (count, then name and length of each), so a reconnect resumes where it stopped.
+ * The shipper then sends frames: {@link #APPEND} name offset length bytes, {@link #DELETE} name,
+ * and {@link #CAUGHT_UP} after a pass that shipped everything there was.
+ */
+public class LogShipper implements Closeable {
+
+    static final int MAGIC = 0x4C435331; // "LCS1"
+    static final byte APPEND = 1;
+    static final byte DELETE = 2;
+    static final byte CAUGHT_UP = 3;
+
+    private static final int CHUNK = 1 << 20;
+
+    private final File dataDir;
+    private final long intervalMillis;
+    private final ServerSocket server;
+    private final Map<Socket, Thread> connections = new HashMap<>();
+    private final AtomicInteger connectionIds = new AtomicInteger();
+    private volatile boolean closed;
+
+    private LogShipper(File dataDir, ServerSocket server, long intervalMillis) {
+        this.dataDir = dataDir;
+        this.server = server;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Serve {@code dir} on {@code port} of the loopback interface (0 picks a free port), looking for
+     * new data every {@code intervalMillis}.
+     */
+    public static LogShipper start(String dir, int port, long intervalMillis) throws IOException {
+        return start(dir, new ServerSocket(port, 50, InetAddress.getLoopbackAddress()), intervalMillis);
+    }
+
+    /** Serve {@code dir} to receivers connecting to {@code server} */
+    public static LogShipper start(String dir, ServerSocket server, long intervalMillis) throws IOException {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("intervalMillis must be > 0");
+        File dataDir = new File(dir);
+        if (!dataDir.isDirectory()) throw new FileNotFoundException(dir);
+        LogShipper shipper = new LogShipper(dataDir, server, intervalMillis);
+        Thread acceptor = new Thread(shipper::acceptLoop, "litecask-shipper");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return shipper;
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                Thread t = new Thread(() -> serve(socket), "litecask-ship-" + connectionIds.incrementAndGet());
+                t.setDaemon(true);
+                synchronized (connections) {
+                    if (closed) {
+                        socket.close();
+                        return;
+                    }
+                    connections.put(socket, t);
+                }
+                t.start();
+            } catch (IOException e) {
+                if (closed) return; // server socket closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (in.readInt() != MAGIC) return;
+            Connection c = new Connection(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), CHUNK)));
+            for (int n = in.readInt(); n > 0; n--) c.shipped.put(in.readUTF(), in.readLong());
+
+            while (!closed) {
+                c.sent = false;
+                if (c.pass()) c.out.writeByte(CAUGHT_UP);
+                c.out.flush();
+                if (!c.sent) Thread.sleep(intervalMillis);
+            }
+        } catch (IOException | InterruptedException e) {
+            // receiver went away or we are closing; it reconnects and resumes
+        } finally {
+            synchronized (connections) {
+                connections.remove(socket);
+            }
+        }
+    }
+
+    /** What one receiver has been sent */
+    private final class Connection {
+        final DataOutputStream out;
+        /** file name -> bytes shipped */
+        final Map<String, Long> shipped = new HashMap<>();
+        final byte[] buffer = new byte[CHUNK];
+        boolean sent;
+
+        Connection(DataOutputStream out) {
+            this.out = out;
+        }
+
+        /** Ship what changed since the last pass; true if every data file was shipped to its end */
+        boolean pass() throws IOException {
+            TreeMap<Integer, File> data = new TreeMap<>();
+            File[] found = dataDir.listFiles((d, name) -> name.matches("data\\d+\\.dat"));
+            if (found != null) {
+                for (File f : found) data.put(Integer.parseInt(f.getName().substring(4, f.getName().length() - 4)), f);
+            }
+
+            boolean caughtUp = true;
+            for (var e : data.entrySet()) {
+                int fileId = e.getKey();
+                File dat = e.getValue();
+                File hint = new File(dataDir, "data" + fileId + ".hint");
+                try {
+                    restartIfTruncated(dat);
+                    restartIfTruncated(hint);
+                    long length = dat.length();
+                    long end = completeUpTo(dat, fileId, shipped.getOrDefault(dat.getName(), 0L), length, fileId < data.lastKey());
+                    ship(dat, end);
+                    caughtUp &= end >= length;
+                    if (hint.exists()) ship(hint, hint.length()); // after the data it points at
+                } catch (FileNotFoundException | java.nio.file.NoSuchFileException ex) {
+                    // merged away since the listing: its delete goes out on the next pass
+                }
+            }
+
+            for (Iterator<String> it = shipped.keySet().iterator(); it.hasNext(); ) {
+                String name = it.next();
+                if (!new File(dataDir, name).exists()) {
+                    out.writeByte(DELETE);
+                    out.writeUTF(name);
+                    it.remove();
+                    sent = true;
+                }
+            }
+            return caughtUp;
+        }
+
+        /** A restarted leader cuts torn hint tails off: send such a file again from the start */
+        private void restartIfTruncated(File file) throws IOException {
+            Long sentUpTo = shipped.get(file.getName());
+            if (sentUpTo != null && sentUpTo > file.length() && file.exists()) {
+                out.writeByte(DELETE);
+                out.writeUTF(file.getName());
+                shipped.put(file.getName(), 0L);
+                sent = true;
+            }
+        }
+
+        private void ship(File file, long end) throws IOException {
+            String name = file.getName();
+            long from = shipped.getOrDefault(name, 0L);
+            shipped.putIfAbsent(name, from);
+            if (from >= end) return;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                for (long pos = from; pos < end; ) {
+                    int n = (int) Math.min(buffer.length, end - pos);
+                    raf.seek(pos);
+                    raf.readFully(buffer, 0, n);
+                    out.writeByte(APPEND);
+                    out.writeUTF(name);
+                    out.writeLong(pos);
+                    out.writeInt(n);
+                    out.write(buffer, 0, n);
+                    pos += n;
+                    shipped.put(name, pos);
+                }
+            }
+            sent = true;
+        }
+    }
+
+    /**
+     * How far {@code file} can be shipped: to its end once it is rotated and settled, else up to
+     * the first record that isn't completely written yet.
+     */
+    private static long completeUpTo(File file, int fileId, long from, long length, boolean rotated) throws IOException {
+        if (from >= length) return from;
+        if (length < Entry.FILE_HEADER_SIZE) return rotated ? length : from;
+        if (rotated && System.currentTimeMillis() - file.lastModified() >= LogFollower.SETTLE_MILLIS) return length;
+        if (Entry.formatOf(file) == Entry.FORMAT_V1) return length; // v1 files are never appended to
+        try (LogScanner in = new LogScanner(file, fileId, from).stopAtDamage()) {
+            while (in.next()) {
+                // only looking for where the complete records end
+            }
+            return in.position();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        synchronized (connections) {
+            for (Socket socket : connections.keySet()) {
+                try {
+                    socket.close();
+                } catch (SocketException ignored) {
+                }
+            }
+            connections.clear();
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package com.litecask;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LogWriter appends records to the active data file from many threads at once.
+ *
+ * <ul>
+ *   <li>Offsets are reserved with a CAS on the file's end position, so writers never
+ *       queue behind each other to find out where their record goes.</li>
+ *   <li>Each writer copies its own bytes with a positional FileChannel write.</li>
+ *   <li>A written watermark tracks the longest gap-free prefix of the file. A write is
+ *       only acknowledged once everything before it is written too, so an acknowledged
+ *       record is never stranded behind a hole after a crash.</li>
+ *   <li>A second watermark tracks which records are also published in KeyDir; it is the
+ *       position a checkpoint can safely resume the log from.</li>
+ *   <li>fsync is group-committed: a writer that needs durability waits for the first fsync
+ *       that starts after its write, and one fsync covers every writer queued behind it.</li>
+ * </ul>
+ *
+ * A record that reaches a sync interval boundary reserves room for a sync marker right after
+ * itself, in the same CAS, so markers need no coordination between writers (see {@link Entry}).
+ *
+ * A write that fails leaves a hole of garbage in the file. The writer is then poisoned: records
+ * ending past the hole are never acknowledged (their commit throws), and appends fail so the caller
+ * rotates to a new file. Recovery skips the garbage at the next sync marker and loses nothing that
+ * was acknowledged.
+ *
+ * Once the file reaches the size limit, reservations fail and the caller rotates. The
+ * retired writer closes itself when the last in-flight writer releases it.
+ *
+ * The data file's hint writer rides along: buffered hints are flushed at the same sync
+ * points and the hint file is closed together with the data file.
+ */
+class LogWriter implements Closeable {
+
+    private final int fileId;
+    private final FileChannel channel;
+    private final SyncPolicy policy;
+    private final HintWriter hints;
+    private final long maxSize;
+    private final byte[] syncRecord;
+    private final LatencyHistogram fsyncs;
+
+    private final AtomicLong reserved;                          // next free offset
+    private final AtomicInteger inflight = new AtomicInteger(); // writers between append() and release()
+    private volatile boolean retiring;                          // rotated away: close once inflight drops to 0
+    private volatile boolean closed;
+    private final AtomicLong holeAt = new AtomicLong(Long.MAX_VALUE); // start of the first failed write
+    private final CountDownLatch closedLatch = new CountDownLatch(1);
+
+    private final Watermark written;   // bytes on the file without holes
+    private final Watermark published; // records also visible in KeyDir (checkpoint position)
+
+    // Group fsync
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private volatile long syncsStarted;
+    private volatile long syncsCompleted;
+    private final AtomicLong unsyncedBytes = new AtomicLong();
+
+    LogWriter(File path, int fileId, SyncPolicy policy, HintWriter hints, long maxSize, LatencyHistogram fsyncs) throws IOException {
+        this(FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                path, fileId, policy, hints, maxSize, fsyncs);
+    }
+
+    /** Over an already open channel on {@code path}, e.g. one that fails on purpose in tests */
+    LogWriter(FileChannel channel, File path, int fileId, SyncPolicy policy, HintWriter hints, long maxSize,
+              LatencyHistogram fsyncs) throws IOException {
+        this.fileId = fileId;
+        this.fsyncs = fsyncs;
+        this.policy = policy;
+        this.hints = hints;
+        this.maxSize = maxSize;
+        this.channel = channel;
+        long end = channel.size();
+        byte[] token = new byte[Entry.SYNC_TOKEN_SIZE];
+        if (end == 0) {
+            // New file: v2 header with a random sync token
+            java.util.concurrent.ThreadLocalRandom.current().nextBytes(token);
+            ByteBuffer header = ByteBuffer.allocate(Entry.FILE_HEADER_SIZE).putInt(Entry.FILE_MAGIC).put(token);
+            header.flip();
+            while (header.hasRemaining()) channel.write(header, header.position());
+            end = Entry.FILE_HEADER_SIZE;
+        } else {
+            ByteBuffer buf = ByteBuffer.wrap(token);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, 4 + buf.position()) < 0) throw new EOFException(path + " has no complete file header");
+            }
+        }
+        this.syncRecord = Entry.syncRecord(token);
+        this.reserved = new AtomicLong(end);
+        this.written = new Watermark(end);
+        this.published = new Watermark(end);
+    }
+
+    int fileId() {
+        return fileId;
+    }
+
+    HintWriter hints() {
+        return hints;
+    }
+
+    /** Logical size of the file including reserved space that is still being written */
+    long size() {
+        return reserved.get();
+    }
+
+    /**
+     * Reserve space for a record and write it at that position.
+     * Returns the record's start offset, or -1 if this file is full (or retired, or poisoned by a
+     * failed write) and the caller must rotate. A successful append must be paired with
+     * {@link #complete}; a failed one has already released the writer and given up its range.
+     */
+    long append(byte[] record) throws IOException {
+        return append(record, null, 0);
+    }
+
+    /**
+     * Like {@link #append(byte[])} for a record whose last {@code bodyLength} bytes are in
+     * {@code body} (from its current position) rather than in {@code head}. The body is copied
+     * file to file by the kernel, so it never passes through the heap.
+     */
+    long append(byte[] head, FileChannel body, long bodyLength) throws IOException {
+        inflight.incrementAndGet();
+        if (retiring || holeAt.get() != Long.MAX_VALUE) {
+            release();
+            return -1;
+        }
+        long length = head.length + bodyLength;
+        long offset;
+        boolean sync;
+        while (true) {
+            long pos = reserved.get();
+            if (pos >= maxSize && pos > Entry.FILE_HEADER_SIZE) {
+                release();
+                return -1;
+            }
+            sync = Entry.needsSync(pos, length);
+            if (reserved.compareAndSet(pos, pos + length + (sync ? syncRecord.length : 0))) {
+                offset = pos;
+                break;
+            }
+        }
+        long marker = offset + length;
+        long end = marker + (sync ? syncRecord.length : 0);
+        boolean ok = false;
+        try {
+            writeFully(head, offset);
+            if (body != null) transferFully(body, offset + head.length, bodyLength);
+            if (sync) {
+                writeFully(syncRecord, marker);
+                hints.append(new byte[0], fileId, marker, Entry.SYNC_TOKEN_SIZE, Entry.FLAG_SYNC, 0);
+            }
+            unsyncedBytes.addAndGet(end - offset);
+            ok = true;
+        } finally {
+            // poison before the watermark moves, so no commit past the hole can get through first
+            if (!ok) holeAt.accumulateAndGet(offset, Math::min);
+            // even a failed write must move the watermark, or later writers would wait forever
+            written.mark(offset, end);
+            // the marker has nothing to publish
+            if (sync) published.mark(marker, end);
+            if (!ok) {
+                // the caller never gets an offset to complete: nothing will be published here
+                published.mark(offset, marker);
+                release();
+            }
+        }
+        return offset;
+    }
+
+    private void writeFully(byte[] bytes, long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) {
+            channel.write(buf, offset + buf.position());
+        }
+    }
+
+    private void transferFully(FileChannel body, long offset, long length) throws IOException {
+        for (long done = 0; done < length; ) {
+            long n = channel.transferFrom(body, offset + done, length - done);
+            if (n <= 0) throw new EOFException("staged value is shorter than " + length);
+            done += n;
+        }
+    }
+
+    /**
+     * Block until every byte before {@code end} is written and durable according to the policy.
+     * Throws if a failed write left a hole before {@code end}: the record must not be acknowledged.
+     */
+    void commit(long end) throws IOException {
+        written.await(end);
+        long hole = holeAt.get();
+        if (end > hole) throw new IOException("data" + fileId + ".dat has a failed write at " + hole + " before " + end);
+        switch (policy.mode) {
+            case ALWAYS:
+                groupSync();
+                break;
+            case BYTES:
+                if (unsyncedBytes.get() >= policy.value) groupSync();
+                break;
+            default:
+                // INTERVAL is synced by a background thread, NONE by the OS
+        }
+    }
+
+    /** What a writer does once its record is committed: put it in KeyDir and the hint file */
+    interface Publisher {
+        void publish() throws IOException;
+    }
+
+    /**
+     * Finish an append of [start, end): wait for its commit, publish it, then mark it published and
+     * release the writer. The last two happen even if the commit (a failed fsync) or the publish
+     * throws, so one I/O error can't hold back checkpoints, snapshots or closing the writer.
+     */
+    void complete(long start, long end, Publisher publisher) throws IOException {
+        try {
+            commit(end);
+            publisher.publish();
+        } finally {
+            markPublished(start, end);
+            release();
+        }
+    }
+
+    /** The record at [start, end) is now reflected in KeyDir */
+    void markPublished(long start, long end) {
+        published.mark(start, end);
+    }
+
+    /** Every record before this offset is reflected in KeyDir */
+    long publishedUpTo() {
+        return published.get();
+    }
+
+    /** Wait until every record before {@code end} is reflected in KeyDir; false on timeout */
+    boolean awaitPublished(long end, long timeoutMillis) throws InterruptedIOException {
+        return published.await(end, timeoutMillis);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /** The caller of a previous append() is done; closes a retired writer when it was the last one */
+    void release() throws IOException {
+        if (inflight.decrementAndGet() == 0 && retiring) close();
+    }
+
+    /** Rotated away: no more appends, close as soon as in-flight writers are done */
+    void retire() throws IOException {
+        retiring = true;
+        if (inflight.get() == 0) close();
+    }
+
+    /** fsync everything written so far, regardless of policy */
+    void sync() throws IOException {
+        if (closed) return;
+        groupSync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        syncLock.lock();
+        try {
+            channel.force(false);
+            hints.close();
+            channel.close();
+        } finally {
+            syncLock.unlock();
+            closedLatch.countDown();
+        }
+    }
+
+    /** Block until a retired writer is closed, i.e. every write to it is published */
+    void awaitClosed() throws IOException {
+        try {
+            closedLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for " + fileId + " to close");
+        }
+    }
+
+    /**
+     * Wait for the first fsync that starts after this call; if none is running, run it.
+     * Everyone who arrives while an fsync is in progress is covered by the next one.
+     */
+    private void groupSync() throws IOException {
+        long ticket = syncsStarted;
+        syncLock.lock();
+        try {
+            if (syncsCompleted > ticket || closed) return; // a later fsync already covered us
+            long mine = ++syncsStarted;
+            unsyncedBytes.set(0);
+            long start = System.nanoTime();
+            channel.force(false);
+            fsyncs.recordSince(start);
+            syncsCompleted = mine;
+            hints.flush();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Longest gap-free prefix of a file whose ranges complete out of order.
+     * Ranges finishing past a gap wait in a TreeMap until the gap closes.
+     */
+    private static final class Watermark {
+        private long value;
+        private final TreeMap<Long, Long> ahead = new TreeMap<>(); // start -> end
+
+        Watermark(long start) {
+            this.value = start;
+        }
+
+        synchronized long get() {
+            return value;
+        }
+
+        synchronized void mark(long start, long end) {
+            if (start != value) {
+                ahead.put(start, end);
+                return;
+            }
+            value = end;
+            for (var next = ahead.firstEntry(); next != null && next.getKey() == value; next = ahead.firstEntry()) {
+                value = ahead.pollFirstEntry().getValue();
+            }
+            notifyAll();
+        }
+
+        synchronized void await(long end) {
+            boolean interrupted = false;
+            while (value < end) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        synchronized boolean await(long end, long timeoutMillis) throws InterruptedIOException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (value < end) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return false;
+                try {
+                    wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for records to be published");
+                }
+            }
+            return true;
+        }
+    }
+}
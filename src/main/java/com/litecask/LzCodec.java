@@ -0,0 +1,142 @@
+package com.litecask;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A small LZ77 codec in the style of LZ4's block format, in plain Java.
+ *
+ * Layout: uncompressed length(4), then sequences of token(1) [literal length extension]
+ * literals offset(2, little endian) [match length extension]. The token's high nibble is the
+ * literal length, the low nibble the match length minus 4; 15 means "add the following bytes
+ * until one is below 255". The last sequence has literals only.
+ *
+ * Matches are found through a hash table of 4-byte prefixes, no chains: one probe per position.
+ */
+class LzCodec implements ValueCodec {
+
+    private static final int HASH_LOG = 12;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    private static final int LAST_LITERALS = 5;   // the tail is always stored as literals
+    private static final int MATCH_LIMIT = 12;    // no match may start in the last 12 bytes
+
+    @Override
+    public int id() {
+        return 1;
+    }
+
+    @Override
+    public String name() {
+        return "lz";
+    }
+
+    @Override
+    public byte[] compress(byte[] src) {
+        int n = src.length;
+        byte[] out = new byte[4 + n + n / 255 + 16];
+        writeInt(out, 0, n);
+        int op = 4;
+        int[] table = new int[1 << HASH_LOG]; // position + 1 of the last occurrence, 0 = none
+        int anchor = 0;
+        int i = 0;
+        while (i < n - MATCH_LIMIT) {
+            int seq = readInt(src, i);
+            int h = (seq * -1640531535) >>> (32 - HASH_LOG);
+            int ref = table[h] - 1;
+            table[h] = i + 1;
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                i++;
+                continue;
+            }
+            int len = MIN_MATCH;
+            while (i + len < n - LAST_LITERALS && src[ref + len] == src[i + len]) len++;
+            op = writeSequence(out, op, src, anchor, i - anchor, i - ref, len);
+            i += len;
+            anchor = i;
+        }
+        op = writeSequence(out, op, src, anchor, n - anchor, 0, 0);
+        return Arrays.copyOf(out, op);
+    }
+
+    @Override
+    public byte[] decompress(byte[] in) throws IOException {
+        try {
+            int length = readInt(in, 0);
+            if (length < 0) throw new IOException("corrupt lz value");
+            byte[] out = new byte[length];
+            int ip = 4;
+            int op = 0;
+            while (true) {
+                int token = in[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = in[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(in, ip, out, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip == in.length) break;
+
+                int offset = (in[ip] & 0xFF) | (in[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int len = (token & 15) + MIN_MATCH;
+                if ((token & 15) == 15) {
+                    int b;
+                    do {
+                        b = in[ip++] & 0xFF;
+                        len += b;
+                    } while (b == 255);
+                }
+                int from = op - offset;
+                if (offset == 0 || from < 0) throw new IOException("corrupt lz value");
+                for (int k = 0; k < len; k++) out[op++] = out[from + k]; // may overlap
+            }
+            if (op != out.length) throw new IOException("corrupt lz value");
+            return out;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("corrupt lz value", e);
+        }
+    }
+
+    private static int writeSequence(byte[] out, int op, byte[] src, int from, int literals, int offset, int matchLen) {
+        int tokenPos = op++;
+        int token = Math.min(literals, 15) << 4;
+        if (literals >= 15) op = writeLength(out, op, literals - 15);
+        System.arraycopy(src, from, out, op, literals);
+        op += literals;
+        if (matchLen > 0) {
+            out[op++] = (byte) offset;
+            out[op++] = (byte) (offset >>> 8);
+            int rest = matchLen - MIN_MATCH;
+            token |= Math.min(rest, 15);
+            if (rest >= 15) op = writeLength(out, op, rest - 15);
+        }
+        out[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(byte[] out, int op, int len) {
+        while (len >= 255) {
+            out[op++] = (byte) 255;
+            len -= 255;
+        }
+        out[op++] = (byte) len;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) << 24 | (b[i + 1] & 0xFF) << 16 | (b[i + 2] & 0xFF) << 8 | (b[i + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] b, int i, int v) {
+        b[i] = (byte) (v >>> 24);
+        b[i + 1] = (byte) (v >>> 16);
+        b[i + 2] = (byte) (v >>> 8);
+        b[i + 3] = (byte) v;
+    }
+}
@@ -1,71 +1,374 @@
 package com.litecask;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+/**
+ * Merger rewrites the live records of a set of data files and deletes the originals.
+ *
+ * <ul>
+ *   <li>Each input is streamed once, front to back, through a large buffer. Records failing
+ *       their CRC are skipped; v1 records are rewritten in the v2 format, keeping their order.</li>
+ *   <li>Inputs are processed in parallel; every worker writes its own output files, cut at
+ *       the rotation size, each with a matching hint file so the next startup skips the scan.</li>
+ *   <li>A record is live when KeyDir still points exactly at it. Live tombstones are kept, an
+ *       older file may still hold the value they delete.</li>
+ *   <li>Expired puts are dropped, and their keys removed from KeyDir, without writing tombstones.
+ *       That is only safe when every older data file is part of the same merge (older versions of
+ *       the key die with it); otherwise the expired record is copied like a live one and dropped
+ *       by a later merge that covers the older files too.</li>
+ *   <li>Only once every output is durable is KeyDir switched over, with compare-and-set, so a
+ *       write that landed while we were copying is never overwritten. If anything fails before
+ *       that point, the outputs are removed and the store is untouched.</li>
+ *   <li>Inputs pinned by a {@link Snapshot} are deleted when it is closed instead. They count as
+ *       kept for the expiry rule above: a crash before they go would bring them back.</li>
+ * </ul>
+ */
 public class Merger {
     private final File dataDir;
     private final KeyDir keyDir;
+    private final ReadChannelPool readers; // may be null
+    private final FilePins pins; // may be null
+    private final Consumer<String> relocated; // told about every key KeyDir now points elsewhere for
+    private final long maxFileSize;
+    private final FileStats stats;
+    private final EngineMetrics metrics;
+
+    private static final int BUFFER_SIZE = 1 << 20;
 
     public Merger(File dataDir, KeyDir keyDir) {
+        this(dataDir, keyDir, null, null, key -> { }, LiteCaskOptions.defaults().maxFileSize(), new FileStats(), new EngineMetrics(false));
+    }
+
+    Merger(File dataDir, KeyDir keyDir, ReadChannelPool readers, FilePins pins, Consumer<String> relocated, long maxFileSize,
+           FileStats stats, EngineMetrics metrics) {
         this.dataDir = dataDir;
         this.keyDir = keyDir;
+        this.readers = readers;
+        this.pins = pins;
+        this.relocated = relocated;
+        this.maxFileSize = maxFileSize;
+        this.stats = stats;
+        this.metrics = metrics;
     }
 
+    /**
+     * Offline merge of every data file except the active one. Outputs get ids above all existing
+     * files, so the store must not be written to while this runs (LiteCask.merge() handles that).
+     */
     public void merge(int activeFileId) throws IOException {
         File[] files = dataDir.listFiles((d, name) -> name.matches("data\\d+\\.dat"));
         if (files == null || files.length <= 1) return;
 
-        // New merged file
-        int newFileId = activeFileId + 1;
-        File merged = new File(dataDir, "data" + newFileId + ".dat");
-        try (RandomAccessFile out = new RandomAccessFile(merged, "rw")) {
-            for (File f : files) {
-                int fileId = parseFileId(f.getName());
-                if (fileId == activeFileId) continue; // skip active file
-
-                try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
-                    while (raf.getFilePointer() < raf.length()) {
-                        long offset = raf.getFilePointer();
-
-                        // Read entry
-                        DataInputStream in = new DataInputStream(
-                                new BufferedInputStream(new FileInputStream(raf.getFD())));
-                        Entry e = Entry.readFrom(in);
-
-                        // Is this entry still current?
-                        KeyDir.EntryMeta meta = keyDir.get(e.key);
-                        if (meta != null &&
-                            meta.fileId == fileId &&
-                            meta.flag == Entry.FLAG_PUT) {
-
-                            // Copy into merged file
-                            long newOffset = out.getFilePointer();
-                            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                            DataOutputStream dos = new DataOutputStream(baos);
-                            e.writeTo(dos);
-                            byte[] bytes = baos.toByteArray();
-                            out.write(bytes);
-
-                            // Update KeyDir to point to new file/offset
-                            keyDir.put(e.key, new KeyDir.EntryMeta(
-                                    newFileId,
-                                    newOffset + 4 + 4 + 1 + e.key.getBytes("UTF-8").length,
-                                    e.value.length,
-                                    Entry.FLAG_PUT
-                            ));
+        List<Integer> inputs = new ArrayList<>();
+        int maxId = 0;
+        for (File f : files) {
+            int fileId = parseFileId(f.getName());
+            maxId = Math.max(maxId, fileId);
+            if (fileId != activeFileId) inputs.add(fileId);
+        }
+        compact(inputs, maxId + 1);
+    }
+
+    /** Upper bound on the number of output files {@link #compact} may create for these inputs */
+    int outputIdsNeeded(List<Integer> inputs) {
+        long bytes = 0;
+        for (int fileId : inputs) bytes += dataFile(fileId).length();
+        // every output but a worker's last one is at least maxFileSize long
+        return (int) Math.min(Integer.MAX_VALUE / 2, bytes / maxFileSize + threadsFor(inputs));
+    }
+
+    /**
+     * Rewrite {@code inputs} into fresh files numbered from {@code firstOutputId} while the store
+     * stays online. The caller guarantees that every write to the inputs is already published in
+     * KeyDir, that new writes go to files above the reserved output ids, and that
+     * {@link #outputIdsNeeded} ids are free from {@code firstOutputId} on.
+     */
+    void compact(List<Integer> inputs, int firstOutputId) throws IOException {
+        if (inputs.isEmpty()) return;
+        long start = System.nanoTime();
+        long bytesIn = 0;
+        for (int fileId : inputs) bytesIn += dataFile(fileId).length();
+        // Expired records of files below every file not being merged can go without a trace
+        Set<Integer> inputSet = new HashSet<>(inputs);
+        int lowestKept = Integer.MAX_VALUE;
+        File[] existing = dataDir.listFiles((d, name) -> name.matches("data\\d+\\.dat"));
+        for (File f : existing == null ? new File[0] : existing) {
+            int fileId = parseFileId(f.getName());
+            boolean kept = !inputSet.contains(fileId) || (pins != null && pins.isPinned(fileId));
+            if (kept) lowestKept = Math.min(lowestKept, fileId);
+        }
+        long now = System.currentTimeMillis();
+        int limit = firstOutputId + outputIdsNeeded(inputs);
+        AtomicInteger nextOutputId = new AtomicInteger(firstOutputId);
+
+        // Largest first so one big file doesn't end up last on a single worker
+        List<Integer> ordered = new ArrayList<>(inputs);
+        ordered.sort(Comparator.comparingLong((Integer id) -> dataFile(id).length()).reversed());
+        ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<>(ordered);
+
+        int threads = threadsFor(inputs);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "litecask-merge");
+            t.setDaemon(true);
+            return t;
+        });
+        List<Worker> workers = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Worker w = new Worker(queue, nextOutputId, limit, now, lowestKept);
+            workers.add(w);
+            futures.add(pool.submit(() -> {
+                w.run();
+                return null;
+            }));
+        }
+        pool.shutdown();
+
+        IOException failure = null;
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (failure == null) failure = cause instanceof IOException ? (IOException) cause : new IOException("merge failed", cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) failure = new InterruptedIOException("merge interrupted");
+            }
+        }
+        if (failure != null) {
+            for (Worker w : workers) w.discard();
+            throw failure;
+        }
+
+        // Every output is durable: switch KeyDir over, then drop the inputs
+        for (Worker w : workers) {
+            metrics.mergeBytesOut.add(w.bytesWritten);
+            w.traces.forEach((outputId, bytes) -> stats.dead(outputId, bytes));
+            for (Relocation r : w.moved) {
+                if (r.to == null) {
+                    // expired and dropped; a write since then keeps its key
+                    if (keyDir.remove(r.key, r.from)) {
+                        relocated.accept(r.key);
+                        metrics.expired.increment();
+                    }
+                } else if (!keyDir.replace(r.key, r.from, r.to)) {
+                    stats.dead(r.to.fileId, r.length); // overwritten or deleted while we copied
+                } else {
+                    relocated.accept(r.key);
+                }
+            }
+        }
+        // Oldest first: a crash part way never leaves an older version without the newer one
+        for (int fileId : new java.util.TreeSet<>(inputs)) {
+            if (pins != null) {
+                pins.delete(fileId); // or once no snapshot reads it anymore
+            } else {
+                dataFile(fileId).delete();
+                hintFile(fileId).delete();
+                if (readers != null) readers.invalidate(fileId);
+            }
+            stats.remove(fileId);
+        }
+        metrics.mergeBytesIn.add(bytesIn);
+        metrics.merges.recordSince(start);
+    }
+
+    private int threadsFor(List<Integer> inputs) {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), inputs.size()));
+    }
+
+    /** Copies the live records of the inputs it takes from the queue into its own rolling outputs */
+    private final class Worker {
+        private final ConcurrentLinkedQueue<Integer> queue;
+        private final AtomicInteger nextOutputId;
+        private final int limit;
+        private final List<Integer> outputs = new ArrayList<>();
+        final List<Relocation> moved = new ArrayList<>();
+        /** Bytes of expired records copied without a KeyDir entry, per output: dead from the start */
+        final Map<Integer, Long> traces = new HashMap<>();
+        private final long now;
+        private final int lowestKept;
+
+        private int outputId = -1;
+        private byte[] syncRecord;
+        private FileOutputStream fos;
+        private OutputStream out;
+        private HintWriter hints;
+        private long outPos;
+        long bytesWritten; // by finished outputs
+
+        Worker(ConcurrentLinkedQueue<Integer> queue, AtomicInteger nextOutputId, int limit, long now, int lowestKept) {
+            this.queue = queue;
+            this.nextOutputId = nextOutputId;
+            this.limit = limit;
+            this.now = now;
+            this.lowestKept = lowestKept;
+        }
+
+        void run() throws IOException {
+            try {
+                for (Integer fileId = queue.poll(); fileId != null; fileId = queue.poll()) {
+                    copyLive(fileId);
+                }
+            } finally {
+                finishOutput();
+            }
+        }
+
+        private void copyLive(int fileId) throws IOException {
+            try (LogScanner in = new LogScanner(dataFile(fileId), fileId, 0)) {
+                while (in.next()) {
+                    String key = in.key();
+                    byte flag = in.flag();
+                    boolean tombstone = flag == Entry.FLAG_TOMBSTONE;
+                    KeyDir.EntryMeta meta = keyDir.get(key);
+                    boolean droppable = fileId < lowestKept;
+                    if (meta == null && Entry.expires(flag) && in.expiresAt() <= now) {
+                        // swept from KeyDir after it expired: keep a copy while older versions may exist
+                        if (!droppable) {
+                            KeyDir.EntryMeta trace = new KeyDir.EntryMeta(fileId, in.valueOffset(), in.valueLength(),
+                                    flag, in.seq(), in.expiresAt());
+                            append(key, trace, in.keyLength(), in.valueLength(), flag, in.record(), in.recordLength(), false);
                         }
+                        continue;
+                    }
+                    if (meta == null || meta.fileId != fileId || meta.flag != flag
+                            || meta.valueOffset != (tombstone ? in.start() : in.valueOffset())) {
+                        continue; // superseded
+                    }
+                    if (meta.expired(now) && droppable) {
+                        moved.add(new Relocation(key, meta, null, in.recordLength()));
+                        continue;
+                    }
+                    if (in.format() == Entry.FORMAT_V2) {
+                        append(key, meta, in.keyLength(), in.valueLength(), flag, in.record(), in.recordLength(), true);
+                    } else {
+                        // v1 record: re-encode, its legacy sequence number keeps it ordered
+                        byte[] r = in.record();
+                        int h = in.headerSize();
+                        byte[] keyBytes = Arrays.copyOfRange(r, h, h + in.keyLength());
+                        byte[] value = Arrays.copyOfRange(r, h + in.keyLength(), in.recordLength());
+                        byte[] record = Entry.encode(meta.seq, keyBytes, value, flag);
+                        append(key, meta, in.keyLength(), in.valueLength(), flag, record, record.length, true);
                     }
                 }
             }
         }
 
-        // Delete old files except active + merged
-        for (File f : files) {
-            int fileId = parseFileId(f.getName());
-            if (fileId != activeFileId && fileId != newFileId) {
-                f.delete();
+        /** Copy a record to the current output; with {@code relocate} KeyDir is switched to the copy later */
+        private void append(String key, KeyDir.EntryMeta from, int keyLen, int valLen, byte flag,
+                            byte[] record, int length, boolean relocate) throws IOException {
+            if (out == null || outPos >= maxFileSize) {
+                finishOutput();
+                startOutput();
             }
+            out.write(record, 0, length);
+            KeyDir.EntryMeta to = flag == Entry.FLAG_TOMBSTONE
+                    ? new KeyDir.EntryMeta(outputId, outPos, 0, flag, from.seq)
+                    : new KeyDir.EntryMeta(outputId, outPos + Entry.HEADER_SIZE + keyLen + Entry.valuePrefix(flag),
+                            valLen, flag, from.seq, from.expiresAt);
+            byte[] keyBytes = new byte[keyLen];
+            System.arraycopy(record, Entry.HEADER_SIZE, keyBytes, 0, keyLen);
+            hints.append(keyBytes, outputId, to.valueOffset, to.valueSize, flag, from.seq, from.expiresAt);
+            if (relocate) moved.add(new Relocation(key, from, to, length));
+            else traces.merge(outputId, (long) length, Long::sum);
+            if (Entry.needsSync(outPos, length)) {
+                out.write(syncRecord);
+                hints.append(new byte[0], outputId, outPos + length, Entry.SYNC_TOKEN_SIZE, Entry.FLAG_SYNC, 0);
+                outPos += syncRecord.length;
+            }
+            outPos += length;
+        }
+
+        private void startOutput() throws IOException {
+            outputId = nextOutputId.getAndIncrement();
+            if (outputId >= limit) throw new IOException("merge ran out of reserved file ids");
+            outputs.add(outputId);
+            fos = new FileOutputStream(dataFile(outputId));
+            out = new BufferedOutputStream(fos, BUFFER_SIZE);
+            hints = new HintWriter(hintFile(outputId));
+            byte[] token = new byte[Entry.SYNC_TOKEN_SIZE];
+            ThreadLocalRandom.current().nextBytes(token);
+            new DataOutputStream(out).writeInt(Entry.FILE_MAGIC);
+            out.write(token);
+            syncRecord = Entry.syncRecord(token);
+            outPos = Entry.FILE_HEADER_SIZE;
         }
+
+        /** Make the current output durable: data first, then its hints */
+        private void finishOutput() throws IOException {
+            if (out == null) return;
+            try {
+                out.flush();
+                fos.getChannel().force(false);
+                out.close();
+            } finally {
+                hints.close();
+                out = null;
+            }
+            stats.written(outputId, outPos);
+            bytesWritten += outPos;
+        }
+
+        /** Merge failed: remove everything this worker wrote */
+        void discard() {
+            try {
+                if (out != null) {
+                    out.close();
+                    hints.close();
+                }
+            } catch (IOException ignored) {
+                // the files are deleted next
+            }
+            for (int id : outputs) {
+                dataFile(id).delete();
+                hintFile(id).delete();
+                stats.remove(id);
+            }
+        }
+    }
+
+    /**
+     * A copied record whose KeyDir entry still has to be switched from {@code from} to {@code to},
+     * or an expired one ({@code to} null) whose key is to be removed
+     */
+    private static final class Relocation {
+        final String key;
+        final KeyDir.EntryMeta from;
+        final KeyDir.EntryMeta to;
+        final int length;
+
+        Relocation(String key, KeyDir.EntryMeta from, KeyDir.EntryMeta to, int length) {
+            this.key = key;
+            this.from = from;
+            this.to = to;
+            this.length = length;
+        }
+    }
+
+    private File dataFile(int fileId) {
+        return new File(dataDir, "data" + fileId + ".dat");
+    }
+
+    private File hintFile(int fileId) {
+        return new File(dataDir, "data" + fileId + ".hint");
     }
 
     private int parseFileId(String name) {
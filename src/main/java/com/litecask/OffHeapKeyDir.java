@@ -0,0 +1,383 @@
+package com.litecask;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BinaryOperator;
+
+/**
+ * OffHeapKeyDir keeps the whole index in direct memory so the Java heap (and GC pauses)
+ * stay small no matter how many keys there are.
+ *
+ * Keys are hashed into segments. Each segment is an open-addressing (linear probing)
+ * table of fixed-size slots plus an arena holding the UTF-8 key bytes:
+ *
+ * <pre>
+ *   slot (48 bytes): hash(4) keyLen(4) keyPos(4) fileId(4) valueSize(4) flag(1) pad(3) valueOffset(8) seq(8) expiresAt(8)
+ * </pre>
+ *
+ * Removed keys leave a "deleted" slot (keyLen = -1) so probe chains stay intact; those
+ * slots and their arena bytes are reclaimed when the segment is rehashed.
+ *
+ * Writers take the segment's write lock. Readers use an optimistic StampedLock read and
+ * only fall back to the read lock if a writer got in the way, so gets don't block each other.
+ * Memory is released by the GC together with the buffers once the KeyDir is unreachable.
+ */
+public class OffHeapKeyDir implements KeyDir {
+
+    private static final int SLOT_SIZE = 48;
+    private static final int HASH = 0;
+    private static final int KEY_LEN = 4;
+    private static final int KEY_POS = 8;
+    private static final int FILE_ID = 12;
+    private static final int VALUE_SIZE = 16;
+    private static final int FLAG = 20;
+    private static final int VALUE_OFFSET = 24;
+    private static final int SEQ = 32;
+    private static final int EXPIRES_AT = 40;
+
+    private static final int EMPTY = 0;    // hash of a never-used slot
+    private static final int DELETED = -1; // keyLen of a removed slot
+
+    private static final int MAX_SLOTS = Integer.MAX_VALUE / SLOT_SIZE;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    public OffHeapKeyDir() {
+        this(64, 1024);
+    }
+
+    /**
+     * @param segmentCount   number of independently locked segments (rounded up to a power of two)
+     * @param initialSlots   initial slots per segment (rounded up to a power of two)
+     */
+    public OffHeapKeyDir(int segmentCount, int initialSlots) {
+        int n = Math.max(1, Integer.highestOneBit(Math.max(1, segmentCount - 1)) << 1);
+        if (segmentCount == 1) n = 1;
+        this.segments = new Segment[n];
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(n);
+        int slots = Math.max(16, Integer.highestOneBit(Math.max(1, initialSlots - 1)) << 1);
+        for (int i = 0; i < n; i++) segments[i] = new Segment(slots);
+    }
+
+    @Override
+    public EntryMeta get(String key) {
+        int h = hash(key);
+        return segmentFor(h).get(h, key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void put(String key, EntryMeta meta) {
+        merge(key, meta, (oldMeta, newMeta) -> newMeta);
+    }
+
+    @Override
+    public void merge(String key, EntryMeta meta, BinaryOperator<EntryMeta> resolver) {
+        int h = hash(key);
+        segmentFor(h).merge(h, key.getBytes(StandardCharsets.UTF_8), meta, resolver);
+    }
+
+    @Override
+    public boolean replace(String key, EntryMeta expected, EntryMeta update) {
+        int h = hash(key);
+        return segmentFor(h).replace(h, key.getBytes(StandardCharsets.UTF_8), expected, update);
+    }
+
+    @Override
+    public void remove(String key) {
+        int h = hash(key);
+        segmentFor(h).remove(h, key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean remove(String key, EntryMeta expected) {
+        int h = hash(key);
+        return segmentFor(h).remove(h, key.getBytes(StandardCharsets.UTF_8), expected);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment s : segments) size += s.size;
+        return size;
+    }
+
+    /** Direct memory currently reserved by slot tables and key arenas */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (Segment s : segments) {
+            Tables t = s.tables;
+            bytes += t.table.capacity() + t.arena.capacity();
+        }
+        return bytes;
+    }
+
+    /** Iterates one segment at a time, copying that segment's entries under its read lock */
+    @Override
+    public Iterable<Map.Entry<String, EntryMeta>> entrySet() {
+        return () -> new Iterator<>() {
+            private int next = 0;
+            private Iterator<Map.Entry<String, EntryMeta>> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && next < segments.length) {
+                    current = segments[next++].snapshot().iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, EntryMeta> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+    }
+
+    private Segment segmentFor(int h) {
+        return segments.length == 1 ? segments[0] : segments[h >>> segmentShift];
+    }
+
+    /** Spread String.hashCode (cached by String) and never return EMPTY */
+    static int hash(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        h *= 0xc2b2ae35;
+        h ^= (h >>> 16);
+        return h == EMPTY ? 1 : h;
+    }
+
+    /** Slot table + key arena; replaced as a unit on rehash so optimistic readers see one consistent pair */
+    private static final class Tables {
+        final ByteBuffer table;
+        final ByteBuffer arena;
+        final int mask;
+
+        Tables(int slots, int arenaBytes) {
+            this.table = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+            this.arena = ByteBuffer.allocateDirect(Math.max(arenaBytes, 64));
+            this.mask = slots - 1;
+        }
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private volatile Tables tables;
+
+        // guarded by the write lock
+        private volatile int size;  // live keys
+        private int deleted;        // slots marked DELETED
+        private int arenaPos;
+
+        Segment(int slots) {
+            this.tables = new Tables(slots, slots * 16);
+        }
+
+        EntryMeta get(int h, byte[] key) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    Tables t = tables;
+                    int slot = find(t, h, key);
+                    EntryMeta meta = slot < 0 ? null : readMeta(t.table, slot);
+                    if (lock.validate(stamp)) return meta;
+                } catch (RuntimeException torn) {
+                    // raced with a writer: the values we read may be inconsistent, retry under the lock
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                Tables t = tables;
+                int slot = find(t, h, key);
+                return slot < 0 ? null : readMeta(t.table, slot);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void merge(int h, byte[] key, EntryMeta meta, BinaryOperator<EntryMeta> resolver) {
+            long stamp = lock.writeLock();
+            try {
+                Tables t = tables;
+                int slot = find(t, h, key);
+                if (slot >= 0) {
+                    EntryMeta resolved = resolver.apply(readMeta(t.table, slot), meta);
+                    if (resolved != null) writeMeta(t.table, slot, resolved);
+                    return;
+                }
+                if (size + deleted + 1 > (t.mask + 1) / 5 * 4) { // load factor 0.8
+                    t = rehash(t);
+                }
+                if (arenaPos + key.length > t.arena.capacity()) {
+                    t = growArena(t, key.length);
+                }
+                slot = freeSlot(t, h);
+                if (t.table.getInt(slot + HASH) != EMPTY) deleted--; // reusing a DELETED slot
+                t.arena.put(arenaPos, key);
+                t.table.putInt(slot + HASH, h);
+                t.table.putInt(slot + KEY_LEN, key.length);
+                t.table.putInt(slot + KEY_POS, arenaPos);
+                writeMeta(t.table, slot, meta);
+                arenaPos += key.length;
+                size++;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        boolean replace(int h, byte[] key, EntryMeta expected, EntryMeta update) {
+            long stamp = lock.writeLock();
+            try {
+                Tables t = tables;
+                int slot = find(t, h, key);
+                if (slot < 0 || !readMeta(t.table, slot).equals(expected)) return false;
+                writeMeta(t.table, slot, update);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void remove(int h, byte[] key) {
+            remove(h, key, null);
+        }
+
+        /** Remove the key if it maps to {@code expected} (any metadata if null) */
+        boolean remove(int h, byte[] key, EntryMeta expected) {
+            long stamp = lock.writeLock();
+            try {
+                Tables t = tables;
+                int slot = find(t, h, key);
+                if (slot < 0 || (expected != null && !readMeta(t.table, slot).equals(expected))) return false;
+                t.table.putInt(slot + KEY_LEN, DELETED);
+                size--;
+                deleted++;
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        List<Map.Entry<String, EntryMeta>> snapshot() {
+            long stamp = lock.readLock();
+            try {
+                Tables t = tables;
+                List<Map.Entry<String, EntryMeta>> out = new ArrayList<>(size);
+                for (int slot = 0; slot <= t.mask * SLOT_SIZE; slot += SLOT_SIZE) {
+                    if (t.table.getInt(slot + HASH) == EMPTY) continue;
+                    int keyLen = t.table.getInt(slot + KEY_LEN);
+                    if (keyLen == DELETED) continue;
+                    byte[] key = new byte[keyLen];
+                    t.arena.get(t.table.getInt(slot + KEY_POS), key);
+                    out.add(new AbstractMap.SimpleImmutableEntry<>(
+                            new String(key, StandardCharsets.UTF_8), readMeta(t.table, slot)));
+                }
+                return out;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /** Byte offset of the key's slot, or -1 */
+        private static int find(Tables t, int h, byte[] key) {
+            ByteBuffer table = t.table;
+            int idx = h & t.mask;
+            for (int probes = 0; probes <= t.mask; probes++) {
+                int slot = idx * SLOT_SIZE;
+                int slotHash = table.getInt(slot + HASH);
+                if (slotHash == EMPTY) return -1;
+                if (slotHash == h && table.getInt(slot + KEY_LEN) == key.length
+                        && keyEquals(t.arena, table.getInt(slot + KEY_POS), key)) {
+                    return slot;
+                }
+                idx = (idx + 1) & t.mask;
+            }
+            return -1;
+        }
+
+        /** First EMPTY or DELETED slot on the probe chain (caller made sure the table has room) */
+        private static int freeSlot(Tables t, int h) {
+            int idx = h & t.mask;
+            while (true) {
+                int slot = idx * SLOT_SIZE;
+                if (t.table.getInt(slot + HASH) == EMPTY || t.table.getInt(slot + KEY_LEN) == DELETED) {
+                    return slot;
+                }
+                idx = (idx + 1) & t.mask;
+            }
+        }
+
+        private static boolean keyEquals(ByteBuffer arena, int pos, byte[] key) {
+            for (int i = 0; i < key.length; i++) {
+                if (arena.get(pos + i) != key[i]) return false;
+            }
+            return true;
+        }
+
+        /** Rebuild into a table sized for the live keys, dropping DELETED slots and dead arena bytes */
+        private Tables rehash(Tables old) {
+            int slots = old.mask + 1;
+            if ((size + 1) * 2 > slots) { // else just clear out DELETED slots
+                if (slots * 2 > MAX_SLOTS) throw new IllegalStateException("OffHeapKeyDir segment is full");
+                slots *= 2;
+            }
+            Tables t = new Tables(slots, Math.max(arenaPos, 64));
+            int pos = 0;
+            for (int slot = 0; slot <= old.mask * SLOT_SIZE; slot += SLOT_SIZE) {
+                int h = old.table.getInt(slot + HASH);
+                if (h == EMPTY) continue;
+                int keyLen = old.table.getInt(slot + KEY_LEN);
+                if (keyLen == DELETED) continue;
+                int target = freeSlot(t, h);
+                t.arena.put(pos, old.arena, old.table.getInt(slot + KEY_POS), keyLen);
+                t.table.put(target, old.table, slot, SLOT_SIZE);
+                t.table.putInt(target + KEY_POS, pos);
+                pos += keyLen;
+            }
+            arenaPos = pos;
+            deleted = 0;
+            tables = t;
+            return t;
+        }
+
+        private Tables growArena(Tables old, int needed) {
+            long capacity = Math.max((long) old.arena.capacity() * 2, (long) arenaPos + needed);
+            if (capacity > Integer.MAX_VALUE - 8) throw new IllegalStateException("OffHeapKeyDir key arena is full");
+            Tables t = new Tables(old.mask + 1, (int) capacity);
+            t.table.put(0, old.table, 0, old.table.capacity());
+            t.arena.put(0, old.arena, 0, arenaPos);
+            tables = t;
+            return t;
+        }
+
+        private static EntryMeta readMeta(ByteBuffer table, int slot) {
+            return new EntryMeta(
+                    table.getInt(slot + FILE_ID),
+                    table.getLong(slot + VALUE_OFFSET),
+                    table.getInt(slot + VALUE_SIZE),
+                    table.get(slot + FLAG),
+                    table.getLong(slot + SEQ),
+                    table.getLong(slot + EXPIRES_AT));
+        }
+
+        private static void writeMeta(ByteBuffer table, int slot, EntryMeta meta) {
+            table.putInt(slot + FILE_ID, meta.fileId);
+            table.putLong(slot + VALUE_OFFSET, meta.valueOffset);
+            table.putInt(slot + VALUE_SIZE, meta.valueSize);
+            table.put(slot + FLAG, meta.flag);
+            table.putLong(slot + SEQ, meta.seq);
+            table.putLong(slot + EXPIRES_AT, meta.expiresAt);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.litecask;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+
+/**
+ * KeyDir backend kept in key order: a ConcurrentSkipListMap, so range and prefix scans walk
+ * only the matching keys, lazily, instead of copying and sorting the whole index.
+ *
+ * Lookups and scans are lock-free. Updates take a lock striped by key so a resolver runs exactly
+ * once per merge (ConcurrentSkipListMap's own merge may call it repeatedly under contention).
+ * Keys are ordered as Java Strings, which matches UTF-8 byte order outside supplementary characters.
+ */
+public class OrderedKeyDir implements KeyDir {
+
+    private static final int STRIPES = 64;
+
+    private final ConcurrentSkipListMap<String, EntryMeta> map = new ConcurrentSkipListMap<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final AtomicInteger size = new AtomicInteger(); // skip list size() is O(n)
+
+    public OrderedKeyDir() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new ReentrantLock();
+    }
+
+    @Override
+    public EntryMeta get(String key) {
+        return map.get(key);
+    }
+
+    @Override
+    public void put(String key, EntryMeta meta) {
+        merge(key, meta, (oldMeta, newMeta) -> newMeta);
+    }
+
+    @Override
+    public void merge(String key, EntryMeta meta, BinaryOperator<EntryMeta> resolver) {
+        ReentrantLock lock = stripeFor(key);
+        lock.lock();
+        try {
+            EntryMeta current = map.get(key);
+            if (current == null) {
+                map.put(key, meta);
+                size.incrementAndGet();
+            } else {
+                EntryMeta resolved = resolver.apply(current, meta);
+                if (resolved != null && resolved != current) map.put(key, resolved);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(String key, EntryMeta expected, EntryMeta update) {
+        ReentrantLock lock = stripeFor(key);
+        lock.lock();
+        try {
+            return map.replace(key, expected, update);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        ReentrantLock lock = stripeFor(key);
+        lock.lock();
+        try {
+            if (map.remove(key) != null) size.decrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(String key, EntryMeta expected) {
+        ReentrantLock lock = stripeFor(key);
+        lock.lock();
+        try {
+            if (!map.remove(key, expected)) return false;
+            size.decrementAndGet();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, EntryMeta>> entrySet() {
+        return map.entrySet();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, EntryMeta>> range(String from, String to) {
+        NavigableMap<String, EntryMeta> view = map;
+        if (from != null) view = view.tailMap(from, true);
+        if (to != null) view = view.headMap(to, false);
+        return view.entrySet().iterator();
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    private ReentrantLock stripeFor(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,178 @@
+package com.litecask;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ReadChannelPool keeps one long-lived reader per data file so get() is a single positional
+ * read instead of open + seek + read + close.
+ *
+ * Readers are looked up without locking and shared by all threads. The active file is read
+ * through a FileChannel (positional reads don't touch a shared file pointer); rotated files
+ * are immutable and can optionally be served from a read-only MappedByteBuffer.
+ *
+ * When a file is deleted (merge) or changes role (rotation) its reader is invalidated;
+ * a reader racing with that sees a ClosedChannelException and the caller retries.
+ */
+class ReadChannelPool implements Closeable {
+
+    private final File dataDir;
+    private final boolean mmap;
+    private final ConcurrentHashMap<Integer, Reader> readers = new ConcurrentHashMap<>();
+    private volatile int activeFileId;
+
+    ReadChannelPool(File dataDir, boolean mmap) {
+        this.dataDir = dataDir;
+        this.mmap = mmap;
+    }
+
+    /** The active file keeps growing, so it is never memory-mapped */
+    void setActiveFileId(int fileId) {
+        this.activeFileId = fileId;
+        invalidate(fileId); // drop any stale mapping of a file that is being appended to again
+    }
+
+    /** Read {@code size} bytes at {@code offset} from dataN.dat */
+    byte[] read(int fileId, long offset, int size) throws IOException {
+        byte[] value = new byte[size];
+        read(fileId, offset, ByteBuffer.wrap(value));
+        return value;
+    }
+
+    /**
+     * Fill the remaining space of {@code dst} from {@code offset} of dataN.dat, straight from the
+     * channel or mapping: with a direct buffer the bytes never pass through the Java heap
+     */
+    void read(int fileId, long offset, ByteBuffer dst) throws IOException {
+        Reader reader = readerFor(fileId);
+        try {
+            if (!reader.read(offset, dst)) {
+                // mapping is shorter than the request: file grew after it was mapped
+                readers.remove(fileId, reader);
+                if (!readerFor(fileId).read(offset, dst)) {
+                    throw new EOFException("Read past end of data" + fileId + ".dat at " + offset);
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // closed under us (invalidated, or the reading thread was interrupted)
+            readers.remove(fileId, reader);
+            throw e;
+        }
+    }
+
+    /** Readers currently open */
+    int openCount() {
+        return readers.size();
+    }
+
+    /** Forget (and close) the reader of a file that was deleted or rewritten */
+    void invalidate(int fileId) {
+        Reader reader = readers.remove(fileId);
+        if (reader != null) reader.close();
+    }
+
+    @Override
+    public void close() {
+        for (Integer fileId : readers.keySet()) {
+            invalidate(fileId);
+        }
+    }
+
+    private Reader readerFor(int fileId) throws IOException {
+        Reader reader = readers.get(fileId);
+        if (reader != null) return reader;
+        try {
+            return readers.computeIfAbsent(fileId, id -> {
+                try {
+                    return openReader(id);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Reader openReader(int fileId) throws IOException {
+        File file = new File(dataDir, "data" + fileId + ".dat");
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            // deleted by a merge: callers retry on FileNotFoundException, as for a closed reader
+            throw new FileNotFoundException(file.getPath());
+        }
+        long size = channel.size();
+        if (mmap && fileId != activeFileId && size > 0 && size <= Integer.MAX_VALUE) {
+            // Immutable file: map it and drop the descriptor, the mapping stays valid on its own
+            try {
+                return new MappedReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            } finally {
+                channel.close();
+            }
+        }
+        return new ChannelReader(channel);
+    }
+
+    private interface Reader {
+        /** Fill what remains of dst from offset; false (dst untouched) if the reader cannot see that far */
+        boolean read(long offset, ByteBuffer dst) throws IOException;
+
+        void close();
+    }
+
+    private static final class ChannelReader implements Reader {
+        private final FileChannel channel;
+
+        ChannelReader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public boolean read(long offset, ByteBuffer dst) throws IOException {
+            for (long pos = offset; dst.hasRemaining(); ) {
+                int n = channel.read(dst, pos);
+                if (n < 0) throw new EOFException("Unexpected end of data file at " + pos);
+                pos += n;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static final class MappedReader implements Reader {
+        private final MappedByteBuffer buffer;
+
+        MappedReader(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public boolean read(long offset, ByteBuffer dst) {
+            int length = dst.remaining();
+            if (offset + length > buffer.capacity()) return false;
+            dst.put(dst.position(), buffer, (int) offset, length); // absolute: safe for concurrent readers
+            dst.position(dst.position() + length);
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // unmapped by the GC once no reader references it
+        }
+    }
+}
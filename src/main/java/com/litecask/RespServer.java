@@ -0,0 +1,611 @@
+package com.litecask;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RespServer serves a LiteCask over TCP in a subset of the Redis protocol (RESP2), so redis-cli,
+ * redis-benchmark and Redis client libraries can talk to it.
+ *
+ * <ul>
+ *   <li>Commands: GET, SET (with EX/PX), DEL, MGET, PING, ECHO and QUIT. COMMAND and CONFIG answer
+ *       with an empty array, so tools that probe them when they connect carry on.</li>
+ *   <li>Non-blocking NIO: a few event loops, each with its own Selector, serve every connection;
+ *       a connection's commands run on its loop in the order they arrived.</li>
+ *   <li>Pipelining: every complete command of a read is executed before the replies go out in
+ *       one write. Consecutive SETs are applied as one WriteBatch: one append, one sync.</li>
+ *   <li>A connection reads and writes through direct buffers it keeps while it lives; they go
+ *       back to a pool of its loop when it closes. GET copies the value from the data file (or
+ *       its mapping) straight into the reply buffer.</li>
+ * </ul>
+ *
+ * There is no authentication: by default it only listens on the loopback interface.
+ */
+public class RespServer implements Closeable {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    /** Largest bulk string accepted, like Redis' proto-max-bulk-len */
+    static final int MAX_BULK = 512 << 20;
+    static final int MAX_ARGS = 1 << 20;
+    /** Stop executing a pipeline once this many reply bytes wait to be written */
+    private static final int REPLY_HIGH_WATER = 1 << 20;
+    private static final int MAX_SPARE_BUFFERS = 64;
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final LiteCask db;
+    private final ServerSocketChannel server;
+    private final Loop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private volatile boolean closed;
+
+    private RespServer(LiteCask db, ServerSocketChannel server, int threads) throws IOException {
+        this.db = db;
+        this.server = server;
+        this.loops = new Loop[threads];
+        for (int i = 0; i < threads; i++) loops[i] = new Loop(i);
+    }
+
+    /** Serve {@code db} on {@code port} of the loopback interface (0 picks a free port) */
+    public static RespServer start(LiteCask db, int port) throws IOException {
+        return start(db, new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Serve {@code db} on {@code address} with {@code threads} event loops */
+    public static RespServer start(LiteCask db, InetSocketAddress address, int threads) throws IOException {
+        if (threads <= 0) throw new IllegalArgumentException("threads must be > 0");
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(address, 128);
+        RespServer resp = new RespServer(db, server, threads);
+        for (Loop loop : resp.loops) loop.thread.start();
+        Thread acceptor = new Thread(resp::acceptLoop, "litecask-resp-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return resp;
+    }
+
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                SocketChannel channel = server.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].add(channel);
+            } catch (IOException e) {
+                if (closed) return; // server socket closed
+            }
+        }
+    }
+
+    /** One selector thread and the connections it serves */
+    private final class Loop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        /** Default-sized direct buffers of closed connections */
+        final ArrayDeque<ByteBuffer> spare = new ArrayDeque<>();
+
+        Loop(int id) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "litecask-resp-" + id);
+            this.thread.setDaemon(true);
+        }
+
+        void add(SocketChannel channel) {
+            incoming.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    break;
+                }
+                for (SocketChannel channel = incoming.poll(); channel != null; channel = incoming.poll()) {
+                    try {
+                        Connection c = new Connection(this, channel);
+                        c.key = channel.register(selector, SelectionKey.OP_READ, c);
+                    } catch (ClosedChannelException e) {
+                        // hung up before we got to it
+                    }
+                }
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) c.onWritable();
+                        if (key.isValid() && key.isReadable()) c.onReadable();
+                    } catch (IOException | RuntimeException e) {
+                        c.close(); // the client hung up, or the connection is in no state to go on
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) ((Connection) key.attachment()).close();
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        ByteBuffer buffer() {
+            ByteBuffer b = spare.poll();
+            return b != null ? b.clear() : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        void recycle(ByteBuffer b) {
+            if (b.capacity() == BUFFER_SIZE && spare.size() < MAX_SPARE_BUFFERS) spare.add(b);
+        }
+    }
+
+    /** A client's request has to be rejected; the connection is closed after the reply */
+    private static final class ProtocolException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        ProtocolException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * One client. {@code in} holds bytes received but not yet executed and {@code out} replies not
+     * yet written; both are kept in write mode between events.
+     */
+    private final class Connection {
+        final Loop loop;
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in;
+        ByteBuffer out;
+        /** Bytes the command at the front of {@code in} needs before it is worth parsing again */
+        int need;
+        /** Execution stopped at the reply high-water mark: go on once the replies are out */
+        boolean stalled;
+        boolean closing;
+        boolean closed;
+        final List<byte[]> args = new ArrayList<>();
+        /** SETs whose replies wait for the rest of the pipeline's SETs to be written with them */
+        final List<Map.Entry<String, byte[]>> pendingSets = new ArrayList<>();
+
+        Connection(Loop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+            this.in = loop.buffer();
+            this.out = loop.buffer();
+        }
+
+        void onReadable() throws IOException {
+            if (!in.hasRemaining()) in = grow(in, in.capacity() * 2);
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            execute();
+            flush();
+        }
+
+        void onWritable() throws IOException {
+            flush();
+        }
+
+        /** Run every complete command in {@code in}, appending the replies to {@code out} */
+        private void execute() {
+            in.flip();
+            stalled = false;
+            try {
+                while (!closing && in.remaining() >= need) {
+                    if (out.position() >= REPLY_HIGH_WATER) {
+                        stalled = true;
+                        break;
+                    }
+                    int start = in.position();
+                    if (!parse()) {
+                        if (need > in.capacity()) {
+                            // one argument is larger than the buffer: make room for the whole command
+                            in.position(start);
+                            in = growForRead(in, need);
+                        }
+                        break;
+                    }
+                    need = 0;
+                    if (!args.isEmpty()) run(args);
+                }
+            } catch (ProtocolException e) {
+                flushSets();
+                error("Protocol error: " + e.getMessage());
+                closing = true;
+            }
+            flushSets();
+            in.compact();
+            if (in.position() == 0 && in.capacity() > BUFFER_SIZE) in = loop.buffer(); // drop a grown buffer
+        }
+
+        /** Write out what we can; stop reading until a full socket buffer drains */
+        private void flush() throws IOException {
+            while (true) {
+                out.flip();
+                while (out.hasRemaining() && channel.write(out) > 0) {
+                    // keep going while the socket takes bytes
+                }
+                boolean pending = out.hasRemaining();
+                out.compact();
+                if (pending) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (closing) {
+                    close();
+                    return;
+                }
+                if (out.capacity() > BUFFER_SIZE) out = loop.buffer();
+                key.interestOps(SelectionKey.OP_READ);
+                if (!stalled) return;
+                execute(); // the rest of a pipeline that stopped at the high-water mark
+            }
+        }
+
+        /**
+         * Parse one command at {@code in.position()} into {@code args} and move past it; false if it
+         * hasn't arrived completely (with {@code need} set to its size when known).
+         */
+        private boolean parse() throws ProtocolException {
+            args.clear();
+            int start = in.position();
+            int limit = in.limit();
+            if (start >= limit) return false;
+            if (in.get(start) != '*') return parseInline(start, limit);
+
+            int eol = lineEnd(start + 1, limit);
+            if (eol < 0) return false;
+            long count = number(start + 1, eol);
+            int p = eol + 2;
+            if (count > MAX_ARGS) throw new ProtocolException("invalid multibulk length");
+            for (long i = 0; i < count; i++) {
+                if (p >= limit) return false;
+                if (in.get(p) != '$') throw new ProtocolException("expected '$', got '" + (char) in.get(p) + "'");
+                eol = lineEnd(p + 1, limit);
+                if (eol < 0) return false;
+                long length = number(p + 1, eol);
+                if (length < 0 || length > MAX_BULK) throw new ProtocolException("invalid bulk length");
+                int from = eol + 2;
+                if ((long) from + length + 2 > limit) {
+                    need = (int) Math.min(Integer.MAX_VALUE, from - start + length + 2);
+                    return false;
+                }
+                byte[] arg = new byte[(int) length];
+                in.get(from, arg);
+                p = from + (int) length;
+                if (in.get(p) != '\r' || in.get(p + 1) != '\n') throw new ProtocolException("bulk string not terminated");
+                args.add(arg);
+                p += 2;
+            }
+            in.position(p);
+            return true;
+        }
+
+        /** A command typed in plain text (telnet, nc): space-separated words up to the end of the line */
+        private boolean parseInline(int start, int limit) throws ProtocolException {
+            int eol = -1;
+            for (int i = start; i < limit; i++) {
+                if (in.get(i) == '\n') {
+                    eol = i;
+                    break;
+                }
+            }
+            if (eol < 0) {
+                if (limit - start > BUFFER_SIZE) throw new ProtocolException("too big inline request");
+                return false;
+            }
+            int end = eol > start && in.get(eol - 1) == '\r' ? eol - 1 : eol;
+            for (int i = start; i < end; ) {
+                while (i < end && in.get(i) == ' ') i++;
+                int from = i;
+                while (i < end && in.get(i) != ' ') i++;
+                if (i > from) {
+                    byte[] word = new byte[i - from];
+                    in.get(from, word);
+                    args.add(word);
+                }
+            }
+            in.position(eol + 1);
+            return true;
+        }
+
+        /** Index of the '\r' ending the line that starts at {@code from}, or -1 if it isn't all there */
+        private int lineEnd(int from, int limit) throws ProtocolException {
+            for (int i = from; i + 1 < limit; i++) {
+                if (in.get(i) == '\r') {
+                    if (in.get(i + 1) != '\n') throw new ProtocolException("expected CRLF");
+                    return i;
+                }
+                if (i - from > 20) throw new ProtocolException("invalid length");
+            }
+            return -1;
+        }
+
+        private long number(int from, int to) throws ProtocolException {
+            if (from == to) throw new ProtocolException("invalid length");
+            boolean negative = in.get(from) == '-';
+            long n = 0;
+            for (int i = negative ? from + 1 : from; i < to; i++) {
+                byte b = in.get(i);
+                if (b < '0' || b > '9') throw new ProtocolException("invalid length");
+                n = n * 10 + (b - '0');
+            }
+            return negative ? -n : n;
+        }
+
+        private void run(List<byte[]> args) {
+            String command = new String(args.get(0), StandardCharsets.US_ASCII).toUpperCase();
+            if (!command.equals("SET") || args.size() != 3) flushSets(); // replies stay in order
+            try {
+                switch (command) {
+                    case "GET" -> {
+                        if (arity(args, 2, 2)) get(key(args.get(1)));
+                    }
+                    case "SET" -> {
+                        if (arity(args, 3, 5)) set(args);
+                    }
+                    case "DEL" -> {
+                        if (arity(args, 2, Integer.MAX_VALUE)) del(args);
+                    }
+                    case "MGET" -> {
+                        if (arity(args, 2, Integer.MAX_VALUE)) mget(args);
+                    }
+                    case "PING" -> {
+                        if (!arity(args, 1, 2)) break;
+                        if (args.size() == 1) simple("PONG");
+                        else bulk(args.get(1));
+                    }
+                    case "ECHO" -> {
+                        if (arity(args, 2, 2)) bulk(args.get(1));
+                    }
+                    case "QUIT" -> {
+                        simple("OK");
+                        closing = true;
+                    }
+                    case "COMMAND", "CONFIG" -> put("*0\r\n");
+                    default -> error("unknown command '" + command + "'");
+                }
+            } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+                error(e.getMessage() == null ? e.toString() : e.getMessage());
+            }
+        }
+
+        private boolean arity(List<byte[]> args, int min, int max) {
+            if (args.size() >= min && args.size() <= max) return true;
+            error("wrong number of arguments for '" + new String(args.get(0), StandardCharsets.US_ASCII).toLowerCase() + "' command");
+            return false;
+        }
+
+        private void get(String key) throws IOException {
+            int mark = out.position();
+            boolean found;
+            try {
+                found = db.readInto(key, size -> {
+                    out.position(mark); // a retry starts over
+                    reserve(size + 24);
+                    out.put((byte) '$');
+                    putNumber(size);
+                    out.put(CRLF);
+                    return out;
+                });
+            } catch (IOException e) {
+                out.position(mark); // no half reply in front of the error
+                throw e;
+            }
+            if (found) {
+                out.put(CRLF);
+            } else {
+                put("$-1\r\n");
+            }
+        }
+
+        private void set(List<byte[]> args) throws IOException {
+            String key = key(args.get(1));
+            if (args.size() == 3) {
+                pendingSets.add(Map.entry(key, args.get(2)));
+                return;
+            }
+            String unit = new String(args.get(3), StandardCharsets.US_ASCII).toUpperCase();
+            if (args.size() != 5 || !(unit.equals("EX") || unit.equals("PX"))) {
+                error("syntax error");
+                return;
+            }
+            long amount;
+            try {
+                amount = Long.parseLong(new String(args.get(4), StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                error("value is not an integer or out of range");
+                return;
+            }
+            if (amount <= 0) {
+                error("invalid expire time in 'set' command");
+                return;
+            }
+            db.put(key, args.get(2), unit.equals("EX") ? Duration.ofSeconds(amount) : Duration.ofMillis(amount));
+            simple("OK");
+        }
+
+        /** Write the SETs collected so far, as one batch when there are several, and reply to each */
+        private void flushSets() {
+            if (pendingSets.isEmpty()) return;
+            int count = pendingSets.size();
+            String failure = null;
+            try {
+                if (count == 1) {
+                    db.put(pendingSets.get(0).getKey(), pendingSets.get(0).getValue());
+                } else {
+                    WriteBatch batch = new WriteBatch();
+                    for (var e : pendingSets) batch.put(e.getKey(), e.getValue());
+                    db.write(batch);
+                }
+            } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+                failure = e.getMessage() == null ? e.toString() : e.getMessage();
+            }
+            pendingSets.clear();
+            for (int i = 0; i < count; i++) {
+                if (failure == null) simple("OK");
+                else error(failure);
+            }
+        }
+
+        private void del(List<byte[]> args) throws IOException {
+            Set<String> keys = new HashSet<>();
+            for (int i = 1; i < args.size(); i++) keys.add(key(args.get(i)));
+            long removed = 0;
+            for (String key : keys) {
+                KeyDir.EntryMeta meta = db.metaOf(key);
+                if (meta == null || meta.flag == Entry.FLAG_TOMBSTONE || meta.expiredNow()) continue;
+                db.delete(key);
+                removed++;
+            }
+            integer(removed);
+        }
+
+        private void mget(List<byte[]> args) throws IOException {
+            List<String> keys = new ArrayList<>(args.size() - 1);
+            for (int i = 1; i < args.size(); i++) keys.add(key(args.get(i)));
+            Map<String, byte[]> values = db.multiGet(keys);
+            reserve(16);
+            out.put((byte) '*');
+            putNumber(keys.size());
+            out.put(CRLF);
+            for (String key : keys) {
+                byte[] value = values.get(key);
+                if (value == null) put("$-1\r\n");
+                else bulk(value);
+            }
+        }
+
+        private String key(byte[] arg) {
+            return new String(arg, StandardCharsets.UTF_8);
+        }
+
+        private void simple(String reply) {
+            reserve(reply.length() + 3);
+            out.put((byte) '+');
+            put(reply);
+            out.put(CRLF);
+        }
+
+        private void error(String message) {
+            put("-ERR " + message.replace('\r', ' ').replace('\n', ' ') + "\r\n");
+        }
+
+        private void integer(long n) {
+            reserve(24);
+            out.put((byte) ':');
+            putNumber(n);
+            out.put(CRLF);
+        }
+
+        private void bulk(byte[] value) {
+            reserve(value.length + 24);
+            out.put((byte) '$');
+            putNumber(value.length);
+            out.put(CRLF);
+            out.put(value);
+            out.put(CRLF);
+        }
+
+        private void put(String ascii) {
+            reserve(ascii.length());
+            for (int i = 0; i < ascii.length(); i++) out.put((byte) ascii.charAt(i));
+        }
+
+        /** Decimal digits of {@code n}, without going through a String */
+        private void putNumber(long n) {
+            if (n < 0) {
+                out.put((byte) '-');
+                n = -n;
+            }
+            int start = out.position();
+            do {
+                out.put((byte) ('0' + n % 10));
+                n /= 10;
+            } while (n > 0);
+            for (int i = start, j = out.position() - 1; i < j; i++, j--) {
+                byte t = out.get(i);
+                out.put(i, out.get(j));
+                out.put(j, t);
+            }
+        }
+
+        private void reserve(int bytes) {
+            if (out.remaining() < bytes) out = grow(out, Math.max(out.capacity() * 2, out.position() + bytes));
+        }
+
+        /** A larger buffer holding what {@code b} holds, in write mode */
+        private ByteBuffer grow(ByteBuffer b, long capacity) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect((int) Math.min(Integer.MAX_VALUE - 8, capacity));
+            b.flip();
+            bigger.put(b);
+            loop.recycle(b);
+            return bigger;
+        }
+
+        /** Like {@link #grow} for {@code in} while it is in read mode: the unparsed bytes move to a larger buffer, still readable */
+        private ByteBuffer growForRead(ByteBuffer b, int capacity) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(capacity);
+            bigger.put(b);
+            bigger.flip();
+            loop.recycle(b);
+            return bigger;
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            loop.recycle(in);
+            loop.recycle(out);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Loop loop : loops) {
+            loop.selector.wakeup();
+            try {
+                loop.thread.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
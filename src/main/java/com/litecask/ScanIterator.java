@@ -0,0 +1,92 @@
+package com.litecask;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * ScanIterator streams a key-ordered KeyDir range, optionally with values.
+ *
+ * Keys are pulled from the range a batch at a time, tombstones skipped. When values are wanted,
+ * each batch is read in (fileId, offset) order so the disk sees sequential reads, then handed
+ * out in key order again. A key deleted between the index walk and the read is skipped.
+ * I/O errors surface as UncheckedIOException.
+ */
+class ScanIterator implements Iterator<Map.Entry<String, byte[]>> {
+
+    /** Loads the value a KeyDir entry points at; null if the key is gone by now */
+    interface ValueLoader {
+        byte[] load(String key, KeyDir.EntryMeta meta) throws IOException;
+    }
+
+    private static final int BATCH_SIZE = 256;
+
+    private final Iterator<Map.Entry<String, KeyDir.EntryMeta>> range;
+    private final String prefix;       // stop at the first key without it; may be null
+    private final ValueLoader loader;  // null: keys only
+    private final ArrayDeque<Map.Entry<String, byte[]>> ready = new ArrayDeque<>();
+    private boolean exhausted;
+
+    ScanIterator(Iterator<Map.Entry<String, KeyDir.EntryMeta>> range, String prefix, ValueLoader loader) {
+        this.range = range;
+        this.prefix = prefix;
+        this.loader = loader;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (ready.isEmpty() && !exhausted) fill();
+        return !ready.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<String, byte[]> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return ready.poll();
+    }
+
+    private void fill() {
+        List<Map.Entry<String, KeyDir.EntryMeta>> batch = new ArrayList<>(BATCH_SIZE);
+        while (batch.size() < BATCH_SIZE) {
+            if (!range.hasNext()) {
+                exhausted = true;
+                break;
+            }
+            Map.Entry<String, KeyDir.EntryMeta> e = range.next();
+            if (prefix != null && !e.getKey().startsWith(prefix)) {
+                exhausted = true;
+                break;
+            }
+            if (e.getValue().flag == Entry.FLAG_TOMBSTONE || e.getValue().expiredNow()) continue;
+            batch.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue()));
+        }
+        if (loader == null) {
+            for (var e : batch) ready.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), null));
+            return;
+        }
+
+        Integer[] diskOrder = new Integer[batch.size()];
+        for (int i = 0; i < diskOrder.length; i++) diskOrder[i] = i;
+        java.util.Arrays.sort(diskOrder, Comparator
+                .comparingInt((Integer i) -> batch.get(i).getValue().fileId)
+                .thenComparingLong(i -> batch.get(i).getValue().valueOffset));
+        byte[][] values = new byte[batch.size()][];
+        try {
+            for (int i : diskOrder) {
+                values[i] = loader.load(batch.get(i).getKey(), batch.get(i).getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) ready.add(new AbstractMap.SimpleImmutableEntry<>(batch.get(i).getKey(), values[i]));
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.litecask;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ShardedLiteCask spreads keys by hash over N independent LiteCask instances, one per
+ * subdirectory ({@code shard-000}, {@code shard-001}, ...).
+ *
+ * <ul>
+ *   <li>Every shard has its own active file, group-commit writer, fsyncs, KeyDir and background
+ *       compaction, so writes to different shards never wait on each other and can keep several
+ *       disk queues busy.</li>
+ *   <li>The shard count is fixed when the store is created and recorded in a {@value #MANIFEST}
+ *       file; opening with a different count, or opening a plain LiteCask directory, fails
+ *       instead of routing keys to the wrong shard.</li>
+ *   <li>Whole-store operations (open, {@link #keys()}, {@link #multiGet}, {@link #merge()},
+ *       {@link #checkpoint()}, {@link #close()}) run on all shards in parallel.</li>
+ *   <li>A {@link WriteBatch} stays atomic only within one shard, so a batch whose keys hash to
+ *       different shards is rejected.</li>
+ * </ul>
+ */
+public class ShardedLiteCask implements Closeable {
+
+    static final String MANIFEST = "SHARDS";
+    private static final int MANIFEST_FORMAT = 1;
+    private static final int MAX_SHARDS = 1024;
+
+    private final File dir;
+    private final LiteCask[] shards;
+    private final ExecutorService pool;
+
+    private ShardedLiteCask(File dir, int shardCount, boolean writable, LiteCaskOptions options) throws IOException {
+        this.dir = dir;
+        this.shards = new LiteCask[shardCount];
+        AtomicInteger threadIds = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(shardCount, r -> {
+            Thread t = new Thread(r, "litecask-shard-" + threadIds.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            forEachShard(i -> shards[i] = LiteCask.open(shardDir(i).getPath(), writable, options));
+        } catch (IOException | RuntimeException e) {
+            closeAll(e); // the shards that did open
+            throw e;
+        }
+    }
+
+    /**
+     * Open the sharded store at {@code dir}, creating it with {@code shardCount} shards if it
+     * doesn't exist yet. An existing store must have been created with the same count.
+     */
+    public static ShardedLiteCask open(String dir, int shardCount, boolean writable, LiteCaskOptions options) throws IOException {
+        if (shardCount < 1 || shardCount > MAX_SHARDS) {
+            throw new IllegalArgumentException("shardCount must be between 1 and " + MAX_SHARDS + ": " + shardCount);
+        }
+        File root = new File(dir);
+        Integer existing = readManifest(root);
+        if (existing == null) {
+            if (!writable) throw new FileNotFoundException("No sharded LiteCask at " + root);
+            createManifest(root, shardCount);
+        } else if (existing != shardCount) {
+            throw new IOException(root + " has " + existing + " shards, not " + shardCount + "; resharding is not supported");
+        }
+        return new ShardedLiteCask(root, shardCount, writable, options);
+    }
+
+    /** Open an existing sharded store with the shard count from its manifest */
+    public static ShardedLiteCask open(String dir, boolean writable, LiteCaskOptions options) throws IOException {
+        File root = new File(dir);
+        Integer existing = readManifest(root);
+        if (existing == null) throw new FileNotFoundException("No sharded LiteCask at " + root);
+        return new ShardedLiteCask(root, existing, writable, options);
+    }
+
+    /** Shard count from the manifest; null if there is none */
+    private static Integer readManifest(File root) throws IOException {
+        File manifest = new File(root, MANIFEST);
+        if (!manifest.exists()) return null;
+        Properties p = new Properties();
+        try (Reader in = new FileReader(manifest, java.nio.charset.StandardCharsets.UTF_8)) {
+            p.load(in);
+        }
+        try {
+            int format = Integer.parseInt(p.getProperty("format", "0"));
+            if (format != MANIFEST_FORMAT) throw new IOException("Unsupported shard manifest format " + format + " in " + manifest);
+            int shards = Integer.parseInt(p.getProperty("shards", "0"));
+            if (shards < 1 || shards > MAX_SHARDS) throw new IOException("Bad shard count " + shards + " in " + manifest);
+            return shards;
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt shard manifest " + manifest, e);
+        }
+    }
+
+    /** Write the manifest of a new store: to a temp file first, then renamed into place */
+    private static void createManifest(File root, int shardCount) throws IOException {
+        if (!root.exists()) root.mkdirs();
+        File[] stray = root.listFiles((d, n) -> n.endsWith(".dat") || n.equals("LOCK"));
+        if (stray != null && stray.length > 0) {
+            throw new IOException(root + " holds an unsharded LiteCask; open it with LiteCask.open");
+        }
+        Properties p = new Properties();
+        p.setProperty("format", Integer.toString(MANIFEST_FORMAT));
+        p.setProperty("shards", Integer.toString(shardCount));
+        p.setProperty("hash", "murmur3-fmix32(String.hashCode) mod shards");
+        File tmp = new File(root, MANIFEST + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            p.store(new OutputStreamWriter(out, java.nio.charset.StandardCharsets.UTF_8), "LiteCask shard layout, do not edit");
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), new File(root, MANIFEST).toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File shardDir(int shard) {
+        return new File(dir, String.format("shard-%03d", shard));
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /** The instance that holds {@code key}; its stats(), scans and other per-instance operations apply to that shard only */
+    public LiteCask shardFor(String key) {
+        return shards[shardOf(key, shards.length)];
+    }
+
+    /** Shard {@code index}, 0 to shardCount() - 1 */
+    public LiteCask shard(int index) {
+        return shards[index];
+    }
+
+    /**
+     * String.hashCode is fixed by the Java spec, so this is stable across JVMs and restarts. The
+     * finalizer of murmur3 spreads it out, since keys like "user:1", "user:2" differ in few bits.
+     */
+    static int shardOf(String key, int shardCount) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, shardCount);
+    }
+
+    public void put(String key, byte[] value) throws IOException {
+        shardFor(key).put(key, value);
+    }
+
+    public void put(String key, byte[] value, Duration ttl) throws IOException {
+        shardFor(key).put(key, value, ttl);
+    }
+
+    public byte[] get(String key) throws IOException {
+        return shardFor(key).get(key);
+    }
+
+    public ValueRef lookup(String key) throws IOException {
+        return shardFor(key).lookup(key);
+    }
+
+    public void delete(String key) throws IOException {
+        shardFor(key).delete(key);
+    }
+
+    /** Apply a batch atomically; all of its keys must belong to the same shard */
+    public void write(WriteBatch batch) throws IOException {
+        if (batch.isEmpty()) return;
+        int shard = -1;
+        for (Entry e : batch.entries()) {
+            int s = shardOf(e.key, shards.length);
+            if (shard >= 0 && s != shard) {
+                throw new IllegalArgumentException("WriteBatch spans shards " + shard + " and " + s + ", it can only be atomic within one");
+            }
+            shard = s;
+        }
+        shards[shard].write(batch);
+    }
+
+    /** Values of many keys, in the order given, absent keys left out; each shard reads its part in parallel */
+    public Map<String, byte[]> multiGet(Collection<String> keys) throws IOException {
+        List<List<String>> byShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) byShard.add(new ArrayList<>());
+        for (String key : keys) byShard.get(shardOf(key, shards.length)).add(key);
+
+        List<Map<String, byte[]>> parts = fanOut(i -> byShard.get(i).isEmpty() ? Map.of() : shards[i].multiGet(byShard.get(i)));
+        Map<String, byte[]> found = new LinkedHashMap<>();
+        for (String key : keys) {
+            byte[] value = parts.get(shardOf(key, shards.length)).get(key);
+            if (value != null) found.put(key, value);
+        }
+        return found;
+    }
+
+    /** All keys, collected from the shards in parallel */
+    public Set<String> keys() throws IOException {
+        Set<String> all = new HashSet<>();
+        for (Set<String> part : fanOut(i -> shards[i].keys())) all.addAll(part);
+        return all;
+    }
+
+    /** Merge every shard; shards merge in parallel, each on its own files */
+    public void merge() throws IOException {
+        forEachShard(i -> shards[i].merge());
+    }
+
+    public void checkpoint() throws IOException {
+        forEachShard(i -> shards[i].checkpoint());
+    }
+
+    /** Close every shard, even if some fail; the first failure is thrown */
+    @Override
+    public void close() throws IOException {
+        try {
+            forEachShard(i -> {
+                if (shards[i] != null) shards[i].close();
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void closeAll(Exception cause) {
+        for (LiteCask shard : shards) {
+            if (shard == null) continue;
+            try {
+                shard.close();
+            } catch (IOException | RuntimeException e) {
+                cause.addSuppressed(e);
+            }
+        }
+        pool.shutdown();
+    }
+
+    private interface ShardTask<T> {
+        T run(int shard) throws IOException;
+    }
+
+    private interface ShardAction {
+        void run(int shard) throws IOException;
+    }
+
+    private void forEachShard(ShardAction action) throws IOException {
+        fanOut(i -> {
+            action.run(i);
+            return null;
+        });
+    }
+
+    /** Run {@code task} for every shard on the pool and wait for all of them, results in shard order */
+    private <T> List<T> fanOut(ShardTask<T> task) throws IOException {
+        List<Future<T>> futures = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            int shard = i;
+            futures.add(pool.submit(() -> task.run(shard)));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        Throwable failure = null;
+        for (Future<T> f : futures) {
+            try {
+                results.add(f.get());
+            } catch (ExecutionException e) {
+                if (failure == null) failure = e.getCause();
+                else failure.addSuppressed(e.getCause());
+                results.add(null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for shards");
+            }
+        }
+        if (failure instanceof IOException io) throw io;
+        if (failure instanceof RuntimeException re) throw re;
+        if (failure instanceof Error err) throw err;
+        return results;
+    }
+}
@@ -0,0 +1,150 @@
+package com.litecask;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot is a point-in-time view of a LiteCask, taken with {@link LiteCask#snapshot()} while
+ * reads and writes go on.
+ *
+ * <ul>
+ *   <li>It holds a copy of KeyDir as of a position in the log: every write that reserved its
+ *       place before that position is in it, none after. Writes, deletes and merges that come
+ *       later don't change what it returns.</li>
+ *   <li>It pins every data file up to that position. A merge that rewrites one of them leaves
+ *       the file in place until the snapshot is closed, so its values stay readable.</li>
+ *   <li>{@link #backupTo} turns it into a directory a LiteCask opens as of the snapshot: rotated
+ *       data and hint files are hard-linked (they never change again), only the part of the file
+ *       being written at the time is copied, and a checkpoint of the copied KeyDir is added.</li>
+ * </ul>
+ *
+ * Values that expire while the snapshot is open disappear from it, as they would from a backup
+ * restored later. Close it when done: pinned files hold disk space.
+ */
+public final class Snapshot implements Closeable, Iterable<Map.Entry<String, byte[]>> {
+
+    private final LiteCask db;
+    private final File dataDir;
+    private final Map<String, KeyDir.EntryMeta> view;
+    private final List<Integer> files;
+    private final Checkpointer.Position position;
+    private final FilePins pins;
+    private List<Map.Entry<String, KeyDir.EntryMeta>> sorted;
+    private boolean closed;
+
+    Snapshot(LiteCask db, File dataDir, Map<String, KeyDir.EntryMeta> view, List<Integer> files,
+             Checkpointer.Position position, FilePins pins) {
+        this.db = db;
+        this.dataDir = dataDir;
+        this.view = view;
+        this.files = files;
+        this.position = position;
+        this.pins = pins;
+    }
+
+    /** The value of {@code key} when the snapshot was taken, or null */
+    public byte[] get(String key) throws IOException {
+        ensureOpen();
+        KeyDir.EntryMeta meta = view.get(key);
+        if (meta == null || meta.flag == Entry.FLAG_TOMBSTONE || meta.expiredNow()) return null;
+        return db.readStored(meta);
+    }
+
+    /** Live keys in order */
+    public Iterator<String> keys() {
+        Iterator<Map.Entry<String, byte[]>> entries = new ScanIterator(sorted().iterator(), null, null);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return entries.next().getKey();
+            }
+        };
+    }
+
+    /** Live keys with their values, in key order; values are read in file-offset order a batch at a time */
+    @Override
+    public Iterator<Map.Entry<String, byte[]>> iterator() {
+        return new ScanIterator(sorted().iterator(), null, (key, meta) -> db.readStored(meta));
+    }
+
+    private synchronized List<Map.Entry<String, KeyDir.EntryMeta>> sorted() {
+        ensureOpen();
+        if (sorted == null) {
+            sorted = new ArrayList<>(view.entrySet());
+            sorted.sort(Map.Entry.comparingByKey());
+        }
+        return sorted;
+    }
+
+    /**
+     * Write a backup of the snapshot to {@code dir}, which must be empty or not exist yet. Takes
+     * time in the number of files and keys, not in the size of the store; it must be on the same
+     * file system for the hard links, otherwise rotated files are copied too.
+     */
+    public void backupTo(String dir) throws IOException {
+        ensureOpen();
+        File target = new File(dir);
+        String[] existing = target.list();
+        if (existing != null && existing.length > 0) throw new IOException(dir + " is not empty");
+        if (!target.isDirectory() && !target.mkdirs()) throw new IOException("Cannot create " + target);
+
+        for (int fileId : files) {
+            File data = new File(dataDir, "data" + fileId + ".dat");
+            if (fileId < position.fileId) {
+                link(data, new File(target, data.getName()));
+                File hint = new File(dataDir, "data" + fileId + ".hint");
+                if (hint.exists()) link(hint, new File(target, hint.getName()));
+            } else {
+                // still being written: just the part before the snapshot, its hint is left behind
+                copy(data, new File(target, data.getName()), position.offset);
+            }
+        }
+        new Checkpointer(target).writeFull(position, view.entrySet());
+    }
+
+    private static void link(File source, File link) throws IOException {
+        try {
+            Files.createLink(link.toPath(), source.toPath());
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            copy(source, link, source.length()); // another file system
+        }
+    }
+
+    private static void copy(File source, File target, long length) throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (long pos = 0; pos < length; ) {
+                long n = in.transferTo(pos, length - pos, out);
+                if (n <= 0) throw new java.io.EOFException(source + " is shorter than " + length);
+                pos += n;
+            }
+            out.force(true);
+        }
+    }
+
+    private synchronized void ensureOpen() {
+        if (closed) throw new IllegalStateException("snapshot is closed");
+    }
+
+    /** Unpin the data files; the ones merged away in the meantime are deleted now */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        pins.unpin(files);
+    }
+}
@@ -0,0 +1,55 @@
+package com.litecask;
+
+/**
+ * SyncPolicy decides when appended records are forced to disk.
+ * Writers always hand their bytes to the OS before a put/delete returns,
+ * the policy only controls how often the data file is fsync'ed.
+ */
+public final class SyncPolicy {
+
+    public enum Mode {
+        /** fsync before every put/delete returns (concurrent writers share one fsync) */
+        ALWAYS,
+        /** fsync in the background every N milliseconds */
+        INTERVAL,
+        /** fsync once N bytes have been written since the last sync */
+        BYTES,
+        /** never fsync explicitly, leave it to the OS */
+        NONE
+    }
+
+    public final Mode mode;
+    public final long value;
+
+    private SyncPolicy(Mode mode, long value) {
+        this.mode = mode;
+        this.value = value;
+    }
+
+    public static SyncPolicy always() {
+        return new SyncPolicy(Mode.ALWAYS, 0);
+    }
+
+    public static SyncPolicy everyMillis(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("millis must be > 0");
+        return new SyncPolicy(Mode.INTERVAL, millis);
+    }
+
+    public static SyncPolicy everyBytes(long bytes) {
+        if (bytes <= 0) throw new IllegalArgumentException("bytes must be > 0");
+        return new SyncPolicy(Mode.BYTES, bytes);
+    }
+
+    public static SyncPolicy none() {
+        return new SyncPolicy(Mode.NONE, 0);
+    }
+
+    @Override
+    public String toString() {
+        switch (mode) {
+            case INTERVAL: return "every " + value + "ms";
+            case BYTES:    return "every " + value + " bytes";
+            default:       return mode.name().toLowerCase();
+        }
+    }
+}
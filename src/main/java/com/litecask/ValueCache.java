@@ -0,0 +1,246 @@
+package com.litecask;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ValueCache keeps recently read values in memory so hot keys never reach the file system.
+ *
+ * <ul>
+ *   <li>Bounded by total bytes (value plus a per-entry overhead estimate), not entry count.</li>
+ *   <li>Segmented LRU: new values land in a probation segment and are promoted to the protected
+ *       segment on their second hit, so a one-off scan only churns probation.</li>
+ *   <li>TinyLFU admission: when the cache is full, a new value only evicts the LRU victim if
+ *       it has been requested more often recently (a small count-min sketch with periodic aging).</li>
+ *   <li>Every cached value remembers the KeyDir metadata it was read at; a lookup with different
+ *       metadata is a miss. Writes and merge relocations also invalidate the key explicitly.</li>
+ * </ul>
+ *
+ * The cache is split into independently locked segments by key hash.
+ */
+public class ValueCache {
+
+    /** Rough heap cost of an entry besides its value: node, map entry, key, meta */
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long capacityBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public ValueCache(long capacityBytes) {
+        if (capacityBytes <= 0) throw new IllegalArgumentException("capacityBytes must be > 0");
+        this.capacityBytes = capacityBytes;
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(Math.max(1, capacityBytes / SEGMENTS));
+    }
+
+    /** Cached value of {@code key} if it was read at {@code meta}, else null. Do not modify the result. */
+    byte[] get(String key, KeyDir.EntryMeta meta) {
+        int h = spread(key.hashCode());
+        byte[] value = segmentFor(h).get(key, h, meta);
+        if (value == null) misses.increment();
+        else hits.increment();
+        return value;
+    }
+
+    /** Offer a value just read from disk at {@code meta}; it may be rejected by admission */
+    void put(String key, KeyDir.EntryMeta meta, byte[] value) {
+        int h = spread(key.hashCode());
+        segmentFor(h).put(key, h, meta, value);
+    }
+
+    /** Drop the key (it was written, deleted or relocated) */
+    void invalidate(String key) {
+        int h = spread(key.hashCode());
+        segmentFor(h).invalidate(key);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Entries pushed out to make room */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /** Values not admitted because the entry they would replace was used more often */
+    public long rejections() {
+        return rejections.sum();
+    }
+
+    public long capacityBytes() {
+        return capacityBytes;
+    }
+
+    /** Bytes currently accounted to cached entries */
+    public long sizeBytes() {
+        long size = 0;
+        for (Segment s : segments) size += s.sizeBytes();
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "ValueCache{hits=" + hits() + ", misses=" + misses() + ", evictions=" + evictions()
+                + ", rejections=" + rejections() + ", bytes=" + sizeBytes() + "/" + capacityBytes + "}";
+    }
+
+    private Segment segmentFor(int h) {
+        return segments[(h >>> 28) & (SEGMENTS - 1)];
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Node {
+        final KeyDir.EntryMeta meta;
+        final byte[] value;
+        final long weight;
+
+        Node(String key, KeyDir.EntryMeta meta, byte[] value) {
+            this.meta = meta;
+            this.value = value;
+            this.weight = value.length + 2L * key.length() + ENTRY_OVERHEAD;
+        }
+    }
+
+    private final class Segment {
+        private final long capacity;
+        private final long protectedCapacity;
+        // access-ordered: iteration starts at the least recently used entry
+        private final LinkedHashMap<String, Node> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, Node> protectedSeg = new LinkedHashMap<>(16, 0.75f, true);
+        private long probationBytes;
+        private long protectedBytes;
+        private final FrequencySketch sketch;
+
+        Segment(long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = capacity / 5 * 4;
+            this.sketch = new FrequencySketch(capacity / 256);
+        }
+
+        synchronized long sizeBytes() {
+            return probationBytes + protectedBytes;
+        }
+
+        synchronized byte[] get(String key, int h, KeyDir.EntryMeta meta) {
+            sketch.increment(h);
+            Node n = protectedSeg.get(key);
+            if (n == null) {
+                n = probation.remove(key);
+                if (n == null) return null;
+                probationBytes -= n.weight;
+                if (!n.meta.equals(meta)) return null; // stale: key changed since it was cached
+                promote(key, n);
+                return n.value;
+            }
+            if (!n.meta.equals(meta)) {
+                protectedSeg.remove(key);
+                protectedBytes -= n.weight;
+                return null;
+            }
+            return n.value;
+        }
+
+        synchronized void put(String key, int h, KeyDir.EntryMeta meta, byte[] value) {
+            Node n = new Node(key, meta, value);
+            if (n.weight > capacity / 2) return; // one value must not flush the whole segment
+            invalidate(key);
+
+            while (probationBytes + protectedBytes + n.weight > capacity) {
+                LinkedHashMap<String, Node> from = probation.isEmpty() ? protectedSeg : probation;
+                var victim = from.entrySet().iterator().next();
+                if (sketch.frequency(h) <= sketch.frequency(spread(victim.getKey().hashCode()))) {
+                    rejections.increment();
+                    return;
+                }
+                remove(from, victim.getKey());
+                evictions.increment();
+            }
+            probation.put(key, n);
+            probationBytes += n.weight;
+        }
+
+        synchronized void invalidate(String key) {
+            if (remove(probation, key) == null) remove(protectedSeg, key);
+        }
+
+        private Node remove(LinkedHashMap<String, Node> segment, String key) {
+            Node n = segment.remove(key);
+            if (n != null) {
+                if (segment == probation) probationBytes -= n.weight;
+                else protectedBytes -= n.weight;
+            }
+            return n;
+        }
+
+        /** Move a probation entry that was hit again into protected, demoting protected's LRU if full */
+        private void promote(String key, Node n) {
+            protectedSeg.put(key, n);
+            protectedBytes += n.weight;
+            Iterator<java.util.Map.Entry<String, Node>> lru = protectedSeg.entrySet().iterator();
+            while (protectedBytes > protectedCapacity && lru.hasNext()) {
+                var demoted = lru.next();
+                if (demoted.getValue() == n) break;
+                lru.remove();
+                protectedBytes -= demoted.getValue().weight;
+                probation.put(demoted.getKey(), demoted.getValue());
+                probationBytes += demoted.getValue().weight;
+            }
+        }
+    }
+
+    /**
+     * Count-min sketch of recent access frequency with 4-bit saturating counters. All counters
+     * are halved after a sample period so popularity from long ago fades out.
+     */
+    static final class FrequencySketch {
+        private final byte[] table;
+        private final int mask;
+        private final int samplePeriod;
+        private int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int width = Integer.highestOneBit((int) Math.min(1 << 24, Math.max(256, expectedEntries * 4)) - 1) << 1;
+            this.table = new byte[width];
+            this.mask = width - 1;
+            this.samplePeriod = width * 10 / 4;
+        }
+
+        int frequency(int h) {
+            int min = 15;
+            for (int i = 0; i < 4; i++) min = Math.min(min, table[index(h, i)]);
+            return min;
+        }
+
+        void increment(int h) {
+            for (int i = 0; i < 4; i++) {
+                int idx = index(h, i);
+                if (table[idx] < 15) table[idx]++;
+            }
+            if (++additions >= samplePeriod) {
+                for (int i = 0; i < table.length; i++) table[i] >>= 1;
+                additions /= 2;
+            }
+        }
+
+        private int index(int h, int i) {
+            int x = (h + i * 0x9E3779B9) * 0x85EBCA6B;
+            return (x ^ (x >>> 15)) & mask;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.litecask;
+
+import java.io.IOException;
+
+/**
+ * A value compression codec. The codec's id is stored in the record's flag byte, so a store can
+ * always read back what it wrote as long as the codec is known when it is opened: the built-in
+ * codecs always are, a custom one must be passed to {@link LiteCaskOptions#compression}.
+ */
+public interface ValueCodec {
+
+    /** Pure-Java LZ77 codec: fast, moderate ratio */
+    ValueCodec LZ = new LzCodec();
+    /** {@link java.util.zip.Deflater} at its fastest level: slower, better ratio */
+    ValueCodec DEFLATE = new DeflateCodec(java.util.zip.Deflater.BEST_SPEED);
+
+    /** Id stored with every compressed record, 1 to 15; 1 and 2 are taken by the built-in codecs */
+    int id();
+
+    String name();
+
+    byte[] compress(byte[] value);
+
+    byte[] decompress(byte[] stored) throws IOException;
+}
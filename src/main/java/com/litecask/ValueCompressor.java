@@ -0,0 +1,50 @@
+package com.litecask;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ValueCompressor decides per value whether storing it compressed is worth it.
+ *
+ * <ul>
+ *   <li>Values below the size threshold are stored raw: the header costs more than it saves.</li>
+ *   <li>A compressed value is only kept if it is at least 1/8 smaller than the raw one.</li>
+ *   <li>Adaptive: after a run of values that didn't compress, only every 16th eligible value is
+ *       tried until one compresses again, so incompressible data (images, already compressed
+ *       blobs) costs almost no CPU.</li>
+ * </ul>
+ */
+class ValueCompressor {
+
+    private static final int MISS_STREAK = 16;
+    private static final int PROBE_EVERY = 16;
+
+    private final ValueCodec codec;
+    private final int minSize;
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    final LongAdder rawBytes = new LongAdder();    // input of values stored compressed
+    final LongAdder storedBytes = new LongAdder(); // what they were stored as
+
+    ValueCompressor(ValueCodec codec, int minSize) {
+        this.codec = codec;
+        this.minSize = minSize;
+    }
+
+    /** The entry to write for a put: compressed (codec id in the flag) or unchanged */
+    Entry prepare(Entry entry) {
+        if (Entry.type(entry.flag) != Entry.FLAG_PUT || entry.value.length < minSize) return entry;
+        if (misses.get() >= MISS_STREAK && skipped.incrementAndGet() % PROBE_EVERY != 0) return entry;
+
+        byte[] compressed = codec.compress(entry.value);
+        if (compressed.length > entry.value.length - entry.value.length / 8) {
+            misses.incrementAndGet();
+            return entry;
+        }
+        misses.set(0);
+        rawBytes.add(entry.value.length);
+        storedBytes.add(compressed.length);
+        return new Entry(entry.key, compressed, Entry.withCodec(entry.flag, codec.id()), entry.expiresAt);
+    }
+}
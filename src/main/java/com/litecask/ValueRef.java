@@ -0,0 +1,102 @@
+package com.litecask;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * ValueRef pins one version of a value so it can be streamed without loading it onto the heap.
+ *
+ * It holds its own read channel on the data file, so the value stays readable even if a merge
+ * deletes the file in the meantime. Values served from the value cache are written from memory.
+ * Obtain one with {@link LiteCask#lookup(String)} and close it when done.
+ *
+ * It is also a channel bounded to the value: {@link #read(ByteBuffer)} goes from the first byte
+ * of the value to its last and then returns -1, never into the next record.
+ */
+public final class ValueRef implements Closeable, ReadableByteChannel {
+
+    private final FileChannel channel; // null when the value came from the cache
+    private final byte[] bytes;
+    private final long offset;
+    private final long size;
+    private long position; // of read(), relative to the value
+    private boolean closed;
+
+    ValueRef(FileChannel channel, long offset, long size) {
+        this.channel = channel;
+        this.bytes = null;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    ValueRef(byte[] bytes) {
+        this.channel = null;
+        this.bytes = bytes;
+        this.offset = 0;
+        this.size = bytes.length;
+    }
+
+    /** Value length in bytes */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Write the whole value to {@code target}. From a file this is FileChannel.transferTo, which
+     * lets the kernel move the bytes (sendfile for sockets, a small direct buffer otherwise).
+     */
+    public void transferTo(WritableByteChannel target) throws IOException {
+        if (channel == null) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+            while (buf.hasRemaining()) target.write(buf);
+            return;
+        }
+        long pos = offset;
+        long end = offset + size;
+        while (pos < end) {
+            long n = channel.transferTo(pos, end - pos, target);
+            if (n <= 0 && pos >= channel.size()) {
+                throw new EOFException("Unexpected end of data file at " + pos);
+            }
+            pos += n;
+        }
+    }
+
+    /** Read the next bytes of the value into {@code dst}; -1 once all of it has been read */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (closed) throw new ClosedChannelException();
+        if (position >= size) return -1;
+        int n = (int) Math.min(dst.remaining(), size - position);
+        if (channel == null) {
+            dst.put(bytes, (int) position, n);
+        } else {
+            ByteBuffer window = dst.slice(dst.position(), n);
+            while (window.hasRemaining()) {
+                if (channel.read(window, offset + position + window.position()) < 0) {
+                    throw new EOFException("Unexpected end of data file at " + (offset + position + window.position()));
+                }
+            }
+            dst.position(dst.position() + n);
+        }
+        position += n;
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (channel != null) channel.close();
+    }
+}
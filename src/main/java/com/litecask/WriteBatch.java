@@ -0,0 +1,67 @@
+package com.litecask;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of puts and deletes written atomically by {@link LiteCask#write(WriteBatch)}.
+ *
+ * The batch is appended as one framed block with a single sync: a batch header entry
+ * (empty key, flag {@link Entry#FLAG_BATCH}, valueLength = size of the block, CRC over the
+ * block) followed by the ordinary entries. KeyDir only sees the entries after the block is committed, and
+ * recovery drops a block that isn't completely on disk, so a batch is all-or-nothing on disk.
+ *
+ * It is not isolated: the entries are then published to KeyDir one by one, and a concurrent
+ * reader may see some of a batch's changes but not yet the others.
+ */
+public class WriteBatch {
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    public WriteBatch put(String key, byte[] value) {
+        if (value == null) throw new IllegalArgumentException("value must not be null, use delete()");
+        entries.add(new Entry(key, value, Entry.FLAG_PUT));
+        return this;
+    }
+
+    /** Put a value that expires {@code ttl} from now (see {@link LiteCask#put(String, byte[], java.time.Duration)}) */
+    public WriteBatch put(String key, byte[] value, java.time.Duration ttl) {
+        if (value == null) throw new IllegalArgumentException("value must not be null, use delete()");
+        entries.add(new Entry(key, value, Entry.FLAG_PUT, LiteCask.expiryFor(ttl)));
+        return this;
+    }
+
+    public WriteBatch delete(String key) {
+        entries.add(new Entry(key, null, Entry.FLAG_TOMBSTONE));
+        return this;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    List<Entry> entries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Serialize {@code entries} (this batch's, possibly with compressed values) as header + entries,
+     * in the order they were added. The header takes
+     * {@code firstSeq}, the entries the following sequence numbers; the header's CRC covers the
+     * whole block.
+     */
+    static byte[] toFrame(List<Entry> entries, long firstSeq) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        long seq = firstSeq;
+        for (Entry e : entries) {
+            body.writeBytes(e.toBytes(++seq));
+        }
+        return Entry.encode(firstSeq, new byte[0], body.toByteArray(), Entry.FLAG_BATCH);
+    }
+}
@@ -0,0 +1,91 @@
+package com.litecask;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Compares value codecs on JSON-like values: bytes on disk, bytes saved, and the CPU cost of
+ * puts and gets.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.litecask.CompressionBenchmark
+ * Optional args: [keys] [minValueSize]
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int minSize = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        byte[][] values = new byte[keys][];
+        Random random = new Random(42);
+        long raw = 0;
+        for (int i = 0; i < keys; i++) {
+            values[i] = json(i, random);
+            raw += values[i].length;
+        }
+
+        System.out.printf("keys=%d rawValueBytes=%d minValueSize=%d%n", keys, raw, minSize);
+        System.out.printf("%-10s %14s %10s %14s %14s%n", "codec", "dataBytes", "saved", "put ns/op", "get ns/op");
+        run("none", null, minSize, values);
+        run("lz", ValueCodec.LZ, minSize, values);
+        run("deflate", ValueCodec.DEFLATE, minSize, values);
+    }
+
+    private static void run(String name, ValueCodec codec, int minSize, byte[][] values) throws Exception {
+        File dir = Files.createTempDirectory("litecask-compression").toFile();
+        LiteCaskOptions options = LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none());
+        if (codec != null) options.compression(codec, minSize);
+        LiteCask db = LiteCask.open(dir.getAbsolutePath(), true, options);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < values.length; i++) db.put(key(i), values[i]);
+        double putNs = (double) (System.nanoTime() - start) / values.length;
+
+        start = System.nanoTime();
+        for (int i = 0; i < values.length; i++) {
+            if (db.get(key(i)).length != values[i].length) throw new IllegalStateException("bad value for " + key(i));
+        }
+        double getNs = (double) (System.nanoTime() - start) / values.length;
+        db.close();
+
+        long dataBytes = 0;
+        for (File f : dir.listFiles((d, n) -> n.endsWith(".dat"))) dataBytes += f.length();
+        long base = baseline == 0 ? dataBytes : baseline;
+        if (baseline == 0) baseline = dataBytes;
+        System.out.printf("%-10s %14d %9.1f%% %14.0f %14.0f%n", name, dataBytes,
+                100.0 * (base - dataBytes) / base, putNs, getNs);
+        deleteRecursively(dir);
+    }
+
+    private static long baseline;
+
+    /** A small JSON document with repeated field names and some random content */
+    private static byte[] json(int i, Random random) {
+        StringBuilder sb = new StringBuilder("{\"id\":").append(i)
+                .append(",\"user\":{\"name\":\"user").append(random.nextInt(10_000))
+                .append("\",\"email\":\"user").append(random.nextInt(10_000)).append("@example.com\"")
+                .append(",\"active\":").append(random.nextBoolean()).append("},\"tags\":[");
+        int tags = 1 + random.nextInt(5);
+        for (int t = 0; t < tags; t++) sb.append(t == 0 ? "" : ",").append("\"tag").append(random.nextInt(50)).append('"');
+        sb.append("],\"events\":[");
+        int events = 2 + random.nextInt(6);
+        for (int e = 0; e < events; e++) {
+            sb.append(e == 0 ? "" : ",").append("{\"type\":\"click\",\"ts\":").append(1_700_000_000L + random.nextInt(1_000_000))
+                    .append(",\"page\":\"/products/").append(random.nextInt(500)).append("\"}");
+        }
+        return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String key(int i) {
+        return String.format("key%09d", i);
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            for (File c : f.listFiles()) deleteRecursively(c);
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,68 @@
+package com.litecask;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares put throughput across SyncPolicy modes.
+ * "per-record sync" is the old behaviour: one writer thread, one fsync per put.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.litecask.DurabilityBenchmark
+ * Optional args: [threads] [putsPerThread] [valueSize]
+ */
+public class DurabilityBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int valueSize = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+
+        System.out.printf("threads=%d putsPerThread=%d valueSize=%d%n", threads, perThread, valueSize);
+        System.out.printf("%-28s %12s%n", "mode", "ops/sec");
+
+        run("per-record sync (1 thread)", SyncPolicy.always(), 1, perThread * 4, valueSize);
+        run("always (group commit)", SyncPolicy.always(), threads, perThread, valueSize);
+        run("every 10ms", SyncPolicy.everyMillis(10), threads, perThread, valueSize);
+        run("every 1MB", SyncPolicy.everyBytes(1 << 20), threads, perThread, valueSize);
+        run("none (OS)", SyncPolicy.none(), threads, perThread, valueSize);
+    }
+
+    private static void run(String name, SyncPolicy policy, int threads, int perThread, int valueSize) throws Exception {
+        File dir = Files.createTempDirectory("litecask-bench").toFile();
+        byte[] value = new byte[valueSize];
+        LiteCask db = LiteCask.open(dir.getAbsolutePath(), true, LiteCaskOptions.defaults().syncPolicy(policy));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    db.put("k" + id + "-" + i, value);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        db.close();
+
+        double opsPerSec = (double) threads * perThread / (elapsed / 1e9);
+        System.out.printf("%-28s %12.0f%n", name, opsPerSec);
+        deleteRecursively(dir);
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            for (File c : f.listFiles()) deleteRecursively(c);
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,208 @@
+package com.litecask;
+
+import org.junit.jupiter.api.*;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FollowerTest {
+    private File tempDir;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("litecask-follower").toFile();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        deleteRecursively(tempDir);
+    }
+
+    private void deleteRecursively(File f) {
+        if (f == null || !f.exists()) return;
+        if (f.isDirectory()) {
+            for (File c : f.listFiles()) deleteRecursively(c);
+        }
+        f.delete();
+    }
+
+    private interface Check {
+        boolean ok() throws Exception;
+    }
+
+    private static void await(Check check, String what) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!check.ok()) {
+            if (System.currentTimeMillis() > deadline) fail("timed out waiting for " + what);
+            Thread.sleep(10);
+        }
+    }
+
+    private static String str(byte[] b) {
+        return b == null ? null : new String(b);
+    }
+
+    @Test
+    public void testFollowerTailsSharedDirectory() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(1024).followInterval(20);
+        LiteCask leader = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        leader.put("before", "0".getBytes());
+        LiteCask follower = LiteCask.follow(tempDir.getAbsolutePath(), opts);
+        assertEquals("0", str(follower.get("before")));
+
+        // Appends, deletes and rotations show up within a few polls
+        for (int i = 0; i < 200; i++) leader.put("k" + i, ("v" + i).getBytes());
+        leader.delete("before");
+        leader.write(new WriteBatch().put("b1", "x".getBytes()).put("b2", "y".getBytes()));
+        assertTrue(leader.fileStats().fileCount() > 3, "rotated");
+        await(() -> "v199".equals(str(follower.get("k199"))) && follower.get("before") == null && follower.get("b2") != null,
+                "leader writes");
+        for (int i = 0; i < 200; i++) assertEquals("v" + i, str(follower.get("k" + i)));
+        assertTrue(follower.stalenessMillis() < 5_000);
+        assertEquals(follower.stalenessMillis(), follower.stats().stalenessMillis, 100);
+
+        // A merge moves every record and deletes the old files
+        for (int i = 0; i < 200; i++) leader.put("k" + i, ("w" + i).getBytes());
+        await(() -> "w199".equals(str(follower.get("k199"))), "overwrites");
+        leader.merge();
+        await(() -> follower.refresh(), "merge outputs");
+        for (int i = 0; i < 200; i++) assertEquals("w" + i, str(follower.get("k" + i)));
+        assertEquals(2, follower.multiGet(List.of("k1", "k2")).size());
+
+        // Read-only: no writes, and closing leaves the leader's files alone
+        assertThrows(IllegalStateException.class, () -> follower.put("x", "y".getBytes()));
+        assertThrows(IllegalStateException.class, () -> follower.write(new WriteBatch().delete("k1")));
+        assertThrows(IllegalStateException.class, follower::checkpoint);
+        File checkpoint = new File(tempDir, Checkpointer.FULL);
+        long before = checkpoint.lastModified();
+        follower.close();
+        assertEquals(before, checkpoint.lastModified());
+        leader.close();
+    }
+
+    @Test
+    public void testReadOnlyOpenWritesNothing() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(1024);
+        LiteCask writer = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int i = 0; i < 50; i++) writer.put("k" + i, ("v" + i).getBytes());
+        writer.close();
+        new File(tempDir, "LOCK").delete();
+        Map<String, Long> before = listing(tempDir);
+
+        LiteCask reader = LiteCask.open(tempDir.getAbsolutePath(), false, opts.followInterval(0));
+        for (int i = 0; i < 50; i++) assertEquals("v" + i, str(reader.get("k" + i)));
+        assertThrows(IllegalStateException.class, () -> reader.put("x", "y".getBytes()));
+        assertThrows(IllegalStateException.class, () -> reader.delete("k1"));
+        assertThrows(IllegalStateException.class, reader::merge);
+        reader.close();
+        assertEquals(before, listing(tempDir));
+        assertThrows(FileNotFoundException.class,
+                () -> LiteCask.open(new File(tempDir, "missing").getAbsolutePath(), false));
+    }
+
+    @Test
+    public void testReadOnlyRefreshPicksUpHintsAndNewFiles() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(2048).followInterval(0);
+        LiteCask writer = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        writer.put("a", "1".getBytes());
+        LiteCask reader = LiteCask.open(tempDir.getAbsolutePath(), false, opts);
+        assertEquals("1", str(reader.get("a")));
+
+        // No background polling: nothing shows up until refresh()
+        for (int i = 0; i < 100; i++) writer.put("k" + i, ("v" + i).getBytes());
+        writer.put("a", "2".getBytes());
+        assertNull(reader.get("k0"));
+        assertEquals("1", str(reader.get("a")));
+        assertTrue(reader.refresh());
+        for (int i = 0; i < 100; i++) assertEquals("v" + i, str(reader.get("k" + i)));
+        assertEquals("2", str(reader.get("a")));
+
+        writer.delete("a");
+        assertTrue(reader.refresh());
+        assertNull(reader.get("a"));
+        reader.close();
+        writer.close();
+    }
+
+    private static Map<String, Long> listing(File dir) {
+        Map<String, Long> files = new TreeMap<>();
+        for (File f : dir.listFiles()) files.put(f.getName(), f.length() * 31 + f.lastModified());
+        return files;
+    }
+
+    @Test
+    public void testFollowerKeepsUpWithConcurrentWriters() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(64 * 1024).syncPolicy(SyncPolicy.none()).followInterval(5);
+        LiteCask leader = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        LiteCask follower = LiteCask.follow(tempDir.getAbsolutePath(), opts);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < 2000; i++) leader.put("t" + thread + ":" + i, ("v" + i).getBytes());
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        pool.shutdown();
+
+        await(follower::refresh, "the follower to catch up");
+        for (int t = 0; t < 4; t++) {
+            for (int i = 0; i < 2000; i++) assertEquals("v" + i, str(follower.get("t" + t + ":" + i)), "t" + t + ":" + i);
+        }
+        follower.close();
+        leader.close();
+    }
+
+    @Test
+    public void testShippedReplica() throws Exception {
+        File leaderDir = new File(tempDir, "leader");
+        File replicaDir = new File(tempDir, "replica");
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(4096).followInterval(20)
+                .compression(ValueCodec.LZ, 16);
+        LiteCask leader = LiteCask.open(leaderDir.getAbsolutePath(), true, opts);
+        for (int i = 0; i < 100; i++) leader.put("k" + i, ("v" + i).repeat(10).getBytes());
+
+        LogShipper shipper = LogShipper.start(leaderDir.getAbsolutePath(), 0, 10);
+        LogReceiver receiver = LogReceiver.start("localhost", shipper.port(), replicaDir.getAbsolutePath());
+        await(() -> receiver.stalenessMillis() < 1_000, "the initial copy");
+        LiteCask follower = LiteCask.follow(replicaDir.getAbsolutePath(), opts);
+        assertEquals("v42".repeat(10), str(follower.get("k42")));
+
+        leader.put("k42", "new".getBytes());
+        leader.merge();
+        leader.put("after-merge", "1".getBytes());
+        await(() -> "1".equals(str(follower.get("after-merge"))) && "new".equals(str(follower.get("k42"))), "shipped writes");
+        await(() -> {
+            String[] leaderFiles = leaderDir.list((d, n) -> n.endsWith(".dat"));
+            String[] replicaFiles = replicaDir.list((d, n) -> n.endsWith(".dat"));
+            java.util.Arrays.sort(leaderFiles);
+            java.util.Arrays.sort(replicaFiles);
+            return java.util.Arrays.equals(leaderFiles, replicaFiles);
+        }, "merged-away files to be deleted in the replica");
+
+        // A new receiver on the same replica resumes instead of starting over
+        receiver.close();
+        leader.put("while-away", "2".getBytes());
+        LogReceiver again = LogReceiver.start("localhost", shipper.port(), replicaDir.getAbsolutePath());
+        await(() -> "2".equals(str(follower.get("while-away"))), "writes made while disconnected");
+        for (int i = 0; i < 100; i++) {
+            if (i != 42) assertEquals(("v" + i).repeat(10), str(follower.get("k" + i)));
+        }
+
+        follower.close();
+        again.close();
+        shipper.close();
+        leader.close();
+    }
+}
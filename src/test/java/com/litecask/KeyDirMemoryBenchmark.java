@@ -0,0 +1,50 @@
+package com.litecask;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Memory per key of the heap KeyDir versus OffHeapKeyDir.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.litecask.KeyDirMemoryBenchmark
+ * Optional args: [keys]
+ */
+public class KeyDirMemoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        System.out.printf("keys=%d (keys look like \"user:000000042\")%n", keys);
+        System.out.printf("%-14s %14s %14s %12s%n", "backend", "heap bytes", "direct bytes", "bytes/key");
+
+        measure("HeapKeyDir", new HeapKeyDir(), keys);
+        measure("OffHeapKeyDir", new OffHeapKeyDir(), keys);
+    }
+
+    private static void measure(String name, KeyDir kd, int keys) throws Exception {
+        long heapBefore = usedHeap();
+        long directBefore = usedDirect();
+        for (int i = 0; i < keys; i++) {
+            kd.put(String.format("user:%09d", i), new KeyDir.EntryMeta(1, i * 64L, 32, Entry.FLAG_PUT, i * 64L - 20));
+        }
+        long heap = usedHeap() - heapBefore;
+        long direct = usedDirect() - directBefore;
+        System.out.printf("%-14s %14d %14d %12.1f%n", name, heap, direct, (double) (heap + direct) / keys);
+        if (kd.size() != keys) throw new IllegalStateException("lost keys");
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) return pool.getMemoryUsed();
+        }
+        return 0;
+    }
+}
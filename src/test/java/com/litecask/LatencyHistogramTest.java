@@ -0,0 +1,59 @@
+package com.litecask;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverEveryValueInOrder() {
+        int previous = -1;
+        for (long v = 0; v < 1 << 20; v++) {
+            int b = LatencyHistogram.bucketOf(v);
+            assertTrue(b == previous || b == previous + 1, "buckets must be contiguous at " + v);
+            assertTrue(LatencyHistogram.highestValueIn(b) >= v);
+            previous = b;
+        }
+        assertEquals(LatencyHistogram.bucketOf(Long.MAX_VALUE), LatencyHistogram.bucketOf(1L << 50));
+    }
+
+    @Test
+    public void testPercentilesWithinBucketPrecision() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 100_000; v++) h.record(v * 1000); // 1 us .. 100 ms, uniform
+        LatencyHistogram.Snapshot s = h.snapshot();
+
+        assertEquals(100_000, s.count());
+        assertEquals(100_000_000L, s.maxNanos());
+        assertEquals(50_000_500.0 * 1000 / 1000, s.meanNanos(), 1.0);
+        for (double p : new double[] {50, 90, 99, 99.9}) {
+            double expected = p / 100 * 100_000_000;
+            assertEquals(expected, s.percentile(p), expected * 0.04, "p" + p);
+        }
+        assertEquals(s.maxNanos(), s.percentile(100));
+        assertEquals(0, new LatencyHistogram().snapshot().percentile(99));
+    }
+
+    @Test
+    public void testConcurrentRecordsAreAllCounted() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < 10_000; i++) h.record(i);
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        pool.shutdown();
+        assertEquals(80_000, h.snapshot().count());
+        assertEquals(8L * 9_999 * 10_000 / 2, h.snapshot().totalNanos());
+    }
+}
@@ -1,13 +1,105 @@
 package com.litecask;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.json.JsonCompareMode;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @SpringBootTest
+@AutoConfigureMockMvc
 class LiteCaskApplicationTests {
 
+	@TempDir
+	static Path dataDir;
+
+	@DynamicPropertySource
+	static void dataDir(DynamicPropertyRegistry registry) {
+		registry.add("litecask.dir", () -> dataDir.toString());
+	}
+
+	@Autowired
+	LiteCask db;
+
+	@Autowired
+	MeterRegistry registry;
+
+	@Autowired
+	MockMvc mvc;
+
 	@Test
 	void contextLoads() {
 	}
 
+	@Test
+	void metricsArePublished() throws Exception {
+		db.put("k", "v".getBytes());
+		db.get("k");
+
+		assertEquals(db.stats().keyDirSize, registry.get("litecask.keydir.size").gauge().value());
+		assertTrue(registry.get("litecask.put").functionTimer().count() >= 1);
+		assertTrue(registry.get("litecask.get").functionTimer().count() >= 1);
+		assertTrue(registry.get("litecask.put.percentile").tag("phi", "0.99").gauge().value() > 0);
+		assertTrue(registry.get("litecask.data.bytes").gauge().value() > 0);
+		assertNotNull(registry.get("litecask.rotations").functionCounter());
+	}
+
+	@Test
+	void multiGetStreamsValuesInRequestOrder() throws Exception {
+		db.put("b", "2".getBytes());
+		db.put("a", "1".getBytes());
+
+		MvcResult started = mvc.perform(post("/kv/_mget").contentType(MediaType.APPLICATION_JSON)
+						.content("[\"a\", \"nope\", \"b\", \"a\"]"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mvc.perform(asyncDispatch(started))
+				.andExpect(status().isOk())
+				.andExpect(content().json("{\"a\": \"MQ==\", \"b\": \"Mg==\"}", JsonCompareMode.STRICT));
+
+		mvc.perform(post("/kv/_mget").contentType(MediaType.APPLICATION_JSON).content("[null]"))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void largeValuesStreamThroughPutAndGet() throws Exception {
+		byte[] big = new byte[1 << 20];
+		java.util.concurrent.ThreadLocalRandom.current().nextBytes(big);
+		mvc.perform(put("/kv/big").content(big)).andExpect(status().isNoContent());
+		assertArrayEquals(big, db.get("big"));
+
+		MvcResult started = mvc.perform(get("/kv/big")).andExpect(request().asyncStarted()).andReturn();
+		mvc.perform(asyncDispatch(started))
+				.andExpect(status().isOk())
+				.andExpect(content().bytes(big));
+
+		// HEAD streams the body into a discarded response; either way the value's channel is closed
+		// by the time the request completes
+		MvcResult head = mvc.perform(head("/kv/big")).andReturn();
+		ValueRef ref = ((LiteCaskController.ClosingInterceptor) WebAsyncUtils.getAsyncManager(head.getRequest())
+				.getCallableInterceptor(ValueRef.class.getName())).ref;
+		if (head.getRequest().isAsyncStarted()) head = mvc.perform(asyncDispatch(head)).andReturn();
+		assertEquals(200, head.getResponse().getStatus());
+		assertEquals(big.length, head.getResponse().getContentLengthLong());
+		assertFalse(ref.isOpen(), "HEAD must not leak the value's file descriptor");
+
+		mvc.perform(put("/kv/short").content("abc").param("ttl", "60")).andExpect(status().isNoContent());
+		assertEquals("abc", new String(db.get("short")));
+		mvc.perform(put("/kv/short").content("abc").param("ttl", "0")).andExpect(status().isBadRequest());
+	}
+
 }
@@ -2,8 +2,18 @@ package com.litecask;
 
 import org.junit.jupiter.api.*;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -114,4 +124,1052 @@ public class LiteCaskTest {
         assertTrue(keys.contains("k2"));
         db.close();
     }
+
+    @Test
+    public void testConcurrentPutsGroupCommit() throws Exception {
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int id = t;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < 100; i++) {
+                    db.put("t" + id + "-" + i, ("v" + i).getBytes());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        pool.shutdown();
+        db.close();
+
+        LiteCask db2 = LiteCask.open(tempDir.getAbsolutePath(), true);
+        for (int t = 0; t < 8; t++) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals("v" + i, new String(db2.get("t" + t + "-" + i)));
+            }
+        }
+        db2.close();
+    }
+
+    @Test
+    public void testSyncPolicies() throws Exception {
+        SyncPolicy[] policies = { SyncPolicy.none(), SyncPolicy.everyMillis(5), SyncPolicy.everyBytes(64) };
+        for (SyncPolicy policy : policies) {
+            File dir = new File(tempDir, policy.mode.name());
+            LiteCask db = LiteCask.open(dir.getAbsolutePath(), true, LiteCaskOptions.defaults().syncPolicy(policy));
+            db.put("a", "1".getBytes());
+            db.delete("a");
+            db.put("b", "2".getBytes());
+            assertNull(db.get("a"));
+            assertEquals("2", new String(db.get("b")));
+            db.close();
+
+            LiteCask reopened = LiteCask.open(dir.getAbsolutePath(), true);
+            assertNull(reopened.get("a"));
+            assertEquals("2", new String(reopened.get("b")));
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testPooledReadsAcrossRotationAndMerge() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(4 * 1024).mmapReads(true);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int i = 0; i < 500; i++) {
+            db.put("k" + (i % 100), ("value-" + i).getBytes());
+        }
+        for (int i = 400; i < 500; i++) {
+            assertEquals("value-" + i, new String(db.get("k" + (i % 100))));
+        }
+        db.merge();
+        for (int i = 0; i < 100; i++) {
+            db.put("n" + i, ("new-" + i).getBytes()); // rotates into the merged file id
+        }
+        for (int i = 400; i < 500; i++) {
+            assertEquals("value-" + i, new String(db.get("k" + (i % 100))));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("new-" + i, new String(db.get("n" + i)));
+        }
+        db.close();
+    }
+
+    @Test
+    public void testTombstoneSurvivesHintRecovery() throws Exception {
+        LiteCask db1 = LiteCask.open(tempDir.getAbsolutePath(), true);
+        db1.put("gone", "1".getBytes());
+        db1.delete("gone");
+        db1.close();
+        new File(tempDir, "keydir.chk").delete(); // force recovery from hints
+
+        LiteCask db2 = LiteCask.open(tempDir.getAbsolutePath(), true);
+        assertNull(db2.get("gone"));
+        db2.close();
+    }
+
+    @Test
+    public void testTornHintTailIsTruncated() throws Exception {
+        LiteCask db1 = LiteCask.open(tempDir.getAbsolutePath(), true);
+        for (int i = 0; i < 50; i++) db1.put("k" + i, ("v" + i).getBytes());
+        db1.close();
+        new File(tempDir, "keydir.chk").delete();
+
+        File hint = new File(tempDir, "data1.hint");
+        long goodLength = hint.length();
+        try (FileOutputStream out = new FileOutputStream(hint, true)) {
+            out.write(new byte[] { 0, 0, 0, 3, 0, 0, 0 }); // half a record
+        }
+
+        LiteCask db2 = LiteCask.open(tempDir.getAbsolutePath(), true);
+        assertEquals(goodLength, hint.length());
+        for (int i = 0; i < 50; i++) assertEquals("v" + i, new String(db2.get("k" + i)));
+        db2.close();
+    }
+
+    @Test
+    public void testRecoveryReplaysDataBeyondHint() throws Exception {
+        LiteCask db1 = LiteCask.open(tempDir.getAbsolutePath(), true);
+        for (int i = 0; i < 50; i++) db1.put("k" + i, ("v" + i).getBytes());
+        db1.delete("k7");
+        db1.close();
+        new File(tempDir, "keydir.chk").delete();
+
+        // Simulate hints that never made it to disk
+        File hint = new File(tempDir, "data1.hint");
+        try (RandomAccessFile raf = new RandomAccessFile(hint, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+
+        LiteCask db2 = LiteCask.open(tempDir.getAbsolutePath(), true);
+        for (int i = 0; i < 50; i++) {
+            if (i == 7) assertNull(db2.get("k7"));
+            else assertEquals("v" + i, new String(db2.get("k" + i)));
+        }
+        db2.close();
+    }
+
+    @Test
+    public void testOffHeapKeyDir() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().offHeapKeyDir(true);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int i = 0; i < 1000; i++) db.put("k" + i, ("v" + i).getBytes());
+        db.delete("k5");
+        assertEquals("v999", new String(db.get("k999")));
+        assertNull(db.get("k5"));
+        db.close();
+
+        LiteCask db2 = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        assertEquals("v0", new String(db2.get("k0")));
+        assertNull(db2.get("k5"));
+        assertTrue(db2.keys().contains("k42"));
+        db2.close();
+    }
+
+    @Test
+    public void testConcurrentWritersKeyDirPointsToLatest() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(16 * 1024).syncPolicy(SyncPolicy.none());
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int id = t;
+            futures.add(pool.submit(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < 2000; i++) {
+                    String key = "k" + rnd.nextInt(50);
+                    if (i % 10 == 0) db.delete(key);
+                    else db.put(key, ("t" + id + "-" + i).getBytes());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        pool.shutdown();
+
+        Map<String, String> live = new HashMap<>();
+        for (int k = 0; k < 50; k++) {
+            byte[] v = db.get("k" + k);
+            live.put("k" + k, v == null ? null : new String(v));
+        }
+        db.close();
+        assertTrue(tempDir.listFiles((d, n) -> n.endsWith(".dat")).length > 1, "expected rotations");
+
+        // Rebuild from the log alone: the KeyDir must have pointed at the last record of every key
+        new File(tempDir, "keydir.chk").delete();
+        for (File hint : tempDir.listFiles((d, n) -> n.endsWith(".hint"))) hint.delete();
+        LiteCask replayed = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int k = 0; k < 50; k++) {
+            byte[] v = replayed.get("k" + k);
+            assertEquals(live.get("k" + k), v == null ? null : new String(v), "k" + k);
+        }
+        replayed.close();
+    }
+
+    @Test
+    public void testWriteBatch() throws Exception {
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true);
+        db.put("old", "x".getBytes());
+        db.write(new WriteBatch()
+                .put("a", "1".getBytes())
+                .put("b", "2".getBytes())
+                .delete("old")
+                .put("a", "3".getBytes()));
+        assertEquals("3", new String(db.get("a")));
+        assertEquals("2", new String(db.get("b")));
+        assertNull(db.get("old"));
+        db.close();
+
+        // Recover from hints only, then from the raw log only
+        new File(tempDir, "keydir.chk").delete();
+        LiteCask fromHints = LiteCask.open(tempDir.getAbsolutePath(), true);
+        assertEquals("3", new String(fromHints.get("a")));
+        assertNull(fromHints.get("old"));
+        fromHints.close();
+
+        new File(tempDir, "keydir.chk").delete();
+        new File(tempDir, "data1.hint").delete();
+        LiteCask fromLog = LiteCask.open(tempDir.getAbsolutePath(), true);
+        assertEquals("3", new String(fromLog.get("a")));
+        assertEquals("2", new String(fromLog.get("b")));
+        assertNull(fromLog.get("old"));
+        fromLog.close();
+    }
+
+    @Test
+    public void testTornWriteBatchIsDroppedAsAWhole() throws Exception {
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true);
+        db.put("before", "ok".getBytes());
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 20; i++) batch.put("b" + i, ("v" + i).getBytes());
+        db.write(batch);
+        db.close();
+
+        // Crash halfway through the block: the data file ends mid-batch and no hints/checkpoint survived
+        new File(tempDir, "keydir.chk").delete();
+        new File(tempDir, "data1.hint").delete();
+        File data = new File(tempDir, "data1.dat");
+        try (RandomAccessFile raf = new RandomAccessFile(data, "rw")) {
+            raf.setLength(raf.length() - 40);
+        }
+
+        LiteCask recovered = LiteCask.open(tempDir.getAbsolutePath(), true);
+        assertEquals("ok", new String(recovered.get("before")));
+        for (int i = 0; i < 20; i++) assertNull(recovered.get("b" + i));
+        recovered.close();
+    }
+
+    @Test
+    public void testMergeKeepsBatchedEntries() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(64);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        db.write(new WriteBatch().put("x", "1".getBytes()).put("y", "2".getBytes()));
+        db.put("z", "3".getBytes()); // rotates: the batch now sits in an immutable file
+        db.put("z", "4".getBytes());
+        db.merge();
+        assertEquals("1", new String(db.get("x")));
+        assertEquals("2", new String(db.get("y")));
+        assertEquals("4", new String(db.get("z")));
+        db.close();
+    }
+
+    @Test
+    public void testCompactionRewritesOnlyGarbageFiles() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none()).maxFileSize(4 * 1024);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int i = 0; i < 200; i++) db.put("cold" + i, ("v" + i).getBytes());
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) db.put("hot" + i, ("r" + round % 10).getBytes());
+        }
+        db.delete("cold0");
+
+        FileStats stats = db.fileStats();
+        assertTrue(stats.garbageRatio(1) < 0.5, "mostly cold keys: " + stats.garbageRatio(1));
+        long before = dataBytes();
+        int activeBefore = db.activeFileId();
+
+        assertTrue(db.compactGarbage() > 0);
+        while (db.compactGarbage() > 0) { } // more garbage files than one round's budget
+        assertTrue(new File(tempDir, "data1.dat").exists(), "clean file must not be rewritten");
+        long after = dataBytes();
+        assertTrue(after < before, before + " -> " + after);
+        for (int fileId : stats.fileIds()) {
+            if (fileId < activeBefore) assertTrue(stats.garbageRatio(fileId) < 0.5, "file " + fileId);
+        }
+
+        for (int i = 1; i < 200; i++) assertEquals("v" + i, new String(db.get("cold" + i)));
+        for (int i = 0; i < 50; i++) assertEquals("r9", new String(db.get("hot" + i)));
+        assertNull(db.get("cold0"));
+        db.close();
+
+        new File(tempDir, "keydir.chk").delete();
+        LiteCask reopened = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int i = 1; i < 200; i++) assertEquals("v" + i, new String(reopened.get("cold" + i)));
+        for (int i = 0; i < 50; i++) assertEquals("r9", new String(reopened.get("hot" + i)));
+        assertNull(reopened.get("cold0"));
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactionNeverOverwritesNewerWrite() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none()).maxFileSize(2 * 1024);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        int keys = 64;
+        int[] last = new int[keys];
+        for (int k = 0; k < keys; k++) db.put("k" + k, "0".getBytes());
+        Thread writer = new Thread(() -> {
+            try {
+                for (int v = 0; v < 300; v++) {
+                    for (int k = 0; k < keys; k++) {
+                        db.put("k" + k, String.valueOf(v).getBytes());
+                        last[k] = v;
+                    }
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            db.compactGarbage();
+            int k = ThreadLocalRandom.current().nextInt(keys);
+            assertNotNull(db.get("k" + k));
+        }
+        writer.join();
+        db.compactGarbage();
+
+        for (int k = 0; k < keys; k++) assertEquals(String.valueOf(last[k]), new String(db.get("k" + k)));
+        db.close();
+
+        new File(tempDir, "keydir.chk").delete();
+        LiteCask reopened = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int k = 0; k < keys; k++) assertEquals(String.valueOf(last[k]), new String(reopened.get("k" + k)));
+        reopened.close();
+    }
+
+    @Test
+    public void testBackgroundCompactionBoundsSpace() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none())
+                .maxFileSize(4 * 1024).compaction(0.5, 10);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        byte[] value = new byte[100];
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 20; i++) db.put("k" + i, value);
+        }
+        // 1000 puts of ~110 bytes, only 20 live: the compactor should get well below the written total
+        long deadline = System.currentTimeMillis() + 5000;
+        long size;
+        do {
+            Thread.sleep(20);
+            size = dataBytes();
+        } while (size > 20 * 1024 && System.currentTimeMillis() < deadline);
+        assertTrue(size <= 20 * 1024, "data files still " + size + " bytes");
+        for (int i = 0; i < 20; i++) assertArrayEquals(value, db.get("k" + i));
+        db.close();
+    }
+
+    @Test
+    public void testMergeSplitsOutputAndWritesHints() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none()).maxFileSize(2 * 1024);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        byte[] value = new byte[64];
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 300; i++) {
+                value[0] = (byte) round;
+                db.put("k" + i, value.clone());
+            }
+        }
+        for (int i = 0; i < 300; i += 3) db.delete("k" + i);
+        int activeBefore = db.activeFileId();
+        db.merge();
+
+        File[] outputs = tempDir.listFiles((d, n) -> n.matches("data\\d+\\.dat")
+                && Integer.parseInt(n.substring(4, n.length() - 4)) > activeBefore
+                && Integer.parseInt(n.substring(4, n.length() - 4)) < db.activeFileId());
+        assertTrue(outputs.length > 1, "expected the merge output to be split");
+        for (File f : outputs) {
+            assertTrue(f.length() < 2 * 1024 + 100, f.getName() + " is " + f.length());
+            assertTrue(new File(tempDir, f.getName().replace(".dat", ".hint")).length() > 0);
+        }
+        for (int i = 0; i < 300; i++) {
+            if (i % 3 == 0) assertNull(db.get("k" + i));
+            else assertEquals(2, db.get("k" + i)[0]);
+        }
+        db.close();
+
+        // Start from the merged files' hints alone
+        new File(tempDir, "keydir.chk").delete();
+        LiteCask reopened = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int i = 0; i < 300; i++) {
+            if (i % 3 == 0) assertNull(reopened.get("k" + i));
+            else assertEquals(2, reopened.get("k" + i)[0]);
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testValueCache() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(1024).valueCacheBytes(1 << 20);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int i = 0; i < 50; i++) db.put("k" + i, ("v" + i).getBytes());
+        ValueCache cache = db.valueCache();
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 50; i++) assertEquals("v" + i, new String(db.get("k" + i)));
+        }
+        assertEquals(50, cache.misses());
+        assertEquals(100, cache.hits());
+
+        // Callers can't corrupt the cached copy
+        db.get("k0")[0] = 'X';
+        assertEquals("v0", new String(db.get("k0")));
+
+        db.put("k1", "new".getBytes());
+        db.delete("k2");
+        assertEquals("new", new String(db.get("k1")));
+        assertNull(db.get("k2"));
+
+        db.merge(); // relocates the cached keys
+        for (int i = 3; i < 50; i++) assertEquals("v" + i, new String(db.get("k" + i)));
+        assertEquals("new", new String(db.get("k1")));
+        db.close();
+
+        LiteCask uncached = LiteCask.open(tempDir.getAbsolutePath(), true);
+        assertNull(uncached.valueCache());
+        uncached.close();
+    }
+
+    @Test
+    public void testLookupStreamsPinnedValue() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(1024);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        byte[] big = new byte[300_000];
+        ThreadLocalRandom.current().nextBytes(big);
+        db.put("big", big);
+        db.put("other", "x".getBytes()); // rotates: "big" now sits in an immutable file
+        assertNull(db.lookup("missing"));
+
+        try (ValueRef ref = db.lookup("big")) {
+            assertEquals(big.length, ref.size());
+            db.put("other", "y".getBytes());
+            db.merge(); // deletes the file the ref points into
+
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            ref.transferTo(java.nio.channels.Channels.newChannel(out));
+            assertArrayEquals(big, out.toByteArray());
+        }
+        try (ValueRef ref = db.lookup("big")) {
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            ref.transferTo(java.nio.channels.Channels.newChannel(out));
+            assertArrayEquals(big, out.toByteArray());
+        }
+        db.close();
+    }
+
+    @Test
+    public void testPrefixAndRangeScans() throws Exception {
+        for (boolean ordered : new boolean[] {true, false}) {
+            deleteRecursively(tempDir);
+            LiteCaskOptions opts = LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none())
+                    .maxFileSize(8 * 1024).orderedKeyDir(ordered);
+            LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+            // written in reverse so file order and key order disagree
+            for (int i = 999; i >= 0; i--) db.put(String.format("user:%03d", i), ("v" + i).getBytes());
+            db.put("zzz", "last".getBytes());
+            db.put("aaa", "first".getBytes());
+            db.delete("user:500");
+
+            List<String> users = new ArrayList<>();
+            db.prefix("user:").forEachRemaining(users::add);
+            assertEquals(999, users.size());
+            assertEquals("user:000", users.get(0));
+            assertEquals("user:999", users.get(998));
+            assertFalse(users.contains("user:500"));
+
+            List<String> range = new ArrayList<>();
+            db.scan("user:100", "user:105").forEachRemaining(range::add);
+            assertEquals(List.of("user:100", "user:101", "user:102", "user:103", "user:104"), range);
+
+            int n = 0;
+            String previous = "";
+            for (var it = db.prefixWithValues("user:"); it.hasNext(); n++) {
+                Map.Entry<String, byte[]> e = it.next();
+                assertTrue(e.getKey().compareTo(previous) > 0);
+                assertEquals("v" + Integer.parseInt(e.getKey().substring(5)), new String(e.getValue()));
+                previous = e.getKey();
+            }
+            assertEquals(999, n);
+
+            List<String> all = new ArrayList<>();
+            db.scan(null, null).forEachRemaining(all::add);
+            assertEquals("aaa", all.get(0));
+            assertEquals("zzz", all.get(all.size() - 1));
+            assertFalse(db.prefix("nope").hasNext());
+            db.close();
+        }
+    }
+
+    @Test
+    public void testBackgroundCheckpointsSurviveACrash() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none())
+                .maxFileSize(16 * 1024).checkpointInterval(20);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int i = 0; i < 2000; i++) db.put("k" + i, ("v" + i).getBytes());
+        awaitFile(new File(tempDir, "keydir.chk"));
+
+        // A few changes afterwards go into a delta rather than a new full checkpoint
+        db.put("k1", "changed".getBytes());
+        db.delete("k2");
+        // the tick that sees them may be the one due a full checkpoint (MAX_DELTAS): change again until a delta lands
+        File delta = new File(tempDir, "keydir.chk.1");
+        for (long deadline = System.currentTimeMillis() + 5000; !delta.exists() && System.currentTimeMillis() < deadline; ) {
+            Thread.sleep(40);
+            if (!delta.exists()) db.put("k1", "changed".getBytes());
+        }
+        awaitFile(delta);
+        db.put("k3", "after-checkpoint".getBytes()); // only in the log tail
+
+        // Crash: copy the directory as it is on disk, without close()
+        File crashed = Files.createTempDirectory("litecask-crash").toFile();
+        try {
+            Thread.sleep(50); // let an in-flight checkpoint finish its rename
+            for (File f : tempDir.listFiles()) {
+                if (!f.getName().equals("LOCK") && !f.getName().endsWith(".tmp")) {
+                    Files.copy(f.toPath(), new File(crashed, f.getName()).toPath());
+                }
+            }
+            ExecutorService loader = Executors.newSingleThreadExecutor();
+            List<Future<?>> chunks = new ArrayList<>();
+            Checkpointer.Position pos = new Checkpointer(crashed).load(new HeapKeyDir(), (a, b) -> b, loader, chunks);
+            for (Future<?> chunk : chunks) chunk.get();
+            loader.shutdown();
+            assertTrue(pos.fileId > 1 || pos.offset > 0, "replay should start past the beginning: " + pos);
+
+            LiteCask recovered = LiteCask.open(crashed.getAbsolutePath(), true);
+            for (int i = 4; i < 2000; i++) assertEquals("v" + i, new String(recovered.get("k" + i)));
+            assertEquals("changed", new String(recovered.get("k1")));
+            assertNull(recovered.get("k2"));
+            assertEquals("after-checkpoint", new String(recovered.get("k3")));
+            recovered.close();
+        } finally {
+            deleteRecursively(crashed);
+        }
+        db.close();
+    }
+
+    @Test
+    public void testChunkedCheckpointLoadsInParallel() throws Exception {
+        int n = Checkpointer.CHUNK_ENTRIES * 2 + 100; // three chunks
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none()));
+        for (int i = 0; i < n; i++) db.put("k" + i, ("v" + i).getBytes());
+        db.delete("k7");
+        db.close(); // writes a full checkpoint
+
+        // Without hints or data past the checkpoint, every key must come from the chunks
+        for (File f : tempDir.listFiles((d, name) -> name.endsWith(".hint"))) f.delete();
+        db = LiteCask.open(tempDir.getAbsolutePath(), true);
+        assertEquals(n, db.keys().size()); // the tombstone is indexed too
+        for (int i = 0; i < n; i += 997) {
+            if (i != 7) assertEquals("v" + i, new String(db.get("k" + i)));
+        }
+        assertNull(db.get("k7"));
+        db.close();
+    }
+
+    @Test
+    public void testV1DataFilesStillLoad() throws Exception {
+        // A data file in the old header-less format: keyLen, valueLen, flag, key, value
+        try (java.io.DataOutputStream out = new java.io.DataOutputStream(new FileOutputStream(new File(tempDir, "data1.dat")))) {
+            for (String[] kv : new String[][] {{"a", "old-a"}, {"b", "old-b"}, {"a", "newer-a"}}) {
+                out.writeInt(kv[0].length());
+                out.writeInt(kv[1].length());
+                out.writeByte(Entry.FLAG_PUT);
+                out.writeBytes(kv[0]);
+                out.writeBytes(kv[1]);
+            }
+        }
+
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true);
+        assertEquals("newer-a", new String(db.get("a")));
+        assertEquals(2, db.activeFileId(), "v2 records must not be appended to a v1 file");
+        db.put("b", "v2-b".getBytes());
+        db.close();
+        new File(tempDir, "keydir.chk").delete();
+
+        db = LiteCask.open(tempDir.getAbsolutePath(), true);
+        assertEquals("v2-b", new String(db.get("b")), "a v2 record outranks every v1 record");
+        db.merge();
+        assertEquals("newer-a", new String(db.get("a")));
+        assertEquals("v2-b", new String(db.get("b")));
+        db.close();
+        assertEquals(Entry.FORMAT_V2, Entry.formatOf(new File(tempDir, "data" + 3 + ".dat")));
+    }
+
+    @Test
+    public void testCorruptRecordIsSkippedUpToNextSyncMarker() throws Exception {
+        int n = 12_000; // ~12 MB of 1 KB values: several sync markers and recovery chunks
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none()));
+        byte[] value = new byte[1000];
+        for (int i = 0; i < n; i++) {
+            java.util.Arrays.fill(value, (byte) i);
+            db.put("k" + i, value);
+        }
+        db.close();
+        new File(tempDir, "keydir.chk").delete();
+        new File(tempDir, "data1.hint").delete();
+
+        // Flip one byte in the value of a record in the middle of the file
+        File data = new File(tempDir, "data1.dat");
+        try (RandomAccessFile raf = new RandomAccessFile(data, "rw")) {
+            long pos = data.length() / 2;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0xFF);
+        }
+
+        db = LiteCask.open(tempDir.getAbsolutePath(), true);
+        int missing = 0;
+        for (int i = 0; i < n; i++) {
+            byte[] v = db.get("k" + i);
+            if (v == null) {
+                missing++;
+                continue;
+            }
+            for (byte x : v) assertEquals((byte) i, x, "k" + i + " returned corrupt data");
+        }
+        assertTrue(missing > 0, "the damaged record must be dropped");
+        assertTrue(missing < 1100, "only records up to the next sync marker are lost: " + missing);
+        assertNotNull(db.get("k" + (n - 1)));
+        assertEquals(2, db.activeFileId(), "no appends after a damaged region");
+        db.close();
+    }
+
+    @Test
+    public void testCompressedValues() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40; i++) sb.append("{\"field\":\"value\",\"n\":").append(i).append("},");
+        byte[] json = sb.toString().getBytes();
+        byte[] random = new byte[json.length];
+        new java.util.Random(1).nextBytes(random);
+
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(16 * 1024).compression(ValueCodec.LZ, 64);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int i = 0; i < 100; i++) db.put("json" + i, json);
+        db.put("random", random);
+        db.put("small", "tiny".getBytes());
+        db.write(new WriteBatch().put("batched", json));
+        long compressedBytes = dataBytes();
+        assertTrue(compressedBytes < 100L * json.length / 2, "values should be stored compressed: " + compressedBytes);
+
+        assertArrayEquals(json, db.get("json7"));
+        assertArrayEquals(random, db.get("random"));
+        assertArrayEquals(json, db.get("batched"));
+        try (ValueRef ref = db.lookup("json7")) {
+            assertEquals(json.length, ref.size());
+        }
+        db.merge(); // copies the compressed records as they are
+        assertArrayEquals(json, db.get("json99"));
+        db.close();
+
+        // Readable without the option too: the codec id is in the record
+        db = LiteCask.open(tempDir.getAbsolutePath(), true);
+        assertArrayEquals(json, db.get("json0"));
+        assertArrayEquals(json, db.get("batched"));
+        assertEquals("tiny", new String(db.get("small")));
+        db.close();
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(16 * 1024);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        byte[] value = new byte[1000];
+        for (int i = 0; i < 100; i++) db.put("k" + (i % 10), value);
+        for (int i = 0; i < 50; i++) db.get("k" + i); // 40 misses are gets too
+
+        LiteCaskStats stats = db.stats();
+        assertEquals(100, stats.puts.count());
+        assertEquals(50, stats.gets.count());
+        assertTrue(stats.puts.percentile(99) > 0 && stats.puts.percentile(99) <= stats.puts.maxNanos());
+        assertEquals(100, stats.fsyncs.count(), "SyncPolicy.always syncs every lone put");
+        assertTrue(stats.rotations > 0, "16 KB files must have rotated");
+        assertEquals(10, stats.keyDirSize);
+        assertEquals(dataBytes(), stats.dataBytes);
+        assertTrue(stats.deadRatio() > 0.8, "90 of 100 records are overwritten: " + stats.deadRatio());
+        assertTrue(stats.openFiles >= 1);
+
+        db.merge();
+        stats = db.stats();
+        assertEquals(1, stats.merges.count());
+        assertTrue(stats.mergeBytesIn > stats.mergeBytesOut && stats.mergeBytesOut > 0);
+        assertTrue(stats.deadRatio() < 0.5, "merge removes the overwritten records: " + stats.deadRatio());
+        db.close();
+
+        // Latency histograms can be switched off; counters keep working
+        db = LiteCask.open(tempDir.getAbsolutePath(), true, LiteCaskOptions.defaults().latencyMetrics(false));
+        db.put("k0", value);
+        assertNotNull(db.get("k0"));
+        stats = db.stats();
+        assertEquals(0, stats.puts.count());
+        assertEquals(0, stats.gets.count());
+        assertEquals(1, stats.fsyncs.count());
+        db.close();
+    }
+
+    @Test
+    public void testTtlExpiresLazilyAndIsSwept() throws Exception {
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true);
+        db.put("session", "s".getBytes(), java.time.Duration.ofMillis(200));
+        db.put("forever", "f".getBytes());
+        db.write(new WriteBatch().put("batched", "b".getBytes(), java.time.Duration.ofMillis(200)));
+        assertEquals("s", new String(db.get("session")));
+        assertEquals("b", new String(db.get("batched")));
+        assertThrows(IllegalArgumentException.class, () -> db.put("x", "x".getBytes(), java.time.Duration.ZERO));
+
+        Thread.sleep(250);
+        assertNull(db.get("session"), "expired values are misses");
+        assertNull(db.lookup("batched"));
+        List<String> live = new ArrayList<>();
+        db.scan(null, null).forEachRemaining(live::add);
+        assertEquals(List.of("forever"), live);
+
+        // Bulk eviction from KeyDir once the whole expiry bucket has passed
+        Thread.sleep(ExpirySweeper.BUCKET_MILLIS);
+        db.sweepExpired();
+        assertNull(db.metaOf("session"));
+        assertNull(db.metaOf("batched"));
+        assertEquals(1, db.stats().keyDirSize);
+        assertEquals(2, db.stats().expired);
+
+        // Writing the key again revives it, without the old expiry
+        db.put("session", "s2".getBytes());
+        assertEquals("s2", new String(db.get("session")));
+        db.close();
+    }
+
+    @Test
+    public void testTtlSurvivesRestart() throws Exception {
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true);
+        db.put("long", "l".getBytes(), java.time.Duration.ofHours(1));
+        db.put("short", "s".getBytes(), java.time.Duration.ofMillis(100));
+        long expiresAt = db.metaOf("long").expiresAt;
+        assertTrue(expiresAt > System.currentTimeMillis());
+        db.close();
+        Thread.sleep(150);
+
+        // From the checkpoint, from hints, and from a raw scan
+        for (int round = 0; round < 3; round++) {
+            if (round == 1) new File(tempDir, Checkpointer.FULL).delete();
+            if (round == 2) {
+                for (File f : tempDir.listFiles((d, n) -> n.endsWith(".hint"))) f.delete();
+            }
+            db = LiteCask.open(tempDir.getAbsolutePath(), false);
+            assertEquals(expiresAt, db.metaOf("long").expiresAt, "round " + round);
+            assertEquals("l", new String(db.get("long")));
+            assertNull(db.get("short"));
+            assertNull(db.metaOf("short"), "expired while closed: dropped at startup");
+            db.close();
+        }
+    }
+
+    @Test
+    public void testMergeDropsExpiredRecordsWithoutResurrectingOlderOnes() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(8 * 1024);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        byte[] value = new byte[1000];
+        db.put("k", "old".getBytes());
+        int oldFile = db.metaOf("k").fileId;
+        for (int i = 0; i < 20; i++) db.put("filler" + i, value);
+        db.put("k", value, java.time.Duration.ofMillis(100));
+        int ttlFile = db.metaOf("k").fileId;
+        for (int i = 20; i < 40; i++) db.put("filler" + i, value);
+        assertTrue(oldFile < ttlFile && ttlFile < db.activeFileId());
+        Thread.sleep(150);
+
+        // Compacting the TTL record's file alone must keep it: the old version is still on disk
+        db.compactFiles(List.of(ttlFile));
+        assertNull(db.get("k"));
+        db.close();
+        new File(tempDir, Checkpointer.FULL).delete();
+        db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        assertNull(db.get("k"), "the old value must not come back");
+
+        // A full merge covers every older file: the record goes, and so does the key
+        long before = dataBytes();
+        db.merge();
+        assertNull(db.metaOf("k"));
+        assertTrue(dataBytes() < before);
+        db.close();
+        new File(tempDir, Checkpointer.FULL).delete();
+        db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        assertNull(db.get("k"));
+        assertNull(db.metaOf("k"));
+        assertEquals("filler" + 39, db.scan("filler39", null).next());
+        db.close();
+    }
+
+    @Test
+    public void testMultiGet() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(2048).compression(ValueCodec.LZ, 64);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String value = i % 3 == 0 ? "v" + i + "-".repeat(200) : "v" + i; // some stored compressed
+            db.put("k" + i, value.getBytes());
+            keys.add("k" + i);
+        }
+        db.delete("k7");
+        db.put("k9", "short-lived".getBytes(), java.time.Duration.ofMillis(50));
+        Thread.sleep(80);
+        assertTrue(db.fileStats().fileCount() > 3, "values spread over several files");
+
+        List<String> wanted = new ArrayList<>(keys);
+        java.util.Collections.reverse(wanted);
+        wanted.add("missing");
+        wanted.add("k42"); // asked for twice
+        Map<String, byte[]> values = db.multiGet(wanted);
+
+        assertEquals(198, values.size());
+        assertFalse(values.containsKey("k7") || values.containsKey("k9") || values.containsKey("missing"));
+        assertEquals("k199", values.keySet().iterator().next(), "request order");
+        for (var e : values.entrySet()) assertArrayEquals(db.get(e.getKey()), e.getValue(), e.getKey());
+
+        // Values are copies, and still resolve after a merge moves every record
+        values.get("k1")[0] = 'x';
+        db.merge();
+        Map<String, byte[]> again = db.multiGet(List.of("k1", "k3", "k199"));
+        assertEquals("v1", new String(again.get("k1")));
+        assertEquals("v3" + "-".repeat(200), new String(again.get("k3")));
+        assertEquals(3, again.size());
+        assertTrue(db.multiGet(List.of()).isEmpty());
+        db.close();
+    }
+
+    @Test
+    public void testSnapshotIsUnaffectedByLaterWritesAndMerges() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(2048);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int i = 0; i < 100; i++) db.put("k" + i, ("v" + i).getBytes());
+        db.delete("k5");
+        Snapshot snap = db.snapshot();
+
+        for (int i = 0; i < 100; i++) db.put("k" + i, ("w" + i).getBytes());
+        db.delete("k1");
+        db.put("new", "n".getBytes());
+        Set<String> before = Set.of(tempDir.list((d, n) -> n.endsWith(".dat")));
+        db.merge();
+
+        // Merged-away files stay until the snapshot is closed
+        assertTrue(Set.of(tempDir.list((d, n) -> n.endsWith(".dat"))).containsAll(before));
+        assertEquals("v1", new String(snap.get("k1")));
+        assertNull(snap.get("k5"));
+        assertNull(snap.get("new"));
+        List<String> keys = new ArrayList<>();
+        for (var e : snap) {
+            keys.add(e.getKey());
+            assertEquals("v" + e.getKey().substring(1), new String(e.getValue()));
+        }
+        assertEquals(99, keys.size());
+        List<String> sorted = new ArrayList<>(keys);
+        java.util.Collections.sort(sorted);
+        assertEquals(sorted, keys, "key order");
+        assertEquals("w2", new String(db.get("k2")));
+
+        snap.close();
+        assertThrows(IllegalStateException.class, () -> snap.get("k1"));
+        Set<String> after = Set.of(tempDir.list((d, n) -> n.endsWith(".dat")));
+        assertFalse(after.containsAll(before), "merged-away files deleted on close");
+        assertEquals("w2", new String(db.get("k2")));
+        db.close();
+    }
+
+    @Test
+    public void testSnapshotAndBackupDuringConcurrentWrites() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(16 * 1024).syncPolicy(SyncPolicy.none());
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        java.util.concurrent.atomic.AtomicBoolean stop = new java.util.concurrent.atomic.AtomicBoolean();
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String thread = "t" + t;
+            writers.add(pool.submit(() -> {
+                for (int i = 0; !stop.get(); i++) {
+                    db.put(thread + ":" + i, "x".getBytes());
+                    db.put(thread, String.valueOf(i).getBytes()); // after its item: a counter of them
+                }
+                return null;
+            }));
+        }
+        Thread.sleep(200);
+        Snapshot snap = db.snapshot();
+        Thread.sleep(100);
+        db.merge();
+        stop.set(true);
+        for (Future<?> f : writers) f.get();
+        pool.shutdown();
+
+        // Point in time: each counter matches the items written before it, and none after
+        Map<String, String> seen = new HashMap<>();
+        for (var e : snap) seen.put(e.getKey(), new String(e.getValue()));
+        for (int t = 0; t < 4; t++) {
+            int n = Integer.parseInt(seen.get("t" + t));
+            assertTrue(seen.containsKey("t" + t + ":" + n));
+            assertFalse(seen.containsKey("t" + t + ":" + (n + 2)), "written after t" + t + "=" + (n + 1));
+        }
+
+        File backup = new File(tempDir, "backup");
+        snap.backupTo(backup.getAbsolutePath());
+        assertThrows(java.io.IOException.class, () -> snap.backupTo(backup.getAbsolutePath()), "not empty");
+        String rotated = null;
+        for (String name : backup.list((d, n) -> n.endsWith(".dat"))) {
+            if (rotated == null || name.compareTo(rotated) < 0) rotated = name;
+        }
+        assertTrue(Files.isSameFile(new File(tempDir, rotated).toPath(), new File(backup, rotated).toPath()), "hard-linked");
+        snap.close();
+        db.close();
+
+        LiteCask restored = LiteCask.open(backup.getAbsolutePath(), false);
+        assertEquals(seen.keySet(), restored.keys());
+        for (var e : seen.entrySet()) assertEquals(e.getValue(), new String(restored.get(e.getKey())));
+        restored.close();
+    }
+
+    @Test
+    public void testStreamingPutAndOpenValue() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(256 * 1024).compression(ValueCodec.LZ, 64);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        byte[] big = new byte[3 * 1024 * 1024 + 5]; // several staging buffers, past the sync interval
+        ThreadLocalRandom.current().nextBytes(big);
+        db.put("small", "before".getBytes());
+        db.put("big", new java.io.ByteArrayInputStream(big), big.length);
+        db.put("small", java.nio.channels.Channels.newChannel(new java.io.ByteArrayInputStream("s".repeat(100).getBytes())), 100);
+        db.put("ttl", java.nio.channels.Channels.newChannel(new java.io.ByteArrayInputStream(big)), 200_000,
+                java.time.Duration.ofMillis(50));
+        db.put("after", "1".getBytes());
+
+        assertArrayEquals(big, db.get("big"));
+        assertEquals("s".repeat(100), new String(db.get("small")));
+        assertArrayEquals(readAll(db.openValue("big")), big, "bounded to the value");
+        assertArrayEquals(readAll(db.openValue("small")), "s".repeat(100).getBytes(), "compressed: decoded");
+        assertNull(db.openValue("missing"));
+
+        // A source that ends early stores nothing and leaves no staging file behind
+        assertThrows(java.io.EOFException.class,
+                () -> db.put("big", new java.io.ByteArrayInputStream(big, 0, 100_000), 100_001));
+        assertArrayEquals(big, db.get("big"));
+        assertEquals(0, tempDir.list((d, n) -> n.startsWith(LiteCask.STAGING_PREFIX)).length);
+
+        Thread.sleep(80);
+        assertNull(db.get("ttl"));
+        db.close();
+
+        // CRC, hints and checkpoint agree with the streamed records after a restart, and after a merge
+        LiteCask reopened = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        assertArrayEquals(big, reopened.get("big"));
+        assertNull(reopened.get("ttl"));
+        reopened.merge();
+        assertArrayEquals(big, reopened.get("big"));
+        assertEquals("1", new String(reopened.get("after")));
+        reopened.close();
+        new File(tempDir, Checkpointer.FULL).delete();
+        new File(tempDir, "LOCK").delete();
+        for (File hint : tempDir.listFiles((d, n) -> n.endsWith(".hint"))) hint.delete();
+        LiteCask scanned = LiteCask.open(tempDir.getAbsolutePath(), false, opts.followInterval(0));
+        assertArrayEquals(big, scanned.get("big"));
+        scanned.close();
+    }
+
+    private static byte[] readAll(java.nio.channels.ReadableByteChannel channel) throws Exception {
+        try (channel) {
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(7919); // not a divisor of anything
+            while (channel.read(buf) >= 0) {
+                out.write(buf.array(), 0, buf.position());
+                buf.clear();
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    public void testParallelRecoveryAfterCheckpointAndMerge() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(64 * 1024).syncPolicy(SyncPolicy.none());
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        for (int i = 0; i < 20_000; i++) db.put("k" + i, ("v" + i).getBytes());
+        for (int i = 0; i < 20_000; i += 2) db.put("k" + i, ("w" + i).getBytes());
+        db.checkpoint();
+        db.merge(); // relocated entries keep their seq: only the file tells them from the stale ones
+        db.checkpoint(); // a delta on top of the base, next to the merge outputs
+
+        // Crash: copy the directory while the store is still open, so close() writes nothing
+        File crashed = new File(tempDir, "crashed");
+        crashed.mkdir();
+        for (File f : tempDir.listFiles(File::isFile)) {
+            if (!f.getName().equals("LOCK")) Files.copy(f.toPath(), new File(crashed, f.getName()).toPath());
+        }
+        db.close();
+
+        // Many loader threads, so base chunks, deltas and replayed files finish in any order
+        for (int run = 0; run < 3; run++) {
+            LiteCask reopened = LiteCask.open(crashed.getAbsolutePath(), false, opts.recoveryThreads(8).followInterval(0));
+            for (int i = 0; i < 20_000; i++) {
+                assertEquals((i % 2 == 0 ? "w" : "v") + i, new String(reopened.get("k" + i)), "k" + i);
+            }
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testDeltaCheckpointsDuringConcurrentWritesLoseNothing() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(64 * 1024).syncPolicy(SyncPolicy.none())
+                .checkpointInterval(1);
+        LiteCask db = LiteCask.open(tempDir.getAbsolutePath(), true, opts);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String thread = "t" + t;
+            writers.add(pool.submit(() -> {
+                for (int i = 0; i < 5000; i++) db.put(thread + ":" + i, ("v" + i).getBytes());
+                return null;
+            }));
+        }
+        for (Future<?> f : writers) f.get();
+        pool.shutdown();
+        Thread.sleep(20); // a few more deltas, each past the records whose keys it must hold
+
+        // Crash: checkpoint files first, so the data copied after them is at least as new
+        File crashed = new File(tempDir, "crashed");
+        crashed.mkdir();
+        File[] files = tempDir.listFiles(File::isFile);
+        java.util.Arrays.sort(files, java.util.Comparator.comparing((File f) -> f.getName().startsWith("data")));
+        for (File f : files) {
+            if (!f.getName().equals("LOCK") && f.exists()) {
+                Files.copy(f.toPath(), new File(crashed, f.getName()).toPath());
+            }
+        }
+        db.close();
+
+        LiteCask reopened = LiteCask.open(crashed.getAbsolutePath(), false, opts.followInterval(0));
+        for (int t = 0; t < 4; t++) {
+            for (int i = 0; i < 5000; i++) {
+                byte[] v = reopened.get("t" + t + ":" + i);
+                assertNotNull(v, "acknowledged t" + t + ":" + i + " lost");
+                assertEquals("v" + i, new String(v));
+            }
+        }
+        reopened.close();
+    }
+
+    private static void awaitFile(File f) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!f.exists() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertTrue(f.exists(), f.getName() + " was never written");
+    }
+
+    private long dataBytes() {
+        long size = 0;
+        for (File f : tempDir.listFiles((d, n) -> n.endsWith(".dat"))) size += f.length();
+        return size;
+    }
 }
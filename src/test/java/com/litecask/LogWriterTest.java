@@ -0,0 +1,235 @@
+package com.litecask;
+
+import org.junit.jupiter.api.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogWriterTest {
+    private File tempDir;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("litecask-logwriter").toFile();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        for (File f : tempDir.listFiles()) f.delete();
+        tempDir.delete();
+    }
+
+    /**
+     * A data file channel whose writes and fsyncs fail while {@code failWrites}/{@code failSyncs} are
+     * set. A write at {@code failAt} waits for {@code gate} and then fails.
+     */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel delegate;
+        volatile boolean failWrites;
+        volatile boolean failSyncs;
+        volatile long failAt = -1;
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        FailingChannel(FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            if (position == failAt) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("injected write failure");
+            }
+            if (failWrites) throw new IOException("injected write failure");
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failSyncs) throw new IOException("injected fsync failure");
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            if (failWrites) throw new IOException("injected write failure");
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (failWrites) throw new IOException("injected write failure");
+            return delegate.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            if (failWrites) throw new IOException("injected write failure");
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+
+    private FailingChannel channel;
+
+    private LogWriter open(SyncPolicy policy) throws IOException {
+        File path = new File(tempDir, "data1.dat");
+        channel = new FailingChannel(FileChannel.open(path.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        HintWriter hints = new HintWriter(new File(tempDir, "data1.hint"));
+        return new LogWriter(channel, path, 1, policy, hints, 1 << 20, new LatencyHistogram());
+    }
+
+    private static long write(LogWriter writer, String key) throws IOException {
+        byte[] record = new Entry(key, "v".getBytes(), Entry.FLAG_PUT).toBytes(1);
+        long offset = writer.append(record);
+        writer.complete(offset, offset + record.length, () -> { });
+        return offset + record.length;
+    }
+
+    @Test
+    public void testFailedWritePoisonsWriterAndReleasesPublishedRange() throws Exception {
+        LogWriter writer = open(SyncPolicy.none());
+        long end = write(writer, "a");
+
+        channel.failWrites = true;
+        assertThrows(IOException.class, () -> writer.append(new Entry("b", "v".getBytes(), Entry.FLAG_PUT).toBytes(2)));
+        channel.failWrites = false;
+
+        // Nothing more goes into a file with a hole: the caller rotates
+        assertEquals(-1, writer.append(new Entry("c", "v".getBytes(), Entry.FLAG_PUT).toBytes(3)));
+        assertTrue(writer.awaitPublished(writer.size(), 1_000), "the failed range doesn't block checkpoints");
+        assertTrue(writer.publishedUpTo() > end);
+
+        // ...and the failed writer doesn't keep a retired file open forever
+        writer.retire();
+        assertTrue(writer.isClosed());
+    }
+
+    @Test
+    public void testRecordPastAFailedWriteIsNotAcknowledged() throws Exception {
+        LogWriter writer = open(SyncPolicy.none());
+        write(writer, "a");
+
+        // "b" reserves its range and stalls in the write; "c" lands after it and is written first
+        byte[] b = new Entry("b", "v".getBytes(), Entry.FLAG_PUT).toBytes(2);
+        channel.failAt = writer.size();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> failed = pool.submit(() -> writer.append(b));
+            while (writer.size() == channel.failAt) Thread.sleep(1);
+            byte[] c = new Entry("c", "v".getBytes(), Entry.FLAG_PUT).toBytes(3);
+            long offset = writer.append(c);
+            assertEquals(channel.failAt + b.length, offset);
+
+            channel.gate.countDown();
+            assertThrows(Exception.class, failed::get);
+            boolean[] published = {false};
+            assertThrows(IOException.class, () -> writer.complete(offset, offset + c.length, () -> published[0] = true));
+            assertFalse(published[0], "\"c\" sits past a hole of garbage: it must not be acknowledged");
+            assertEquals(offset + c.length, writer.publishedUpTo());
+        } finally {
+            pool.shutdownNow();
+        }
+        writer.retire();
+        assertTrue(writer.isClosed());
+    }
+
+    @Test
+    public void testFailedFsyncStillPublishesAndReleases() throws Exception {
+        LogWriter writer = open(SyncPolicy.always());
+        write(writer, "a");
+
+        channel.failSyncs = true;
+        byte[] record = new Entry("b", "v".getBytes(), Entry.FLAG_PUT).toBytes(2);
+        long offset = writer.append(record);
+        boolean[] published = {false};
+        assertThrows(IOException.class, () -> writer.complete(offset, offset + record.length, () -> published[0] = true));
+        assertFalse(published[0], "not in KeyDir: the write was never durable");
+        assertEquals(offset + record.length, writer.publishedUpTo());
+        channel.failSyncs = false;
+
+        long end = write(writer, "c");
+        assertEquals(end, writer.publishedUpTo());
+        writer.retire();
+        assertTrue(writer.isClosed());
+    }
+}
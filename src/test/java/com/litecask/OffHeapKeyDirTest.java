@@ -0,0 +1,113 @@
+package com.litecask;
+
+import org.junit.jupiter.api.*;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapKeyDirTest {
+
+    private static KeyDir.EntryMeta meta(int fileId, long offset) {
+        return new KeyDir.EntryMeta(fileId, offset, 10, Entry.FLAG_PUT, offset - 9);
+    }
+
+    @Test
+    public void testPutGetOverwriteRemove() {
+        OffHeapKeyDir kd = new OffHeapKeyDir(4, 16);
+        kd.put("a", meta(1, 100));
+        kd.put("ключ", meta(2, 200));
+        assertEquals(100, kd.get("a").valueOffset);
+        assertEquals(2, kd.get("ключ").fileId);
+
+        kd.put("a", meta(3, 300));
+        assertEquals(3, kd.get("a").fileId);
+        assertEquals(2, kd.size());
+
+        kd.remove("a");
+        assertNull(kd.get("a"));
+        assertEquals(1, kd.size());
+        assertNull(kd.get("missing"));
+    }
+
+    @Test
+    public void testGrowAndIterate() {
+        OffHeapKeyDir kd = new OffHeapKeyDir(2, 16);
+        for (int i = 0; i < 50_000; i++) kd.put("key-" + i, meta(1, i * 10L));
+        for (int i = 0; i < 50_000; i += 2) kd.remove("key-" + i);
+
+        assertEquals(25_000, kd.size());
+        Set<String> seen = new HashSet<>();
+        for (Map.Entry<String, KeyDir.EntryMeta> e : kd.entrySet()) {
+            int i = Integer.parseInt(e.getKey().substring(4));
+            assertEquals(1, i % 2);
+            assertEquals(i * 10L, e.getValue().valueOffset);
+            seen.add(e.getKey());
+        }
+        assertEquals(25_000, seen.size());
+    }
+
+    @Test
+    public void testMergeKeepsLatest() {
+        OffHeapKeyDir kd = new OffHeapKeyDir();
+        kd.merge("k", meta(2, 50), (a, b) -> b.fileId >= a.fileId ? b : a);
+        kd.merge("k", meta(1, 90), (a, b) -> b.fileId >= a.fileId ? b : a);
+        assertEquals(2, kd.get("k").fileId);
+    }
+
+    @Test
+    public void testReplaceIsCompareAndSet() {
+        OffHeapKeyDir kd = new OffHeapKeyDir(2, 16);
+        assertFalse(kd.replace("missing", meta(1, 10), meta(2, 10)));
+        assertNull(kd.get("missing"));
+
+        kd.put("k", meta(1, 10));
+        assertFalse(kd.replace("k", meta(1, 11), meta(3, 0)));
+        assertTrue(kd.replace("k", meta(1, 10), meta(3, 0)));
+        assertEquals(3, kd.get("k").fileId);
+    }
+
+    @Test
+    public void testExpiryAndCompareAndRemove() {
+        OffHeapKeyDir kd = new OffHeapKeyDir(1, 16);
+        KeyDir.EntryMeta ttl = new KeyDir.EntryMeta(1, 100, 10, (byte) (Entry.FLAG_PUT | Entry.FLAG_EXPIRES), 5, 1234L);
+        kd.put("a", ttl);
+        assertEquals(1234L, kd.get("a").expiresAt);
+        assertEquals(ttl, kd.get("a"));
+
+        assertFalse(kd.remove("a", meta(1, 100)), "different metadata must not remove");
+        assertTrue(kd.remove("a", ttl));
+        assertNull(kd.get("a"));
+        assertFalse(kd.remove("a", ttl));
+        assertEquals(0, kd.size());
+    }
+
+    @Test
+    public void testConcurrentReadersSeeConsistentEntries() throws Exception {
+        OffHeapKeyDir kd = new OffHeapKeyDir(1, 16);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    KeyDir.EntryMeta m = kd.get("hot");
+                    // writer always stores fileId == valueOffset
+                    if (m != null && m.fileId != m.valueOffset) fail("torn read " + m.fileId + "/" + m.valueOffset);
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 200_000; i++) {
+            kd.put("hot", new KeyDir.EntryMeta(i, i, 1, Entry.FLAG_PUT, i));
+            if (i % 4 == 0) kd.put("filler-" + i, meta(1, i)); // forces rehashes under the reader
+        }
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+    }
+}
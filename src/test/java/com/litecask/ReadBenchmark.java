@@ -0,0 +1,108 @@
+package com.litecask;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares warm get() throughput: the old open/seek/read/close per lookup against the
+ * pooled FileChannel reader, memory-mapped rotated files and the in-memory value cache.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.litecask.ReadBenchmark
+ * Optional args: [threads] [keys] [valueSize] [readsPerThread]
+ */
+public class ReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int valueSize = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+        int reads = args.length > 3 ? Integer.parseInt(args[3]) : 200_000;
+
+        File dir = Files.createTempDirectory("litecask-bench").toFile();
+        LiteCaskOptions load = LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none());
+        LiteCask db = LiteCask.open(dir.getAbsolutePath(), true, load);
+        byte[] value = new byte[valueSize];
+        for (int i = 0; i < keys; i++) {
+            db.put(key(i), value);
+        }
+        db.close();
+
+        System.out.printf("threads=%d keys=%d valueSize=%d readsPerThread=%d%n", threads, keys, valueSize, reads);
+        System.out.printf("%-28s %12s%n", "reader", "gets/sec");
+
+        // Old get(): every lookup opens the file. Keys are fixed width so offsets are computable.
+        File data = new File(dir, "data1.dat");
+        int recordSize = Entry.HEADER_SIZE + key(0).length() + valueSize; // sync markers ignored: same I/O pattern
+        report("open/seek/close per get", threads, reads, i -> {
+            try (RandomAccessFile raf = new RandomAccessFile(data, "r")) {
+                raf.seek(Entry.FILE_HEADER_SIZE + (long) i * recordSize + Entry.HEADER_SIZE + key(0).length());
+                byte[] v = new byte[valueSize];
+                raf.readFully(v);
+            }
+        }, keys);
+
+        LiteCask pooled = LiteCask.open(dir.getAbsolutePath(), false);
+        report("pooled FileChannel", threads, reads, i -> pooled.get(key(i)), keys);
+        pooled.close();
+
+        // Rotate so data1.dat becomes immutable and eligible for mapping
+        LiteCask mapped = LiteCask.open(dir.getAbsolutePath(), true,
+                LiteCaskOptions.defaults().maxFileSize(1).mmapReads(true));
+        mapped.put("rotate", new byte[0]);
+        mapped.put("rotate", new byte[0]);
+        report("mmap (rotated files)", threads, reads, i -> mapped.get(key(i)), keys);
+        mapped.close();
+
+        // Warm value cache large enough for the working set: no syscalls at all
+        LiteCask cached = LiteCask.open(dir.getAbsolutePath(), false,
+                LiteCaskOptions.defaults().valueCacheBytes(4L * keys * (valueSize + 256)));
+        for (int i = 0; i < keys; i++) cached.get(key(i));
+        for (int i = 0; i < keys; i++) cached.get(key(i)); // second touch promotes past probation
+        report("value cache (warm)", threads, reads, i -> cached.get(key(i)), keys);
+        System.out.println(cached.valueCache());
+        cached.close();
+
+        deleteRecursively(dir);
+    }
+
+    private interface Op {
+        void run(int i) throws Exception;
+    }
+
+    private static void report(String name, int threads, int reads, Op op, int keys) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < reads; i++) {
+                    op.run(rnd.nextInt(keys));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        System.out.printf("%-28s %12.0f%n", name, (double) threads * reads / (elapsed / 1e9));
+    }
+
+    private static String key(int i) {
+        return String.format("key%09d", i);
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            for (File c : f.listFiles()) deleteRecursively(c);
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,219 @@
+package com.litecask;
+
+import org.junit.jupiter.api.*;
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RespServerTest {
+    private File tempDir;
+    private LiteCask db;
+    private RespServer server;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("litecask-resp").toFile();
+        db = LiteCask.open(tempDir.getAbsolutePath(), true, LiteCaskOptions.defaults().maxFileSize(64 * 1024));
+        server = RespServer.start(db, 0);
+    }
+
+    @AfterEach
+    public void cleanup() throws Exception {
+        server.close();
+        db.close();
+        deleteRecursively(tempDir);
+    }
+
+    private void deleteRecursively(File f) {
+        if (f == null || !f.exists()) return;
+        if (f.isDirectory()) {
+            for (File c : f.listFiles()) deleteRecursively(c);
+        }
+        f.delete();
+    }
+
+    /** Minimal RESP client: commands as arrays of bulk strings, replies parsed into Java values */
+    private static final class Client implements Closeable {
+        final Socket socket;
+        final OutputStream out;
+        final DataInputStream in;
+
+        Client(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            out = new BufferedOutputStream(socket.getOutputStream());
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        void send(Object... args) throws IOException {
+            out.write(("*" + args.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (Object arg : args) {
+                byte[] b = arg instanceof byte[] ? (byte[]) arg : arg.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(("$" + b.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(b);
+                out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        Object call(Object... args) throws IOException {
+            send(args);
+            out.flush();
+            return reply();
+        }
+
+        /** "+OK" and "-ERR ..." as Strings (errors keep their '-'), integers as Long, bulks as byte[], arrays as List */
+        Object reply() throws IOException {
+            int type = in.read();
+            String line = line();
+            switch (type) {
+                case '+':
+                    return line;
+                case '-':
+                    return "-" + line;
+                case ':':
+                    return Long.parseLong(line);
+                case '$': {
+                    int length = Integer.parseInt(line);
+                    if (length < 0) return null;
+                    byte[] b = new byte[length];
+                    in.readFully(b);
+                    line();
+                    return b;
+                }
+                case '*': {
+                    List<Object> items = new ArrayList<>();
+                    for (int n = Integer.parseInt(line); n > 0; n--) items.add(reply());
+                    return items;
+                }
+                default:
+                    throw new IOException("bad reply type " + type);
+            }
+        }
+
+        private String line() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            for (int c = in.read(); c != '\r'; c = in.read()) {
+                if (c < 0) throw new EOFException();
+                sb.append((char) c);
+            }
+            in.read(); // '\n'
+            return sb.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static String str(Object bulk) {
+        return bulk == null ? null : new String((byte[]) bulk, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testCommands() throws Exception {
+        try (Client c = new Client(server.port())) {
+            assertEquals("PONG", c.call("PING"));
+            assertEquals("OK", c.call("SET", "k", "v1"));
+            assertEquals("v1", str(c.call("GET", "k")));
+            assertEquals("v1", new String(db.get("k")));
+            assertNull(c.call("GET", "missing"));
+
+            byte[] binary = {0, '\r', '\n', (byte) 0xff, '$'};
+            assertEquals("OK", c.call("set", "bin", binary));
+            assertArrayEquals(binary, (byte[]) c.call("get", "bin"));
+
+            List<?> values = (List<?>) c.call("MGET", "k", "missing", "bin", "k");
+            assertEquals(4, values.size());
+            assertEquals("v1", str(values.get(0)));
+            assertNull(values.get(1));
+            assertArrayEquals(binary, (byte[]) values.get(2));
+            assertEquals("v1", str(values.get(3)));
+
+            assertEquals(1L, c.call("DEL", "k", "missing"));
+            assertEquals(0L, c.call("DEL", "k"));
+            assertNull(c.call("GET", "k"));
+
+            assertEquals("OK", c.call("SET", "ttl", "x", "PX", "50"));
+            assertEquals("x", str(c.call("GET", "ttl")));
+            Thread.sleep(80);
+            assertNull(c.call("GET", "ttl"));
+
+            assertTrue(((String) c.call("SET", "k", "v", "NX")).startsWith("-ERR"));
+            assertTrue(((String) c.call("GET")).startsWith("-ERR wrong number of arguments"));
+            assertTrue(((String) c.call("FLUSHALL")).startsWith("-ERR unknown command"));
+            assertEquals(List.of(), c.call("COMMAND", "DOCS"));
+            assertEquals("OK", c.call("QUIT"));
+            assertEquals(-1, c.in.read(), "closed after QUIT");
+        }
+    }
+
+    @Test
+    public void testPipelineAndLargeValues() throws Exception {
+        try (Client c = new Client(server.port())) {
+            // Many commands in one write: SETs go out as batches, replies come back in order
+            for (int i = 0; i < 1000; i++) {
+                c.send("SET", "k" + i, "v" + i);
+                if (i % 100 == 99) c.send("GET", "k" + (i - 50));
+            }
+            c.out.flush();
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("OK", c.reply(), "reply " + i);
+                if (i % 100 == 99) assertEquals("v" + (i - 50), str(c.reply()));
+            }
+            for (int i = 0; i < 1000; i++) assertEquals("v" + i, new String(db.get("k" + i)));
+
+            // Values much larger than the connection buffers, both ways
+            byte[] big = new byte[3 * RespServer.BUFFER_SIZE + 17];
+            Arrays.fill(big, (byte) 'b');
+            c.send("SET", "big", big);
+            c.send("GET", "big");
+            c.send("MGET", "big", "k1");
+            c.out.flush();
+            assertEquals("OK", c.reply());
+            assertArrayEquals(big, (byte[]) c.reply());
+            List<?> both = (List<?>) c.reply();
+            assertArrayEquals(big, (byte[]) both.get(0));
+            assertEquals("v1", str(both.get(1)));
+
+            // Inline commands, as typed into telnet
+            c.out.write("PING\r\nGET k7\r\n".getBytes(StandardCharsets.US_ASCII));
+            c.out.flush();
+            assertEquals("PONG", c.reply());
+            assertEquals("v7", str(c.reply()));
+        }
+    }
+
+    @Test
+    public void testGetFollowsValuesThroughMergeAndCompression() throws Exception {
+        server.close();
+        db.close();
+        db = LiteCask.open(tempDir.getAbsolutePath(), true,
+                LiteCaskOptions.defaults().maxFileSize(4096).compression(ValueCodec.LZ, 64).mmapReads(true));
+        server = RespServer.start(db, 0);
+        try (Client c = new Client(server.port())) {
+            String compressible = "z".repeat(1000);
+            for (int i = 0; i < 50; i++) c.call("SET", "k" + i, i % 2 == 0 ? compressible : "v" + i);
+            db.merge();
+            for (int i = 0; i < 50; i++) assertEquals(i % 2 == 0 ? compressible : "v" + i, str(c.call("GET", "k" + i)));
+        }
+    }
+
+    @Test
+    public void testProtocolErrorClosesConnection() throws Exception {
+        try (Client c = new Client(server.port())) {
+            c.out.write("*1\r\n+PING\r\n".getBytes(StandardCharsets.US_ASCII));
+            c.out.flush();
+            assertTrue(((String) c.reply()).startsWith("-ERR Protocol error"));
+            assertEquals(-1, c.in.read());
+        }
+        try (Client c = new Client(server.port())) {
+            assertEquals("PONG", c.call("PING"), "other connections carry on");
+        }
+    }
+}
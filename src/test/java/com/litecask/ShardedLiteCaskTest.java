@@ -0,0 +1,134 @@
+package com.litecask;
+
+import org.junit.jupiter.api.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedLiteCaskTest {
+    private File tempDir;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("litecask-sharded").toFile();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        deleteRecursively(tempDir);
+    }
+
+    private void deleteRecursively(File f) {
+        if (f == null || !f.exists()) return;
+        if (f.isDirectory()) {
+            for (File c : f.listFiles()) deleteRecursively(c);
+        }
+        f.delete();
+    }
+
+    @Test
+    public void testRoutesKeysAcrossShardsAndReopens() throws Exception {
+        ShardedLiteCask db = ShardedLiteCask.open(tempDir.getAbsolutePath(), 4, true, LiteCaskOptions.defaults());
+        for (int i = 0; i < 1000; i++) db.put("user:" + i, ("v" + i).getBytes());
+        db.delete("user:5");
+        for (int s = 0; s < 4; s++) {
+            int size = db.shard(s).keyDirSize();
+            assertTrue(size > 150 && size < 350, "shard " + s + " holds " + size + " keys");
+        }
+        assertEquals("v7", new String(db.get("user:7")));
+        assertSame(db.shardFor("user:7"), db.shard(ShardedLiteCask.shardOf("user:7", 4)));
+        assertNotNull(db.shardFor("user:7").get("user:7"), "the key lives in its shard only");
+        java.util.Set<String> union = new java.util.HashSet<>();
+        for (int s = 0; s < 4; s++) union.addAll(db.shard(s).keys());
+        assertEquals(union, db.keys());
+        assertTrue(db.keys().contains("user:999"));
+        db.close();
+
+        // The manifest fixes the layout
+        assertThrows(IOException.class, () -> ShardedLiteCask.open(tempDir.getAbsolutePath(), 8, true, LiteCaskOptions.defaults()));
+        db = ShardedLiteCask.open(tempDir.getAbsolutePath(), false, LiteCaskOptions.defaults());
+        assertEquals(4, db.shardCount());
+        assertEquals("v999", new String(db.get("user:999")));
+        assertNull(db.get("user:5"));
+        db.close();
+    }
+
+    @Test
+    public void testRefusesUnshardedDirectory() throws Exception {
+        LiteCask plain = LiteCask.open(tempDir.getAbsolutePath(), true);
+        plain.put("k", "v".getBytes());
+        plain.close();
+        assertThrows(IOException.class, () -> ShardedLiteCask.open(tempDir.getAbsolutePath(), 2, true, LiteCaskOptions.defaults()));
+        assertThrows(IOException.class, () -> ShardedLiteCask.open(tempDir.getAbsolutePath(), true, LiteCaskOptions.defaults()));
+        assertThrows(IllegalArgumentException.class, () -> ShardedLiteCask.open(tempDir.getAbsolutePath(), 0, true, LiteCaskOptions.defaults()));
+    }
+
+    @Test
+    public void testMultiGetAndBatchesAcrossShards() throws Exception {
+        ShardedLiteCask db = ShardedLiteCask.open(tempDir.getAbsolutePath(), 3, true, LiteCaskOptions.defaults());
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            db.put("k" + i, ("v" + i).getBytes());
+            keys.add("k" + (99 - i));
+        }
+        keys.add("missing");
+        Map<String, byte[]> values = db.multiGet(keys);
+        assertEquals(100, values.size());
+        assertEquals(keys.subList(0, 100), new ArrayList<>(values.keySet()));
+        assertEquals("v42", new String(values.get("k42")));
+
+        // A batch is atomic within a shard only
+        String a = "k0";
+        String sameShard = null, otherShard = null;
+        for (int i = 1; sameShard == null || otherShard == null; i++) {
+            String k = "k" + i;
+            if (db.shardFor(k) == db.shardFor(a)) sameShard = k;
+            else otherShard = k;
+        }
+        db.write(new WriteBatch().put(a, "a".getBytes()).delete(sameShard));
+        assertEquals("a", new String(db.get(a)));
+        assertNull(db.get(sameShard));
+        WriteBatch spanning = new WriteBatch().put(a, "x".getBytes()).put(otherShard, "y".getBytes());
+        assertThrows(IllegalArgumentException.class, () -> db.write(spanning));
+        assertEquals("a", new String(db.get(a)));
+        db.close();
+    }
+
+    @Test
+    public void testConcurrentWritersMergeAndCheckpoint() throws Exception {
+        LiteCaskOptions opts = LiteCaskOptions.defaults().maxFileSize(16 * 1024);
+        ShardedLiteCask db = ShardedLiteCask.open(tempDir.getAbsolutePath(), 4, true, opts);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            futures.add(pool.submit(() -> {
+                for (int round = 0; round < 3; round++) {
+                    for (int i = 0; i < 200; i++) db.put("t" + thread + ":" + i, ("r" + round).getBytes());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        pool.shutdown();
+
+        db.merge();
+        db.checkpoint();
+        assertEquals(1600, db.keys().size());
+        db.close();
+
+        ShardedLiteCask reopened = ShardedLiteCask.open(tempDir.getAbsolutePath(), 4, true, opts);
+        for (int t = 0; t < 8; t++) {
+            for (int i = 0; i < 200; i++) assertEquals("r2", new String(reopened.get("t" + t + ":" + i)));
+        }
+        reopened.close();
+    }
+}
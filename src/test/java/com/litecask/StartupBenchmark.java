@@ -0,0 +1,61 @@
+package com.litecask;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Measures open() time by key count for each way the KeyDir can be rebuilt: from the chunked
+ * checkpoint, from hint files only, and by scanning the raw data files.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.litecask.StartupBenchmark
+ * Optional args: key counts, e.g. 100000 1000000 5000000
+ */
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = args.length == 0 ? new int[] {100_000, 1_000_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) counts[i] = Integer.parseInt(args[i]);
+
+        System.out.printf("cores=%d%n", Runtime.getRuntime().availableProcessors());
+        System.out.printf("%12s %14s %14s %14s%n", "keys", "checkpoint ms", "hints ms", "scan ms");
+        for (int keys : counts) {
+            File dir = Files.createTempDirectory("litecask-startup").toFile();
+            LiteCaskOptions load = LiteCaskOptions.defaults().syncPolicy(SyncPolicy.none());
+            LiteCask db = LiteCask.open(dir.getAbsolutePath(), true, load);
+            byte[] value = new byte[64];
+            for (int i = 0; i < keys; i++) db.put(key(i), value);
+            db.close(); // leaves hints and a full checkpoint
+
+            double checkpoint = timeOpen(dir, keys);
+            new File(dir, Checkpointer.FULL).delete();
+            double hints = timeOpen(dir, keys);
+            new File(dir, Checkpointer.FULL).delete();
+            for (File f : dir.listFiles((d, name) -> name.endsWith(".hint"))) f.delete();
+            double scan = timeOpen(dir, keys);
+
+            System.out.printf("%12d %14.1f %14.1f %14.1f%n", keys, checkpoint, hints, scan);
+            deleteRecursively(dir);
+        }
+    }
+
+    /** Open read-only (close() then writes no checkpoint) and check every key was indexed */
+    private static double timeOpen(File dir, int keys) throws Exception {
+        long start = System.nanoTime();
+        LiteCask db = LiteCask.open(dir.getAbsolutePath(), false);
+        double ms = (System.nanoTime() - start) / 1e6;
+        if (db.keys().size() != keys) throw new IllegalStateException("expected " + keys + " keys, got " + db.keys().size());
+        db.close();
+        return ms;
+    }
+
+    private static String key(int i) {
+        return String.format("key%09d", i);
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            for (File c : f.listFiles()) deleteRecursively(c);
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,63 @@
+package com.litecask;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ValueCacheTest {
+
+    private static KeyDir.EntryMeta meta(int fileId, long offset) {
+        return new KeyDir.EntryMeta(fileId, offset, 100, Entry.FLAG_PUT, offset);
+    }
+
+    @Test
+    public void testHitMissAndStaleMeta() {
+        ValueCache cache = new ValueCache(1 << 20);
+        assertNull(cache.get("k", meta(1, 0)));
+        cache.put("k", meta(1, 0), "v1".getBytes());
+        assertEquals("v1", new String(cache.get("k", meta(1, 0))));
+
+        // KeyDir moved on (overwrite or relocation): the cached value must not be served
+        assertNull(cache.get("k", meta(2, 0)));
+        assertNull(cache.get("k", meta(1, 0)), "stale entry is dropped on the first mismatch");
+        assertEquals(1, cache.hits());
+        assertEquals(3, cache.misses());
+
+        cache.put("k", meta(2, 0), "v2".getBytes());
+        cache.invalidate("k");
+        assertNull(cache.get("k", meta(2, 0)));
+        assertEquals(0, cache.sizeBytes());
+    }
+
+    @Test
+    public void testBoundedByBytes() {
+        ValueCache cache = new ValueCache(64 * 1024);
+        byte[] value = new byte[1000];
+        for (int i = 0; i < 1000; i++) {
+            cache.get("k" + i, meta(1, i)); // the miss that precedes every fill
+            cache.put("k" + i, meta(1, i), value);
+            assertTrue(cache.sizeBytes() <= cache.capacityBytes());
+        }
+        assertTrue(cache.evictions() + cache.rejections() > 0);
+    }
+
+    @Test
+    public void testHotKeysSurviveAScan() {
+        ValueCache cache = new ValueCache(256 * 1024);
+        byte[] value = new byte[512];
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 100; i++) {
+                if (cache.get("hot" + i, meta(1, i)) == null) cache.put("hot" + i, meta(1, i), value);
+            }
+        }
+        // One pass over many cold keys, each read once
+        for (int i = 0; i < 10_000; i++) {
+            if (cache.get("cold" + i, meta(2, i)) == null) cache.put("cold" + i, meta(2, i), value);
+        }
+        int hot = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.get("hot" + i, meta(1, i)) != null) hot++;
+        }
+        assertTrue(hot >= 90, "only " + hot + " hot keys survived the scan");
+    }
+}
@@ -0,0 +1,63 @@
+package com.litecask;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ValueCodecTest {
+
+    private static byte[] json(int records) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            sb.append("{\"id\":").append(i).append(",\"name\":\"user").append(i % 37)
+              .append("\",\"active\":").append(i % 3 == 0).append(",\"tags\":[\"a\",\"b\"]},");
+        }
+        return sb.append("]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRoundTrips() throws Exception {
+        Random rnd = new Random(42);
+        byte[] random = new byte[10_000];
+        rnd.nextBytes(random);
+        byte[] run = new byte[100_000]; // one long match: length extensions
+        byte[][] inputs = {new byte[0], "a".getBytes(), "abcdabcdabcdabcd".getBytes(), json(500), random, run};
+
+        for (ValueCodec codec : new ValueCodec[] {ValueCodec.LZ, ValueCodec.DEFLATE}) {
+            for (byte[] input : inputs) {
+                assertArrayEquals(input, codec.decompress(codec.compress(input)), codec.name() + " len " + input.length);
+            }
+            byte[] doc = json(500);
+            assertTrue(codec.compress(doc).length < doc.length / 3, codec.name() + " should shrink JSON");
+        }
+    }
+
+    @Test
+    public void testCorruptInputIsAnIOException() {
+        byte[] stored = ValueCodec.LZ.compress(json(50));
+        stored[stored.length / 2] ^= 0x55;
+        stored[5] = (byte) 0xFF;
+        try {
+            byte[] out = ValueCodec.LZ.decompress(stored);
+            assertNotNull(out); // a flip can still decode to (wrong) bytes; it must never throw anything else
+        } catch (java.io.IOException expected) {
+            // fine
+        }
+    }
+
+    @Test
+    public void testCustomCodecCannotTakeABuiltInId() {
+        ValueCodec impostor = new ValueCodec() {
+            public int id() { return ValueCodec.LZ.id(); }
+            public String name() { return "impostor"; }
+            public byte[] compress(byte[] value) { return value; }
+            public byte[] decompress(byte[] stored) { return stored; }
+        };
+        assertThrows(IllegalArgumentException.class, () -> LiteCaskOptions.defaults().compression(impostor, 0));
+        LiteCaskOptions.defaults().compression(ValueCodec.LZ, 0);
+        LiteCaskOptions.defaults().compression(ValueCodec.DEFLATE, 0);
+    }
+}